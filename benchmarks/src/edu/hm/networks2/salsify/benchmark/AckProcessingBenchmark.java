@@ -0,0 +1,155 @@
+package edu.hm.networks2.salsify.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.hm.networks2.salsify.common.config.NetworkConfiguration;
+import edu.hm.networks2.salsify.common.packets.SalsifyAck;
+import edu.hm.networks2.salsify.common.packets.SalsifyFragment;
+import edu.hm.networks2.salsify.common.packets.SalsifyFrame;
+import edu.hm.networks2.salsify.sender.helper.ITransportProtocolListener;
+import edu.hm.networks2.salsify.sender.implementation.AbstractSender;
+
+/**
+ * Sending frames and processing the ACKs for all their fragments while a
+ * number of newer frames is in flight. Nothing is sent over the network, so
+ * this measures the bookkeeping of the sender only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AckProcessingBenchmark {
+
+    /**
+     * Counts the events of the sender.
+     */
+    private static class Events implements ITransportProtocolListener {
+
+        private int resets;
+
+        private int acknowledged = -1;
+
+        @Override
+        public void reset() {
+            resets++;
+        }
+
+        @Override
+        public void acknowledged(int frameIndex) {
+            acknowledged = frameIndex;
+        }
+
+    }
+
+    /**
+     * A sender which drops all fragments.
+     */
+    private static class BenchmarkSender extends AbstractSender {
+
+        BenchmarkSender(ITransportProtocolListener listener) {
+            super(listener);
+        }
+
+        @Override
+        protected void sendFragment(SalsifyFragment fragment) {
+            // dropped
+        }
+
+        void acknowledge(SalsifyAck ack) throws IOException {
+            receiveAck(ack);
+        }
+
+        @Override
+        public void loseNexPacket() {
+        }
+
+        @Override
+        public void stopListening() {
+        }
+
+        @Override
+        public void join() {
+        }
+
+    }
+
+    /**
+     * Number of sent frames that are not acknowledged yet.
+     */
+    @Param({"1", "8"})
+    public int framesInFlight;
+
+    /**
+     * Size of the encoded frames in bytes.
+     */
+    @Param({"10000", "100000"})
+    public int frameSize;
+
+    private Events events;
+
+    private BenchmarkSender sender;
+
+    private byte[] data;
+
+    private int numberOfFragments;
+
+    private int frameIndex;
+
+    /**
+     * Bytes the receiver got so far, as reported in the ACKs.
+     */
+    private int delivered;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        data = new byte[frameSize];
+        numberOfFragments = new SalsifyFrame(data, 0, -1, 0, NetworkConfiguration.FEC_GROUP_SIZE).getNumberOfFragments();
+        events = new Events();
+        sender = new BenchmarkSender(events);
+        delivered = 0;
+        for (frameIndex = 0; frameIndex < framesInFlight; frameIndex++) {
+            sender.sendFrame(data, frameIndex, frameIndex - 1, 0);
+        }
+    }
+
+    /**
+     * Send a frame and acknowledge every fragment of the oldest frame in
+     * flight, one ACK per fragment like the receiver does. The ACKs report the
+     * frame before it as decoded.
+     *
+     * @return index of the newest frame reported as decoded.
+     *
+     * @throws IOException never, nothing is sent.
+     */
+    @Benchmark
+    public int sendAndAcknowledge() throws IOException {
+        sender.sendFrame(data, frameIndex, frameIndex - 1, 0);
+        final int acknowledgedFrameIndex = frameIndex - framesInFlight;
+        for (int index = 0; index < numberOfFragments; index++) {
+            delivered += SalsifyFragment.COMPLETE_SIZE;
+            sender.acknowledge(new SalsifyAck(acknowledgedFrameIndex, index, 300000, delivered, 0, acknowledgedFrameIndex - 1));
+        }
+        frameIndex++;
+        if (events.resets != 0) {
+            throw new IllegalStateException("AckProcessingBenchmark: Sender detected a loss!");
+        }
+        return events.acknowledged;
+    }
+
+}
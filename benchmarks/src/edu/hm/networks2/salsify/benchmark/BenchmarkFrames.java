@@ -0,0 +1,60 @@
+package edu.hm.networks2.salsify.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Loads the bundled frames for the benchmarks. The frame directories are
+ * looked up in the directory given by the system property salsify.frames
+ * (the working directory by default).
+ */
+public final class BenchmarkFrames {
+
+    private BenchmarkFrames() {
+    }
+
+    /**
+     * Load a frame of a bundled frame directory as TYPE_3BYTE_BGR image, the
+     * type the webcam delivers.
+     *
+     * @param resolution width of the frames (180, 864 or 1280).
+     * @param index index of the frame.
+     *
+     * @return the frame.
+     *
+     * @throws IOException if the frame cannot be read.
+     */
+    public static BufferedImage load(int resolution, int index) throws IOException {
+        final File directory = new File(System.getProperty("salsify.frames", System.getProperty("user.dir")), "frames" + resolution);
+        for (String extension : new String[]{".jpeg", ".png", ".jpg"}) {
+            final File file = new File(directory, "frame" + index + extension);
+            if (file.isFile()) {
+                final BufferedImage frame = ImageIO.read(file);
+                if (frame == null) {
+                    throw new IOException("BenchmarkFrames: " + file + " is not an image!");
+                }
+                return toBgr(frame);
+            }
+        }
+        throw new IOException("BenchmarkFrames: Frame " + index + " not found in " + directory + "!");
+    }
+
+    /**
+     * Convert an image to TYPE_3BYTE_BGR if it has another type.
+     */
+    private static BufferedImage toBgr(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            return image;
+        }
+        final BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+        final Graphics2D graphics = converted.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return converted;
+    }
+
+}
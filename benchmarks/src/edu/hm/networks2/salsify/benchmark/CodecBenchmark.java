@@ -0,0 +1,94 @@
+package edu.hm.networks2.salsify.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.hm.networks2.salsify.common.ICodec;
+import edu.hm.networks2.salsify.common.config.CodecConfiguration;
+import edu.hm.networks2.salsify.common.implementation.Codec;
+import edu.hm.networks2.salsify.common.implementation.TiledCodec;
+
+/**
+ * Encoding and decoding of frames with and without source state, with the
+ * plain codec and the tiled codec the sender and receiver use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"180", "864", "1280"})
+    public int resolution;
+
+    @Param({"plain", "tiled"})
+    public String codecType;
+
+    @Param({"50"})
+    public int quality;
+
+    private ICodec codec;
+
+    /**
+     * Source state of the delta benchmarks.
+     */
+    private BufferedImage state;
+
+    private BufferedImage frame;
+
+    private byte[] encodedIntra;
+
+    private byte[] encodedDelta;
+
+    /**
+     * Reused by the decode benchmarks, like the receiver does.
+     */
+    private BufferedImage destination;
+
+    @Setup
+    public void setup() throws IOException {
+        codec = "tiled".equals(codecType) ? new TiledCodec(new Codec(), CodecConfiguration.TILES) : new Codec();
+        state = BenchmarkFrames.load(resolution, 0);
+        frame = BenchmarkFrames.load(resolution, 1);
+        encodedIntra = codec.encode(Optional.empty(), frame, quality).orElseThrow();
+        encodedDelta = codec.encode(Optional.of(state), frame, quality).orElseThrow();
+        destination = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+    }
+
+    @Benchmark
+    public Optional<byte[]> encodeIntra() {
+        return codec.encode(Optional.empty(), frame, quality);
+    }
+
+    @Benchmark
+    public Optional<byte[]> encodeDelta() {
+        return codec.encode(Optional.of(state), frame, quality);
+    }
+
+    @Benchmark
+    public Optional<BufferedImage> decodeIntra() {
+        return codec.decode(Optional.empty(), encodedIntra, destination);
+    }
+
+    @Benchmark
+    public Optional<BufferedImage> decodeDelta() {
+        return codec.decode(Optional.of(state), encodedDelta, destination);
+    }
+
+}
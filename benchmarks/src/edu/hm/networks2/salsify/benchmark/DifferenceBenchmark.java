@@ -0,0 +1,72 @@
+package edu.hm.networks2.salsify.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.hm.networks2.salsify.common.IDifferenceEngine;
+import edu.hm.networks2.salsify.common.implementation.PixelDifferenceEngine;
+import edu.hm.networks2.salsify.common.implementation.RasterDifferenceEngine;
+
+/**
+ * Calculating and applying the difference between two frames.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DifferenceBenchmark {
+
+    @Param({"180", "864", "1280"})
+    public int resolution;
+
+    @Param({"raster", "pixel"})
+    public String engineType;
+
+    private IDifferenceEngine engine;
+
+    private BufferedImage before;
+
+    private BufferedImage after;
+
+    private BufferedImage difference;
+
+    /**
+     * Reused by addDifference(), like the decoder does.
+     */
+    private BufferedImage result;
+
+    @Setup
+    public void setup() throws IOException {
+        engine = "pixel".equals(engineType) ? new PixelDifferenceEngine() : new RasterDifferenceEngine();
+        before = BenchmarkFrames.load(resolution, 0);
+        after = BenchmarkFrames.load(resolution, 1);
+        difference = engine.calculateDifference(before, after);
+        result = new BufferedImage(after.getWidth(), after.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+    }
+
+    @Benchmark
+    public BufferedImage calculateDifference() {
+        return engine.calculateDifference(before, after);
+    }
+
+    @Benchmark
+    public BufferedImage addDifference() {
+        return engine.addDifference(before, difference, result);
+    }
+
+}
@@ -0,0 +1,120 @@
+package edu.hm.networks2.salsify.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.hm.networks2.salsify.common.packets.SalsifyAck;
+import edu.hm.networks2.salsify.common.packets.SalsifyFragment;
+import edu.hm.networks2.salsify.common.packets.SalsifyFrame;
+
+/**
+ * Splitting frames into fragments, reassembling them from received packets
+ * and (de)serialising fragments and ACKs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketBenchmark {
+
+    /**
+     * Size of the encoded frame in bytes.
+     */
+    @Param({"10000", "100000"})
+    public int frameSize;
+
+    /**
+     * Data fragments per parity fragment, 0 for no parity.
+     */
+    @Param({"0", "4"})
+    public int groupSize;
+
+    private byte[] data;
+
+    /**
+     * The packets of the frame as they arrive at the receiver.
+     */
+    private byte[][] packets;
+
+    private SalsifyFragment fragment;
+
+    /**
+     * Reused for serialising, like the sockets do.
+     */
+    private ByteBuffer sendBuffer;
+
+    private SalsifyAck ack;
+
+    private byte[] rawAck;
+
+    @Setup
+    public void setup() {
+        data = new byte[frameSize];
+        new Random(0).nextBytes(data);
+        final SalsifyFrame frame = new SalsifyFrame(data, 1, 0, 0, groupSize);
+        packets = new byte[frame.getNumberOfFragments()][];
+        for (int index = 0; index < packets.length; index++) {
+            packets[index] = frame.getFragment(index).getRawPacket();
+        }
+        fragment = frame.getFragment(0);
+        sendBuffer = ByteBuffer.allocate(SalsifyFragment.COMPLETE_SIZE);
+        ack = new SalsifyAck(1, 3, 300000, 123456, 0b1011L);
+        rawAck = ack.getRawData();
+    }
+
+    @Benchmark
+    public void fragment(Blackhole blackhole) {
+        final SalsifyFrame frame = new SalsifyFrame(data, 1, 0, 0, groupSize);
+        for (int index = 0; index < frame.getNumberOfFragments(); index++) {
+            blackhole.consume(frame.getFragment(index));
+        }
+    }
+
+    @Benchmark
+    public byte[] reassemble() {
+        final SalsifyFrame frame = new SalsifyFrame(new SalsifyFragment(packets[0], packets[0].length));
+        for (int index = 1; index < packets.length; index++) {
+            frame.addFragment(new SalsifyFragment(packets[index], packets[index].length));
+        }
+        return frame.getFrame();
+    }
+
+    @Benchmark
+    public ByteBuffer writeFragment() {
+        sendBuffer.clear();
+        fragment.writeTo(sendBuffer);
+        return sendBuffer;
+    }
+
+    @Benchmark
+    public SalsifyFragment readFragment() {
+        return new SalsifyFragment(packets[0], packets[0].length);
+    }
+
+    @Benchmark
+    public byte[] writeAck() {
+        return ack.getRawData();
+    }
+
+    @Benchmark
+    public SalsifyAck readAck() {
+        return new SalsifyAck(rawAck);
+    }
+
+}
@@ -1,15 +1,20 @@
 package edu.hm.networks2.salsify;
 
+import edu.hm.networks2.salsify.bench.LoopbackBenchmark;
 import edu.hm.networks2.salsify.common.implementation.GlobalLogger;
 import edu.hm.networks2.salsify.receiver.ISalsifyReceiverCore;
 import edu.hm.networks2.salsify.receiver.implementation.SalsifyReceiverCore;
 import edu.hm.networks2.salsify.sender.ISalsifySenderCore;
+import edu.hm.networks2.salsify.sender.implementation.RawVideoReader;
+import edu.hm.networks2.salsify.sender.implementation.RawVideoWriter;
 import edu.hm.networks2.salsify.sender.implementation.SalsifySenderCore;
+import java.io.File;
+import java.io.IOException;
 import java.util.logging.Level;
 
 public class Main {
 
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws InterruptedException, IOException {
 
         final String mode = args.length != 0 ? args[0] : "";
         final String bandwidth = args.length == 2 ? args[1] : "100000";
@@ -31,10 +36,38 @@ public class Main {
                 receiver.join();
                 GlobalLogger.getInstance().info("Stopped salsify reciever.");
                 break;
+            case "bench":
+            case "b":
+                GlobalLogger.getInstance("Benchmark_").info("Starting loopback benchmark...");
+                final String report = new LoopbackBenchmark(Integer.parseInt(bandwidth)).run();
+                GlobalLogger.getInstance().info(report);
+                System.out.println(report);
+                // the sender and receiver threads do not stop by themselves
+                System.exit(0);
+                break;
+            case "convert":
+            case "c":
+                if (args.length < 3) {
+                    System.out.println("Convert: \"convert\" or \"c\" <frame directory> <raw video file> [bgr|yuv420]");
+                    break;
+                }
+                final int pixelFormat = args.length > 3 && "yuv420".equals(args[3]) ? RawVideoReader.FORMAT_YUV420 : RawVideoReader.FORMAT_BGR;
+                // the frame directories use different picture formats
+                final String prefix = args[1] + File.separator + "frame";
+                final String extension = RawVideoWriter.findExtension(prefix);
+                if (extension == null) {
+                    System.out.println("Convert: There is no frame0.* in " + args[1]);
+                    break;
+                }
+                final int frames = RawVideoWriter.convert(prefix, extension, new File(args[2]), pixelFormat);
+                System.out.println("Converted " + frames + " frames.");
+                break;
             default:
                 System.out.println("Please start this program with one of the following arguments to determine which mode to use:\n");
                 System.out.println("Sender: \"sender\" or \"s\" also provide the bandwidth here as a number (default");
                 System.out.println("Receiver:  \"receiver\" or \"r\"");
+                System.out.println("Loopback benchmark: \"bench\" or \"b\" also provide the bandwidth here as a number");
+                System.out.println("Convert a frame directory to a raw video file: \"convert\" or \"c\" <frame directory> <raw video file> [bgr|yuv420]");
                 break;
         }
     }
@@ -0,0 +1,102 @@
+package edu.hm.networks2.salsify.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import edu.hm.networks2.salsify.receiver.IScreen;
+
+/**
+ * A screen without a window. It stamps every frame with the time it is
+ * displayed and hands it to another thread, which evaluates it with
+ * take(...), so the evaluation does not delay the receiver.
+ */
+public class HeadlessScreen implements IScreen {
+
+    /**
+     * A frame with its index and the time it was displayed.
+     */
+    public static class DisplayedFrame {
+
+        private final BufferedImage frame;
+
+        private final int frameIndex;
+
+        /**
+         * System.nanoTime() when the frame was displayed.
+         */
+        private final long displayTime;
+
+        DisplayedFrame(BufferedImage frame, int frameIndex, long displayTime) {
+            this.frame = frame;
+            this.frameIndex = frameIndex;
+            this.displayTime = displayTime;
+        }
+
+        public BufferedImage getFrame() {
+            return frame;
+        }
+
+        public int getFrameIndex() {
+            return frameIndex;
+        }
+
+        public long getDisplayTime() {
+            return displayTime;
+        }
+
+    }
+
+    /**
+     * Displayed frames that were not taken yet.
+     */
+    private final BlockingQueue<DisplayedFrame> displayedFrames;
+
+    public HeadlessScreen() {
+        displayedFrames = new LinkedBlockingQueue<>();
+    }
+
+    /**
+     * {@inheritDoc}<br>
+     * This implementation has nothing to start.
+     *
+     * @see edu.hm.networks2.salsify.receiver.IScreen#start()
+     */
+    @Override
+    public void start() {
+        // no window
+    }
+
+    /**
+     * {@inheritDoc}<br>
+     * This implementation only knows the frame index when it is given, so
+     * frames displayed with this method get index -1.
+     *
+     * @see edu.hm.networks2.salsify.receiver.IScreen#displayFrame(java.awt.image.BufferedImage)
+     */
+    @Override
+    public void displayFrame(BufferedImage frame) {
+        displayFrame(frame, -1);
+    }
+
+    @Override
+    public void displayFrame(BufferedImage frame, int frameIndex) {
+        displayedFrames.add(new DisplayedFrame(frame, frameIndex, System.nanoTime()));
+    }
+
+    /**
+     * Take the oldest displayed frame, wait if there is none.
+     *
+     * @param timeout maximum time to wait in milliseconds.
+     *
+     * @return the frame, null if none was displayed within the timeout.
+     *
+     * @throws InterruptedException if the thread gets interrupted while
+     * waiting.
+     */
+    public DisplayedFrame take(long timeout) throws InterruptedException {
+        return displayedFrames.poll(timeout, TimeUnit.MILLISECONDS);
+    }
+
+}
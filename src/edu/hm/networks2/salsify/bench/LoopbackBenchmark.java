@@ -0,0 +1,242 @@
+package edu.hm.networks2.salsify.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.hm.networks2.salsify.common.implementation.FrameTracer;
+import edu.hm.networks2.salsify.common.implementation.RasterDifferenceEngine;
+import edu.hm.networks2.salsify.receiver.implementation.SalsifyReceiverCore;
+import edu.hm.networks2.salsify.sender.helper.IWebcamListener;
+import edu.hm.networks2.salsify.sender.implementation.SalsifySenderCore;
+import edu.hm.networks2.salsify.sender.implementation.Webcam;
+
+/**
+ * Runs a sender and a receiver in one process over the loopback interface and
+ * measures the whole pipeline: every frame is stamped when the webcam
+ * captures it and when the (headless) screen displays it. The sender numbers
+ * the frames in the order the webcam delivers them, so the n-th captured
+ * frame is the frame with index n at the receiver.
+ *
+ * The result is a report with the end-to-end latency percentiles, the
+ * delivered frame rate, the bytes per frame, the dropped frames and resets,
+ * the PSNR of the displayed frames against the captured ones and the
+ * latencies of the pipeline stages (see FrameTracer).
+ */
+public class LoopbackBenchmark {
+
+    /**
+     * Time in milliseconds the frames in flight get after the webcam ended.
+     */
+    private static final long DRAIN_TIME = 2000;
+
+    /**
+     * Captured frames this many frames older than a displayed frame will not
+     * be displayed anymore and are forgotten.
+     */
+    private static final int REORDER_FRAMES = 16;
+
+    /**
+     * PSNR of identical frames in dB.
+     */
+    private static final double MAXIMUM_PSNR = 100;
+
+    /**
+     * A frame with the time it was captured.
+     */
+    private static class CapturedFrame {
+
+        private final BufferedImage frame;
+
+        /**
+         * System.nanoTime() when the frame was captured.
+         */
+        private final long captureTime;
+
+        CapturedFrame(BufferedImage frame, long captureTime) {
+            this.frame = frame;
+            this.captureTime = captureTime;
+        }
+
+    }
+
+    /**
+     * Bandwidth of the link in bytes per second.
+     */
+    private final int bandwidth;
+
+    /**
+     * Captured frames that were not displayed yet, by frame index.
+     */
+    private final Map<Integer, CapturedFrame> capturedFrames;
+
+    /**
+     * Number of captured frames (index of the next captured frame).
+     */
+    private final AtomicInteger numberOfCapturedFrames;
+
+    /**
+     * Released when the webcam ended.
+     */
+    private final CountDownLatch webcamEnded;
+
+    /**
+     * Construct a benchmark.
+     *
+     * @param bandwidth bandwidth of the link in bytes per second.
+     */
+    public LoopbackBenchmark(int bandwidth) {
+        if (bandwidth <= 0) {
+            throw new IllegalArgumentException("LoopbackBenchmark: Bandwidth must be positive!");
+        }
+        this.bandwidth = bandwidth;
+        this.capturedFrames = new ConcurrentHashMap<>();
+        this.numberOfCapturedFrames = new AtomicInteger();
+        this.webcamEnded = new CountDownLatch(1);
+    }
+
+    /**
+     * Stream the whole clip of the webcam and evaluate every displayed frame.
+     * The sender and receiver keep their threads, so the process should end
+     * afterwards.
+     *
+     * @return the report.
+     *
+     * @throws InterruptedException if the thread gets interrupted.
+     */
+    public String run() throws InterruptedException {
+        final Webcam webcam = new Webcam();
+        // registered before the sender core, so frames are stamped before
+        // they are encoded
+        webcam.register(new IWebcamListener() {
+
+            @Override
+            public void receiveFrame(BufferedImage frame) {
+                capturedFrames.put(numberOfCapturedFrames.getAndIncrement(), new CapturedFrame(frame, System.nanoTime()));
+            }
+
+            @Override
+            public void disconnected() {
+                webcamEnded.countDown();
+            }
+        });
+        final HeadlessScreen screen = new HeadlessScreen();
+        final SalsifyReceiverCore receiverCore = new SalsifyReceiverCore(screen);
+        final SalsifySenderCore senderCore = new SalsifySenderCore(webcam, bandwidth, false);
+        receiverCore.start();
+        senderCore.start();
+
+        long[] latencies = new long[64];
+        int displayedFrames = 0;
+        double psnrSum = 0;
+        double psnrMinimum = MAXIMUM_PSNR;
+        long drainDeadline = Long.MAX_VALUE;
+        while (System.nanoTime() - drainDeadline < 0) {
+            if (drainDeadline == Long.MAX_VALUE && webcamEnded.getCount() == 0) {
+                drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIME);
+            }
+            final HeadlessScreen.DisplayedFrame displayed = screen.take(100);
+            if (displayed == null) {
+                continue;
+            }
+            final CapturedFrame captured = capturedFrames.remove(displayed.getFrameIndex());
+            if (captured == null) {
+                continue;
+            }
+            if (displayedFrames == latencies.length) {
+                latencies = Arrays.copyOf(latencies, 2 * latencies.length);
+            }
+            latencies[displayedFrames++] = displayed.getDisplayTime() - captured.captureTime;
+            final double psnr = getPsnr(captured.frame, displayed.getFrame());
+            psnrSum += psnr;
+            psnrMinimum = Math.min(psnrMinimum, psnr);
+            capturedFrames.keySet().removeIf(index -> index < displayed.getFrameIndex() - REORDER_FRAMES);
+        }
+
+        latencies = Arrays.copyOf(latencies, displayedFrames);
+        Arrays.sort(latencies);
+        final int captured = numberOfCapturedFrames.get();
+        final long sentFrames = senderCore.getSentFrames();
+        final double clipDuration = captured * Webcam.FRAME_DELAY / 1000.0;
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "Loopback benchmark with %d bytes/s%n", bandwidth));
+        report.append(String.format(Locale.ROOT, "captured frames:   %d%n", captured));
+        report.append(String.format(Locale.ROOT, "sent frames:       %d (%.0f bytes/frame)%n",
+                sentFrames, sentFrames == 0 ? 0.0 : (double) senderCore.getSentBytes() / sentFrames));
+        report.append(String.format(Locale.ROOT, "dropped frames:    %d%n", senderCore.getDroppedFrames()));
+        report.append(String.format(Locale.ROOT, "resets:            %d%n", senderCore.getResets()));
+        report.append(String.format(Locale.ROOT, "missing sources:   %d%n", receiverCore.getMissingSources()));
+        report.append(String.format(Locale.ROOT, "displayed frames:  %d (%.2f fps)%n",
+                displayedFrames, clipDuration == 0 ? 0.0 : displayedFrames / clipDuration));
+        report.append(String.format(Locale.ROOT, "latency (ms):      p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+                getPercentile(latencies, 50), getPercentile(latencies, 90), getPercentile(latencies, 99), getPercentile(latencies, 100)));
+        report.append(String.format(Locale.ROOT, "PSNR (dB):         mean %.2f, min %.2f%n",
+                displayedFrames == 0 ? 0.0 : psnrSum / displayedFrames, displayedFrames == 0 ? 0.0 : psnrMinimum));
+        report.append(FrameTracer.getInstance().getSummary());
+        return report.toString().trim();
+    }
+
+    /**
+     * Get a percentile with the nearest rank method.
+     *
+     * @param sortedLatencies the latencies in nanoseconds, sorted.
+     * @param percentile the percentile (0, 100].
+     *
+     * @return the percentile in milliseconds, 0 if there are no latencies.
+     */
+    private static double getPercentile(long[] sortedLatencies, int percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        final int rank = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length);
+        return sortedLatencies[Math.max(0, rank - 1)] / 1e6;
+    }
+
+    /**
+     * Calculate the peak signal to noise ratio of a displayed frame.
+     *
+     * @param original the captured frame.
+     * @param displayed the displayed frame.
+     *
+     * @return the PSNR in dB, MAXIMUM_PSNR for identical frames.
+     */
+    private static double getPsnr(BufferedImage original, BufferedImage displayed) {
+        if (original.getWidth() != displayed.getWidth() || original.getHeight() != displayed.getHeight()) {
+            return 0;
+        }
+        long squaredErrors = 0;
+        long samples = 0;
+        if (RasterDifferenceEngine.isPlainBgr(original) && RasterDifferenceEngine.isPlainBgr(displayed)) {
+            final byte[] originalData = RasterDifferenceEngine.getData(original);
+            final byte[] displayedData = RasterDifferenceEngine.getData(displayed);
+            for (int index = 0; index < originalData.length; index++) {
+                final int error = (originalData[index] & 0xFF) - (displayedData[index] & 0xFF);
+                squaredErrors += error * error;
+            }
+            samples = originalData.length;
+        } else {
+            for (int y = 0; y < original.getHeight(); y++) {
+                for (int x = 0; x < original.getWidth(); x++) {
+                    final int originalPixel = original.getRGB(x, y);
+                    final int displayedPixel = displayed.getRGB(x, y);
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        final int error = (originalPixel >> shift & 0xFF) - (displayedPixel >> shift & 0xFF);
+                        squaredErrors += error * error;
+                    }
+                }
+            }
+            samples = 3L * original.getWidth() * original.getHeight();
+        }
+        if (squaredErrors == 0) {
+            return MAXIMUM_PSNR;
+        }
+        final double meanSquaredError = (double) squaredErrors / samples;
+        return Math.min(MAXIMUM_PSNR, 10 * Math.log10(255.0 * 255.0 / meanSquaredError));
+    }
+
+}
@@ -11,11 +11,16 @@ public interface ICodec {
      * provide a state the image will simply be the same as frame but encoded
      * to jpeg.
      * 
+     * Encoding can be cancelled by interrupting the calling thread. The
+     * interrupt is checked before the (slow) jpeg encoding starts, a running
+     * jpeg encoding is finished.
+     * 
      * @param state The state of the encoder.
      * @param frame The frame to be encoded.
      * @param quality The quality of the encoding (integer in range [0, 100]).
      * 
-     * @return The jpeg encoded frame.
+     * @return The jpeg encoded frame, empty if encoding failed or was
+     * cancelled (the interrupt status is kept).
      */
     Optional<byte[]> encode(Optional<BufferedImage> state, BufferedImage frame, int quality);
 
@@ -32,5 +37,21 @@ public interface ICodec {
      * successful.
      */
     Optional<BufferedImage> decode(Optional<BufferedImage> state, byte[] encodedFrame);
+
+    /**
+     * Decode an image into the given destination. This works like
+     * decode(state, encodedFrame) but the destination is reused instead of
+     * allocating a new image. In case the destination does not fit the
+     * encoded frame (size or type) a new image is returned. The destination
+     * must not be the state.
+     * 
+     * @param state The state of the decoder.
+     * @param encodedFrame The jpeg encoded frame which will be decoded.
+     * @param destination The image that receives the decoded frame.
+     * 
+     * @return Optional containing the destination (or a new image) in case
+     * everything was successful.
+     */
+    Optional<BufferedImage> decode(Optional<BufferedImage> state, byte[] encodedFrame, BufferedImage destination);
 	
 }
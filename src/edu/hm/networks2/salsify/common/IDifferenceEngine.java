@@ -0,0 +1,55 @@
+package edu.hm.networks2.salsify.common;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * This interface describes the engine that calculates and applies the
+ * difference between two frames. The codec uses it to encode a frame based on
+ * a state and to decode it again.
+ *
+ * The difference of every color component is a signed residual with a bias:
+ * 128 + (after - before), clamped to [0, 255]. Adding it to the state is
+ * state + (difference - 128), clamped to [0, 255]. So every change up to
+ * +127 and down to -128 is reproduced exactly and an error of the lossy jpeg
+ * encoding of the difference is not amplified. A bigger change is cut off,
+ * the rest is sent with the next frame, which is based on the result. Unlike
+ * a difference with wrap around, small errors of the jpeg encoding only cause
+ * small errors in the result. All implementations must return bit-identical
+ * results.
+ */
+public interface IDifferenceEngine {
+
+    /**
+     * Calculate the difference between two images.
+     *
+     * @param before Image before (the state).
+     * @param after Image after (the frame).
+     *
+     * @return BufferedImage of type TYPE_3BYTE_BGR containing the difference.
+     */
+    BufferedImage calculateDifference(BufferedImage before, BufferedImage after);
+
+    /**
+     * Adds the difference to the given state. This is the reverse operation of
+     * calculateDifference(...).
+     *
+     * @param state The image that the difference will be added to.
+     * @param difference The difference values stored in an image.
+     *
+     * @return BufferedImage of type TYPE_3BYTE_BGR containing the result.
+     */
+    BufferedImage addDifference(BufferedImage state, BufferedImage difference);
+
+    /**
+     * Adds the difference to the given state and stores the result in the
+     * given image. The result may be the difference itself.
+     *
+     * @param state The image that the difference will be added to.
+     * @param difference The difference values stored in an image.
+     * @param result Image of the same size which receives the result.
+     *
+     * @return the result image.
+     */
+    BufferedImage addDifference(BufferedImage state, BufferedImage difference, BufferedImage result);
+
+}
@@ -0,0 +1,44 @@
+package edu.hm.networks2.salsify.common.config;
+
+public class CodecConfiguration {
+
+    /**
+     * The sender splits every frame into horizontal stripes which are encoded
+     * and decoded in parallel. Tiled payloads are marked, the receiver decodes
+     * both formats.
+     */
+    public static final boolean TILED = true;
+
+    /**
+     * Number of stripes per frame when the tiled codec is used.
+     */
+    public static final int TILES = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Maximum number of pixels of a decoded frame. Bigger frames are rejected
+     * before decoding, so a corrupt payload cannot exhaust the memory.
+     */
+    public static final long MAXIMUM_PIXELS = 4096L * 4096;
+
+    /**
+     * The sender encodes a frame without source state if more than this share
+     * of its color components changed too much to fit into the residual of a
+     * difference (a scene cut). Such a difference is bigger and worse than the
+     * frame on its own.
+     */
+    public static final double SCENE_CUT_SHARE = 0.1;
+
+    /**
+     * The receiver keeps decoded frames this many frames older than the newest
+     * source frame it has seen, because the sender goes back to an older
+     * acknowledged frame after a reset.
+     */
+    public static final int RETAINED_STATES = 16;
+
+    /**
+     * Maximum number of bytes of the frames that are kept as source states
+     * (on each side).
+     */
+    public static final long STATE_CAPACITY = 256L * 1024 * 1024;
+
+}
@@ -0,0 +1,274 @@
+package edu.hm.networks2.salsify.common.config;
+
+/**
+ * Describes the network conditions an emulated link adds to the real one:
+ * random or bursty loss (Gilbert-Elliott), propagation delay with jitter,
+ * reordering and a fixed or time varying bandwidth (Mahimahi trace) with a
+ * drop tail queue. A new configuration describes a perfect link.
+ *
+ * A lossy cellular link could look like this:
+ * <pre>
+ * new LinkConfiguration(1)
+ *         .withBurstLoss(0.01, 0.3, 0.0, 0.5)
+ *         .withDelay(40, 10)
+ *         .withTrace("traces/Verizon-LTE-short.down")
+ *         .withQueueLimit(150000);
+ * </pre>
+ */
+public class LinkConfiguration {
+
+    /**
+     * Link the sender sends its fragments over.
+     */
+    public static final LinkConfiguration FRAGMENTS = new LinkConfiguration(1);
+
+    /**
+     * Link the receiver sends its ACKs over.
+     */
+    public static final LinkConfiguration ACKS = new LinkConfiguration(2);
+
+    /**
+     * Seed of all random decisions, so a run can be repeated.
+     */
+    private final long seed;
+
+    /**
+     * Probability to switch from the good to the bad state (per packet).
+     */
+    private double goodToBad;
+
+    /**
+     * Probability to switch from the bad to the good state (per packet).
+     */
+    private double badToGood;
+
+    /**
+     * Probability to lose a packet in the good state.
+     */
+    private double lossGood;
+
+    /**
+     * Probability to lose a packet in the bad state.
+     */
+    private double lossBad;
+
+    /**
+     * Propagation delay in milliseconds.
+     */
+    private int delay;
+
+    /**
+     * Maximum additional random delay in milliseconds.
+     */
+    private int jitter;
+
+    /**
+     * Probability that a packet is held back and overtaken by later ones.
+     */
+    private double reorderRate;
+
+    /**
+     * Additional delay of a reordered packet in milliseconds.
+     */
+    private int reorderDelay;
+
+    /**
+     * Fixed bandwidth in bytes per second, 0 means unlimited.
+     */
+    private int bandwidth;
+
+    /**
+     * Mahimahi trace file with the delivery opportunities, null means the
+     * fixed bandwidth is used.
+     */
+    private String traceFile;
+
+    /**
+     * Maximum number of bytes waiting for the bandwidth, 0 means unlimited.
+     */
+    private int queueLimit;
+
+    /**
+     * Construct the configuration of a perfect link.
+     *
+     * @param seed seed of all random decisions.
+     */
+    public LinkConfiguration(long seed) {
+        this.seed = seed;
+        this.badToGood = 1;
+    }
+
+    /**
+     * Lose every packet with the same probability.
+     *
+     * @param rate loss probability.
+     *
+     * @return this configuration.
+     */
+    public LinkConfiguration withLoss(double rate) {
+        return withBurstLoss(0, 1, rate, rate);
+    }
+
+    /**
+     * Lose packets according to a Gilbert-Elliott model. The link switches
+     * between a good and a bad state, each with its own loss probability.
+     *
+     * @param goodToBad probability to switch to the bad state.
+     * @param badToGood probability to switch to the good state.
+     * @param lossGood loss probability in the good state.
+     * @param lossBad loss probability in the bad state.
+     *
+     * @return this configuration.
+     */
+    public LinkConfiguration withBurstLoss(double goodToBad, double badToGood, double lossGood, double lossBad) {
+        this.goodToBad = checkProbability(goodToBad);
+        this.badToGood = checkProbability(badToGood);
+        this.lossGood = checkProbability(lossGood);
+        this.lossBad = checkProbability(lossBad);
+        return this;
+    }
+
+    /**
+     * Delay every packet.
+     *
+     * @param delay propagation delay in milliseconds.
+     * @param jitter maximum additional random delay in milliseconds. Jitter
+     * does not reorder packets.
+     *
+     * @return this configuration.
+     */
+    public LinkConfiguration withDelay(int delay, int jitter) {
+        this.delay = checkNotNegative(delay);
+        this.jitter = checkNotNegative(jitter);
+        return this;
+    }
+
+    /**
+     * Hold back some packets, so later packets overtake them.
+     *
+     * @param rate probability that a packet is held back.
+     * @param delay additional delay of a held back packet in milliseconds.
+     *
+     * @return this configuration.
+     */
+    public LinkConfiguration withReordering(double rate, int delay) {
+        this.reorderRate = checkProbability(rate);
+        this.reorderDelay = checkNotNegative(delay);
+        return this;
+    }
+
+    /**
+     * Limit the link to a fixed bandwidth.
+     *
+     * @param bandwidth bandwidth in bytes per second, 0 means unlimited.
+     *
+     * @return this configuration.
+     */
+    public LinkConfiguration withBandwidth(int bandwidth) {
+        this.bandwidth = checkNotNegative(bandwidth);
+        return this;
+    }
+
+    /**
+     * Let the bandwidth follow a Mahimahi trace. Every line of the file is a
+     * point in time (milliseconds) at which one MTU sized packet can be
+     * delivered. The trace repeats after its last line.
+     *
+     * @param traceFile path of the trace file, null to use the fixed
+     * bandwidth.
+     *
+     * @return this configuration.
+     */
+    public LinkConfiguration withTrace(String traceFile) {
+        this.traceFile = traceFile;
+        return this;
+    }
+
+    /**
+     * Drop packets when too many bytes wait for the bandwidth.
+     *
+     * @param queueLimit maximum number of waiting bytes, 0 means unlimited.
+     *
+     * @return this configuration.
+     */
+    public LinkConfiguration withQueueLimit(int queueLimit) {
+        this.queueLimit = checkNotNegative(queueLimit);
+        return this;
+    }
+
+    /**
+     * Check if this configuration describes a perfect link, so packets can be
+     * sent without the emulation.
+     *
+     * @return true if nothing is emulated.
+     */
+    public boolean isTransparent() {
+        return lossGood == 0 && (lossBad == 0 || goodToBad == 0)
+                && delay == 0 && jitter == 0
+                && (reorderRate == 0 || reorderDelay == 0)
+                && bandwidth == 0 && traceFile == null;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public double getGoodToBad() {
+        return goodToBad;
+    }
+
+    public double getBadToGood() {
+        return badToGood;
+    }
+
+    public double getLossGood() {
+        return lossGood;
+    }
+
+    public double getLossBad() {
+        return lossBad;
+    }
+
+    public int getDelay() {
+        return delay;
+    }
+
+    public int getJitter() {
+        return jitter;
+    }
+
+    public double getReorderRate() {
+        return reorderRate;
+    }
+
+    public int getReorderDelay() {
+        return reorderDelay;
+    }
+
+    public int getBandwidth() {
+        return bandwidth;
+    }
+
+    public String getTraceFile() {
+        return traceFile;
+    }
+
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    private static double checkProbability(double probability) {
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("LinkConfiguration: Probability must be between 0 and 1!");
+        }
+        return probability;
+    }
+
+    private static int checkNotNegative(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("LinkConfiguration: Value must not be negative!");
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,41 @@
+package edu.hm.networks2.salsify.common.config;
+
+import java.util.logging.Level;
+
+public class LoggingConfiguration {
+
+    /**
+     * Lowest level that is logged. INFO logs every frame, WARNING only
+     * problems.
+     */
+    public static final Level LEVEL = Level.INFO;
+
+    /**
+     * Format and write log records on a background thread, so logging does
+     * not delay the thread that logs. false writes them synchronously.
+     */
+    public static final boolean ASYNCHRONOUS = true;
+
+    /**
+     * Number of log records that can wait for the background thread (a power
+     * of two). Records are dropped (and counted) when it is full.
+     */
+    public static final int QUEUE_SIZE = 4096;
+
+    /**
+     * Write the events of every frame as CSV (see FrameEventLog).
+     */
+    public static final boolean FRAME_EVENTS = true;
+
+    /**
+     * Number of frame events that can wait to be written (a power of two).
+     */
+    public static final int FRAME_EVENT_QUEUE_SIZE = 8192;
+
+    /**
+     * Time in milliseconds the background threads wait when there is nothing
+     * to write.
+     */
+    public static final int WRITE_INTERVAL = 10;
+
+}
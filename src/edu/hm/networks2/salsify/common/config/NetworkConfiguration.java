@@ -22,4 +22,48 @@ public class NetworkConfiguration {
      */
 	public static final int RECEIVER_PORT = 48937;
 	
+	/**
+	 * Use the DatagramChannel based transport (direct buffers, selector loop)
+	 * instead of the DatagramSocket based one.
+	 */
+	public static final boolean USE_CHANNEL = true;
+	
+	/**
+	 * Retransmit only the missing fragments of a frame (reported by selective
+	 * ACKs) instead of resetting the chain. Otherwise any loss causes a reset.
+	 */
+	public static final boolean RETRANSMISSION = true;
+	
+	/**
+	 * Grace period in milliseconds after sending a frame in which missing
+	 * fragments are retransmitted. A frame that is still incomplete after this
+	 * causes a reset.
+	 */
+	public static final int RETRANSMISSION_PERIOD = 250;
+	
+	/**
+	 * Number of fragments that have to arrive after a missing fragment before
+	 * the missing fragment counts as lost. Fewer are treated as reordering.
+	 */
+	public static final int REORDER_WINDOW = 3;
+	
+	/**
+	 * Time in milliseconds after which a missing fragment counts as lost even
+	 * if fewer than REORDER_WINDOW fragments arrived after it.
+	 */
+	public static final int GAP_TIMEOUT = 20;
+	
+	/**
+	 * Forward error correction: every group of this many data fragments is
+	 * followed by a XOR parity fragment, so the receiver can reconstruct one
+	 * lost fragment per group without a retransmission. 0 disables parity.
+	 */
+	public static final int FEC_GROUP_SIZE = 0;
+	
+	/**
+	 * Time in milliseconds over which the receiver keeps the highest delivery
+	 * rate as its bandwidth estimate. It should cover a few frames.
+	 */
+	public static final int BANDWIDTH_WINDOW = 2000;
+	
 }
@@ -0,0 +1,24 @@
+package edu.hm.networks2.salsify.common.config;
+
+public class TracingConfiguration {
+
+    /**
+     * Record when every frame passes the stages of the pipeline and keep
+     * latency histograms of the stages (see FrameTracer).
+     */
+    public static final boolean TRACING = true;
+
+    /**
+     * Time in milliseconds between two summaries of the histograms in the
+     * log, 0 for no summaries.
+     */
+    public static final int SUMMARY_INTERVAL = 10000;
+
+    /**
+     * Number of newest frames whose timestamps are kept (a power of two). A
+     * stage is only measured if the frame is not older than this when it
+     * ends.
+     */
+    public static final int TRACED_FRAMES = 1024;
+
+}
@@ -0,0 +1,176 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import edu.hm.networks2.salsify.common.config.LoggingConfiguration;
+
+/**
+ * Hands log records to other handlers on a background thread, so formatting
+ * and writing them does not delay the thread that logs. The records wait in
+ * a RingBuffer of LoggingConfiguration.QUEUE_SIZE slots. A thread that logs
+ * never waits: when the ring is full the record is dropped, and the number of
+ * dropped records is logged later.
+ *
+ * The class and method that logged are looked up before the record is
+ * queued, because they are found on the stack of the thread that logs.
+ */
+public class AsyncLogHandler extends Handler {
+
+    /**
+     * A slot of the ring.
+     */
+    private static class Slot {
+
+        private LogRecord record;
+
+    }
+
+    /**
+     * This thread writes the queued records until the handler is closed.
+     */
+    private class Writer extends Thread {
+
+        Writer() {
+            super("Salsify-Log");
+            // the log must not keep the program running
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                if (!drain()) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(LoggingConfiguration.WRITE_INTERVAL));
+                }
+            }
+            drain();
+        }
+
+    }
+
+    /**
+     * The handlers that write the records.
+     */
+    private final Handler[] targets;
+
+    private final RingBuffer<Slot> ring;
+
+    /**
+     * Number of records dropped since the last report.
+     */
+    private final AtomicLong droppedRecords;
+
+    private final Writer writer;
+
+    private volatile boolean closed;
+
+    /**
+     * Construct a handler and start its background thread.
+     *
+     * @param targets the handlers that write the records. Their level and
+     * filter still apply.
+     */
+    public AsyncLogHandler(Handler... targets) {
+        if (targets == null) {
+            throw new NullPointerException("AsyncLogHandler: Targets must not be null!");
+        }
+        this.targets = targets.clone();
+        ring = new RingBuffer<>(LoggingConfiguration.QUEUE_SIZE, Slot::new);
+        droppedRecords = new AtomicLong();
+        writer = new Writer();
+        writer.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        // infer the caller while we are on its thread
+        record.getSourceClassName();
+
+        final long position = ring.claim();
+        if (position == -1) {
+            droppedRecords.incrementAndGet();
+            return;
+        }
+        ring.get(position).record = record;
+        ring.publish(position);
+    }
+
+    @Override
+    public void flush() {
+        for (Handler target : targets) {
+            target.flush();
+        }
+    }
+
+    /**
+     * Write the queued records, then close the targets.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        for (Handler target : targets) {
+            target.close();
+        }
+    }
+
+    /**
+     * @return number of records dropped because the ring was full and not
+     * reported yet.
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    /**
+     * Write all queued records. Only called by the writer thread.
+     *
+     * @return true if something was written.
+     */
+    private boolean drain() {
+        boolean written = false;
+        Slot slot = ring.poll();
+        while (slot != null) {
+            final LogRecord record = slot.record;
+            slot.record = null;
+            ring.release();
+            for (Handler target : targets) {
+                target.publish(record);
+            }
+            written = true;
+            slot = ring.poll();
+        }
+
+        final long dropped = droppedRecords.getAndSet(0);
+        if (dropped > 0) {
+            final LogRecord record = new LogRecord(Level.WARNING, "Dropped {0} log records because the log could not keep up.");
+            record.setParameters(new Object[]{dropped});
+            record.setLoggerName(GlobalLogger.class.getName());
+            record.setSourceClassName(AsyncLogHandler.class.getName());
+            record.setSourceMethodName("drain");
+            for (Handler target : targets) {
+                target.publish(record);
+            }
+            written = true;
+        }
+
+        if (written) {
+            flush();
+        }
+        return written;
+    }
+
+}
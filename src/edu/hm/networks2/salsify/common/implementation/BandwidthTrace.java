@@ -0,0 +1,136 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Mahimahi bandwidth trace. Every line of a trace file is a point in time
+ * (milliseconds) at which the link can deliver one MTU sized packet. The trace
+ * repeats after its last line.
+ *
+ * This class computes when packets leave a link that follows the trace.
+ * Packets wait in a queue for the next delivery opportunities, opportunities
+ * nobody waits for are lost. This class is not thread safe.
+ */
+public class BandwidthTrace {
+
+    /**
+     * Number of bytes that can be delivered per opportunity.
+     */
+    private static final int BYTES_PER_OPPORTUNITY = 1504;
+
+    /**
+     * Delivery opportunities of one period in nanoseconds.
+     */
+    private final long[] opportunities;
+
+    /**
+     * Length of one period in nanoseconds.
+     */
+    private final long period;
+
+    /**
+     * Index of the next unused opportunity (counting over all periods).
+     */
+    private long next;
+
+    /**
+     * Bytes left of the last used opportunity.
+     */
+    private int credit;
+
+    /**
+     * Time of the last used opportunity in nanoseconds.
+     */
+    private long creditTime;
+
+    /**
+     * Load a trace file.
+     *
+     * @param traceFile path of the trace file.
+     *
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if the file is not a valid trace.
+     */
+    public BandwidthTrace(String traceFile) throws IOException {
+        final List<String> lines = Files.readAllLines(Paths.get(traceFile));
+        opportunities = lines.stream()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty())
+                .mapToLong(line -> TimeUnit.MILLISECONDS.toNanos(Long.parseLong(line)))
+                .toArray();
+        if (opportunities.length == 0) {
+            throw new IllegalArgumentException("BandwidthTrace: Trace must not be empty!");
+        }
+        for (int index = 1; index < opportunities.length; index++) {
+            if (opportunities[index] < opportunities[index - 1]) {
+                throw new IllegalArgumentException("BandwidthTrace: Trace must be sorted!");
+            }
+        }
+        period = opportunities[opportunities.length - 1];
+        if (period <= 0) {
+            throw new IllegalArgumentException("BandwidthTrace: Trace must be longer than 0 ms!");
+        }
+        creditTime = -1;
+    }
+
+    /**
+     * Compute when a packet leaves the link and reserve the opportunities it
+     * needs. Packets have to be handed in the order they arrive.
+     *
+     * @param arrival time the packet arrives at the link in nanoseconds
+     * (relative to the start of the trace).
+     * @param size size of the packet in bytes.
+     *
+     * @return the time the packet leaves the link in nanoseconds.
+     */
+    public long getDeparture(long arrival, int size) {
+        int remaining = size;
+
+        // the rest of an opportunity can only be used by a packet that was
+        // already waiting for it
+        if (arrival <= creditTime) {
+            final int used = Math.min(credit, remaining);
+            credit -= used;
+            remaining -= used;
+        } else {
+            credit = 0;
+        }
+        if (remaining == 0) {
+            return creditTime;
+        }
+
+        // skip the opportunities before the arrival (whole periods first)
+        final long skipped = arrival - getTime(next);
+        if (skipped > period) {
+            next += skipped / period * opportunities.length;
+        }
+        while (getTime(next) < arrival) {
+            next++;
+        }
+
+        // use as many opportunities as the packet needs
+        while (remaining > 0) {
+            creditTime = getTime(next);
+            next++;
+            credit = BYTES_PER_OPPORTUNITY - Math.min(BYTES_PER_OPPORTUNITY, remaining);
+            remaining -= BYTES_PER_OPPORTUNITY - credit;
+        }
+        return creditTime;
+    }
+
+    /**
+     * Get the time of an opportunity.
+     *
+     * @param index index of the opportunity counting over all periods.
+     *
+     * @return the time in nanoseconds.
+     */
+    private long getTime(long index) {
+        return index / opportunities.length * period + opportunities[(int) (index % opportunities.length)];
+    }
+
+}
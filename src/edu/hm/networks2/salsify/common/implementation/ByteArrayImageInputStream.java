@@ -0,0 +1,65 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+import java.io.IOException;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * This is an image input stream which reads from a byte array. Unlike the
+ * streams created by ImageIO it can be pointed to a new array and used again.
+ */
+public class ByteArrayImageInputStream extends ImageInputStreamImpl {
+
+    /**
+     * The bytes to read.
+     */
+    private byte[] data;
+
+    /**
+     * Construct a stream without any data.
+     */
+    public ByteArrayImageInputStream() {
+        data = new byte[0];
+    }
+
+    /**
+     * Read the given bytes from the beginning.
+     *
+     * @param data the bytes to read. They are not copied.
+     */
+    public void setData(byte[] data) {
+        this.data = data;
+        streamPos = 0;
+        flushedPos = 0;
+        bitOffset = 0;
+    }
+
+    @Override
+    public long length() {
+        return data.length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= data.length) {
+            return -1;
+        }
+        return data[(int) streamPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int count) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= data.length) {
+            return -1;
+        }
+        final int available = Math.min(count, data.length - (int) streamPos);
+        System.arraycopy(data, (int) streamPos, bytes, offset, available);
+        streamPos += available;
+        return available;
+    }
+
+}
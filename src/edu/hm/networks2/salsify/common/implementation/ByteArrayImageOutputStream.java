@@ -0,0 +1,113 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+/**
+ * This is an image output stream which writes into a growable byte array.
+ * Unlike MemoryCacheImageOutputStream it can be cleared and used again, so the
+ * array is only allocated once and grows to the size of the biggest image.
+ */
+public class ByteArrayImageOutputStream extends ImageOutputStreamImpl {
+
+    /**
+     * Stores the written bytes.
+     */
+    private byte[] buffer;
+
+    /**
+     * Number of valid bytes in the buffer.
+     */
+    private int length;
+
+    /**
+     * Construct a stream with the given initial capacity.
+     *
+     * @param initialCapacity number of bytes that can be written before the
+     * buffer grows.
+     */
+    public ByteArrayImageOutputStream(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+        length = 0;
+    }
+
+    /**
+     * Forget everything that was written. The buffer is kept.
+     */
+    public void clear() {
+        length = 0;
+        streamPos = 0;
+        flushedPos = 0;
+        bitOffset = 0;
+    }
+
+    /**
+     * Get a copy of all written bytes.
+     *
+     * @return byte array with exactly length() bytes.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        return buffer[(int) streamPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int count) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        final int available = Math.min(count, length - (int) streamPos);
+        System.arraycopy(buffer, (int) streamPos, bytes, offset, available);
+        streamPos += available;
+        return available;
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+        checkClosed();
+        flushBits();
+        ensureCapacity((int) streamPos + 1);
+        buffer[(int) streamPos++] = (byte) value;
+        length = Math.max(length, (int) streamPos);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int count) throws IOException {
+        checkClosed();
+        flushBits();
+        ensureCapacity((int) streamPos + count);
+        System.arraycopy(bytes, offset, buffer, (int) streamPos, count);
+        streamPos += count;
+        length = Math.max(length, (int) streamPos);
+    }
+
+    /**
+     * Grow the buffer so that it can hold the given number of bytes.
+     *
+     * @param capacity the number of bytes needed.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+
+}
@@ -3,25 +3,81 @@ package edu.hm.networks2.salsify.common.implementation;
 import java.awt.image.BufferedImage;
 
 import edu.hm.networks2.salsify.common.ICodec;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import edu.hm.networks2.salsify.common.IDifferenceEngine;
+import edu.hm.networks2.salsify.common.config.CodecConfiguration;
 import java.io.IOException;
 import java.util.Optional;
-import java.util.function.BiFunction;
-import java.util.function.Function;
 import java.util.logging.Level;
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
-import javax.imageio.stream.ImageOutputStream;
-import javax.imageio.stream.MemoryCacheImageOutputStream;
 
 public class Codec implements ICodec {
 
+    /**
+     * Everything a thread needs to encode and decode jpeg images. Looking up
+     * writers and readers in the service registry and allocating streams and
+     * buffers is expensive, so every thread keeps one context and reuses it.
+     */
+    private static class JpegContext {
+
+        /**
+         * Initial size of the output buffer. It grows when needed.
+         */
+        private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+        private final ImageWriter writer;
+        private final JPEGImageWriteParam writeParameters;
+        private final ByteArrayImageOutputStream outputStream;
+
+        private final ImageReader reader;
+        private final ImageReadParam readParameters;
+        private final ByteArrayImageInputStream inputStream;
+
+        JpegContext() {
+            writer = ImageIO.getImageWritersByFormatName(ENCODING).next();
+            writeParameters = new JPEGImageWriteParam(null);
+            writeParameters.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            outputStream = new ByteArrayImageOutputStream(INITIAL_BUFFER_SIZE);
+
+            reader = ImageIO.getImageReadersByFormatName(ENCODING).next();
+            readParameters = reader.getDefaultReadParam();
+            inputStream = new ByteArrayImageInputStream();
+        }
+    }
+
     private static final String ENCODING = "jpg";
 
+    /**
+     * One jpeg context per thread.
+     */
+    private static final ThreadLocal<JpegContext> CONTEXTS = ThreadLocal.withInitial(JpegContext::new);
+
+    /**
+     * Calculates and applies the difference between frames and states.
+     */
+    private final IDifferenceEngine differenceEngine;
+
+    /**
+     * Construct a codec which uses the fast RasterDifferenceEngine.
+     */
+    public Codec() {
+        this(new RasterDifferenceEngine());
+    }
+
+    /**
+     * Construct a codec which uses the given difference engine.
+     *
+     * @param differenceEngine calculates and applies differences.
+     */
+    public Codec(IDifferenceEngine differenceEngine) {
+        this.differenceEngine = differenceEngine;
+    }
+
     @Override
     public Optional<byte[]> encode(Optional<BufferedImage> state, BufferedImage frame, int quality) {
 
@@ -43,12 +99,12 @@ public class Codec implements ICodec {
             if (frame.getType() != state.get().getType()) {
                 throw new IllegalArgumentException("Encode: Type of frame is not same as state!");
             }
-            BufferedImage difference = calculateDifference(state.get(), frame);
+            BufferedImage difference = differenceEngine.calculateDifference(state.get(), frame);
             // calculate difference --> encode
-            encodedImage = convertToJpeg(difference, percentQuality);
+            encodedImage = isCancelled() ? Optional.empty() : convertToJpeg(difference, percentQuality);
         } else {
 
-            encodedImage = convertToJpeg(frame, percentQuality);
+            encodedImage = isCancelled() ? Optional.empty() : convertToJpeg(frame, percentQuality);
         }
 
         return encodedImage;
@@ -57,25 +113,31 @@ public class Codec implements ICodec {
 
     @Override
     public Optional<BufferedImage> decode(Optional<BufferedImage> state, byte[] encodedFrame) {
+        return decode(state, encodedFrame, null);
+    }
+
+    @Override
+    public Optional<BufferedImage> decode(Optional<BufferedImage> state, byte[] encodedFrame, BufferedImage destination) {
         
         if (encodedFrame == null) {
             throw new IllegalArgumentException("Decode: Provided frame must not be null!");
         }
         
-        Optional<BufferedImage> decodedFrame = Optional.empty();
-        try {
-            decodedFrame = 
-                    Optional.of(ImageIO.read(new ByteArrayInputStream(encodedFrame)));
-        } catch (IOException exception) {
-            GlobalLogger.getInstance().log(Level.SEVERE, "Decode: Could not decode encoded frame!{0}", exception.toString());
+        final Optional<BufferedImage> decodedFrame = convertFromJpeg(encodedFrame, destination);
+        
+        if (state.isPresent() && decodedFrame.isPresent()
+                && (state.get().getWidth() != decodedFrame.get().getWidth() || state.get().getHeight() != decodedFrame.get().getHeight())) {
+            GlobalLogger.getInstance().log(Level.SEVERE, "Decode: Decoded frame does not fit the state!");
+            return Optional.empty();
         }
         
         Optional<BufferedImage> result;
         
         // modify result in case state is present
-        // we need to add the difference
+        // we need to add the difference (in place, the decoded difference is
+        // not needed afterwards)
         if (state.isPresent() && decodedFrame.isPresent()) {
-            result = Optional.of(addDifference(state.get(), decodedFrame.get()));
+            result = Optional.of(differenceEngine.addDifference(state.get(), decodedFrame.get(), decodedFrame.get()));
         } else {
             result = decodedFrame;
         }
@@ -83,6 +145,16 @@ public class Codec implements ICodec {
         return result;
     }
 
+    /**
+     * Check if the encoding was cancelled. The jpeg writer does not react to
+     * interrupts, so this is checked before it starts.
+     *
+     * @return true if the calling thread was interrupted.
+     */
+    private static boolean isCancelled() {
+        return Thread.currentThread().isInterrupted();
+    }
+
     /**
      * Takes image and converts to a raw byte array containing an image in the
      * jpeg format.
@@ -97,205 +169,77 @@ public class Codec implements ICodec {
         // default empty in case something goes wrong
         Optional<byte[]> jpegImage = Optional.empty();
 
+        final JpegContext context = CONTEXTS.get();
+
         // prepare parameters for the jpeg writer with quality being the provided
         // quality
-        final JPEGImageWriteParam jpegParameters = new JPEGImageWriteParam(null);
-        jpegParameters.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-        jpegParameters.setCompressionQuality(quality);
-
-        // get an image writer
-        ImageWriter jpegWriter = ImageIO.getImageWritersByFormatName(ENCODING).next();
-
-        // get an image output stream
-        try (ByteArrayOutputStream byteArrayOutputStream
-                = new ByteArrayOutputStream();
-                ImageOutputStream imageOutputStream
-                = new MemoryCacheImageOutputStream(byteArrayOutputStream)) {
+        context.writeParameters.setCompressionQuality(quality);
 
+        try {
             // set where the image data should be written
-            jpegWriter.setOutput(imageOutputStream);
+            context.outputStream.clear();
+            context.writer.setOutput(context.outputStream);
             // convet the image to something that can be used with write()
             // of the jpeg writer
             IIOImage outputImage = new IIOImage(toConvert, null, null);
             // finally write the image with the given parameters
-            jpegWriter.write(null, outputImage, jpegParameters);
-            // allow ressources to be freed
-            jpegWriter.dispose();
+            context.writer.write(null, outputImage, context.writeParameters);
 
-            imageOutputStream.flush();
-
-            jpegImage = Optional.of(byteArrayOutputStream.toByteArray());
+            jpegImage = Optional.of(context.outputStream.toByteArray());
 
         } catch (IOException exception) {
             GlobalLogger.getInstance().log(Level.SEVERE, "Encode: Error occured while encoding image to jpeg: {0}", exception.toString());
+        } finally {
+            // the writer is reused, only forget the output
+            context.writer.reset();
         }
 
         return jpegImage;
     }
 
     /**
-     * Calculate the difference between two images. The difference is simply
-     * calculated using method calculatePixelDifference(...).
+     * Takes a raw byte array containing an image in the jpeg format and
+     * converts it to a buffered image.
      *
-     * @param before Image before.
-     * @param after Image after.
+     * @param jpeg the jpeg data.
+     * @param destination the image to decode into. A new image is created when
+     * this is null or does not fit the jpeg data.
      *
-     * @return BufferedImage containing the difference.
+     * @return the decoded image.
      */
-    private BufferedImage calculateDifference(BufferedImage before, BufferedImage after) {
+    private Optional<BufferedImage> convertFromJpeg(byte[] jpeg, BufferedImage destination) {
 
-        if (before == null) {
-            throw new IllegalArgumentException("Difference Calculation: Image before must not be null!");
-        }
+        // default empty in case something goes wrong
+        Optional<BufferedImage> image = Optional.empty();
 
-        if (after == null) {
-            throw new IllegalArgumentException("Difference Calculation: Image after must not be null!");
-        }
+        final JpegContext context = CONTEXTS.get();
 
-        if (after.getHeight() == before.getHeight() && after.getWidth() == before.getHeight()) {
-            throw new IllegalArgumentException("Difference Calculation: Image dimensions must align!");
-        }
-
-        // result image
-        BufferedImage result = new BufferedImage(
-                before.getWidth(),
-                before.getHeight(),
-                BufferedImage.TYPE_3BYTE_BGR);
+        try {
+            context.inputStream.setData(jpeg);
+            context.reader.setInput(context.inputStream, true, true);
 
-        // loop and calculate difference
-        for (int y = 0; y < result.getHeight(); y++) {
-            for (int x = 0; x < result.getWidth(); x++) {
-                result.setRGB(x, y, calculatePixelDifference(before.getRGB(x, y), after.getRGB(x, y)));
+            if ((long) context.reader.getWidth(0) * context.reader.getHeight(0) > CodecConfiguration.MAXIMUM_PIXELS) {
+                throw new IllegalArgumentException("Image is bigger than MAXIMUM_PIXELS!");
             }
-        }
-
-        return result;
 
-    }
-
-    /**
-     * Calculates the difference between two pixel components. The difference
-     * is always expressed as an addition with modulo 256 to do a wrap around.
-     *
-     * @param rgbOne First pixel value.
-     * @param rgbTwo Second pixel value.
-     *
-     * @return integer containing the difference
-     */
-    private int calculatePixelDifference(int rgbOne, int rgbTwo) {
+            // only use the destination if the decoded image fits in exactly
+            final boolean useDestination = destination != null
+                    && destination.getType() == BufferedImage.TYPE_3BYTE_BGR
+                    && destination.getWidth() == context.reader.getWidth(0)
+                    && destination.getHeight() == context.reader.getHeight(0);
+            context.readParameters.setDestination(useDestination ? destination : null);
 
-        // extract red, green and blue with these
-        Function<Integer, Integer> getRed = rgb -> (rgb >> 16) & 0xFF;
-        Function<Integer, Integer> getGreen = rgb -> (rgb >> 8) & 0xFF;
-        Function<Integer, Integer> getBlue = rgb -> rgb & 0xFF;
-        
-        BiFunction<Integer, Integer, Integer> componentDifference = 
-                (componentOne, componentTwo) -> {
-                    int result;
-                    // difference between the two components
-                    // positive: component value increase (easy case)
-                    // negative: component value decrease (not so easy case)
-                    int difference = componentTwo - componentOne;
-                    
-                    if (difference < 0) {
-                        // not so easy case
-                        // we will send the difference as addition with mod 256
-                        difference = difference + 256;
-                    }
-                    
-                    return difference;
-                };
-
-        return (componentDifference.apply(getRed.apply(rgbOne), getRed.apply(rgbTwo))) << 16
-                | (componentDifference.apply(getGreen.apply(rgbOne), getGreen.apply(rgbTwo))) << 8
-                | (componentDifference.apply(getBlue.apply(rgbOne), getBlue.apply(rgbTwo)));
-    }
-    
-    /**
-     * Adds the difference to the given state.
-     * 
-     * @param state The image that the difference will be added to.
-     * @param difference The difference values stored in an image.
-     * 
-     * @return The resulting image. 
-     */
-    private BufferedImage addDifference(BufferedImage state, BufferedImage difference) {
-        
-        if (state == null) {
-            throw new IllegalArgumentException("Difference Calculation: Image state must not be null!");
-        }
+            image = Optional.of(context.reader.read(0, context.readParameters));
 
-        if (difference == null) {
-            throw new IllegalArgumentException("Difference Calculation: Image difference must not be null!");
+        } catch (IOException | IllegalArgumentException exception) {
+            GlobalLogger.getInstance().log(Level.SEVERE, "Decode: Could not decode encoded frame!{0}", exception.toString());
+        } finally {
+            // the reader is reused, only forget the input and destination
+            context.readParameters.setDestination(null);
+            context.reader.reset();
         }
 
-        if (difference.getHeight() == state.getHeight() && difference.getWidth() == state.getHeight()) {
-            throw new IllegalArgumentException("Difference Calculation: Image dimensions must align!");
-        }
-        
-        // result image
-        BufferedImage result = new BufferedImage(
-                state.getWidth(),
-                state.getHeight(),
-                BufferedImage.TYPE_3BYTE_BGR);
-
-        // loop and calculate difference
-        for (int y = 0; y < result.getHeight(); y++) {
-            for (int x = 0; x < result.getWidth(); x++) {
-                result.setRGB(x, y, addPixelDifference(
-                        state.getRGB(x, y), 
-                        difference.getRGB(x, y))
-                );
-            }
-        }
-        
-        return result;
-        
-    }
-    
-    /**
-     * This performs the reverse operation of the operation performed in
-     * calculated pixel difference.
-     * 
-     * @param rgbState The pixel value before adding the difference.
-     * @param rgbDifference The difference.
-     * 
-     * @return the new pixel value coded into an integer. 
-     */
-    private int addPixelDifference(int rgbState, int rgbDifference) {
-        
-        int red = getRed(rgbState) + getRed(rgbDifference) % 256;
-        int green = getGreen(rgbState) + getGreen(rgbDifference) % 256;
-        int blue = getBlue(rgbState) + getBlue(rgbDifference) % 256;
-        
-        return  (red << 16) | (green << 8) | blue;
+        return image;
     }
-    
-    /**
-     * Extract red from rgb values coded into integer.
-     * @param rgb The rgb value.
-     * @return The value of the red component.
-     */
-    private int getRed(int rgb) {
-        return (rgb >> 16) & 0xFF;
-    }
-    
-    /**
-     * Extract green from rgb values coded into integer.
-     * @param rgb The rgb value.
-     * @return The value of the green component.
-     */
-    private int getGreen(int rgb) {
-        return (rgb >> 8) & 0xFF;
-    }
-    
-    /**
-     * Extract blue from rgb values coded into integer.
-     * @param rgb The rgb value.
-     * @return The value of the blue component.
-     */
-    private int getBlue(int rgb) {
-        return rgb & 0xFF;
-    }
-   
+
 }
@@ -0,0 +1,363 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import edu.hm.networks2.salsify.common.config.LinkConfiguration;
+
+/**
+ * Emulates the network conditions of a LinkConfiguration in front of a real
+ * transport. Every packet handed to send(...) is lost, queued for the
+ * bandwidth, delayed and maybe reordered, and finally handed to the
+ * transmitter by a delivery thread at the computed time.
+ *
+ * A transparent configuration sends every packet directly in the calling
+ * thread, so the emulation costs nothing when it is not used.
+ *
+ * @param <T> type of the packets.
+ */
+public class EmulatedLink<T> {
+
+    /**
+     * Does the actual sending of a packet.
+     *
+     * @param <T> type of the packets.
+     */
+    public interface Transmitter<T> {
+
+        /**
+         * Send a packet over the real transport.
+         *
+         * @param packet the packet to send.
+         *
+         * @return false if the transport could not take the packet now.
+         *
+         * @throws IOException if sending fails.
+         */
+        boolean transmit(T packet) throws IOException;
+    }
+
+    /**
+     * A packet waiting in the link.
+     */
+    private static class DelayedPacket<T> implements Comparable<DelayedPacket<T>> {
+
+        private final T packet;
+
+        private final int size;
+
+        /**
+         * Time the packet got through the bandwidth limit.
+         */
+        private final long departure;
+
+        /**
+         * Time the packet gets handed to the transmitter.
+         */
+        private final long delivery;
+
+        /**
+         * Keeps the order of packets with the same delivery time.
+         */
+        private final long sequenceNumber;
+
+        DelayedPacket(T packet, int size, long departure, long delivery, long sequenceNumber) {
+            this.packet = packet;
+            this.size = size;
+            this.departure = departure;
+            this.delivery = delivery;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public int compareTo(DelayedPacket<T> other) {
+            final int result = Long.compare(delivery, other.delivery);
+            return result != 0 ? result : Long.compare(sequenceNumber, other.sequenceNumber);
+        }
+    }
+
+    /**
+     * This thread hands the packets to the transmitter when they are due.
+     */
+    private class Deliverer extends Thread {
+
+        Deliverer(String name) {
+            super("EmulatedLink-" + name);
+            // must not keep the program running when the link is forgotten
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                final long now = System.nanoTime();
+                final DelayedPacket<T> next;
+                synchronized (EmulatedLink.this) {
+                    next = delayed.peek();
+                    if (next != null && next.delivery <= now) {
+                        delayed.poll();
+                    }
+                }
+
+                if (next == null) {
+                    // wait for a new packet
+                    LockSupport.park(this);
+                } else if (next.delivery > now) {
+                    // wait until the next packet is due (or a new one arrives)
+                    LockSupport.parkNanos(this, next.delivery - now);
+                } else {
+                    try {
+                        // a full transport drops the packet like a real link
+                        transmitter.transmit(next.packet);
+                    } catch (IOException exception) {
+                        GlobalLogger.getInstance().log(Level.WARNING, "Emulated link could not deliver packet. {0}", exception.toString());
+                    }
+                }
+            }
+        }
+    }
+
+    private final LinkConfiguration configuration;
+
+    private final Transmitter<T> transmitter;
+
+    /**
+     * Source of all random decisions.
+     */
+    private final Random random;
+
+    /**
+     * Bandwidth trace, null if the fixed bandwidth is used.
+     */
+    private final BandwidthTrace trace;
+
+    /**
+     * Start of the emulation in nanoseconds (start of the trace).
+     */
+    private final long start;
+
+    /**
+     * Packets ordered by their delivery time.
+     */
+    private final Queue<DelayedPacket<T>> delayed;
+
+    /**
+     * Packets that still wait for the bandwidth, ordered by their departure.
+     */
+    private final Deque<DelayedPacket<T>> bottleneck;
+
+    /**
+     * Thread that delivers the packets, null for a transparent link.
+     */
+    private final Deliverer deliverer;
+
+    /**
+     * Bytes of the packets in the bottleneck.
+     */
+    private int queuedBytes;
+
+    /**
+     * State of the Gilbert-Elliott loss model.
+     */
+    private boolean badState;
+
+    /**
+     * Departure of the latest packet at a fixed bandwidth.
+     */
+    private long lastDeparture;
+
+    /**
+     * Delivery of the latest packet that was not reordered.
+     */
+    private long lastDelivery;
+
+    private long sequenceNumber;
+
+    private long lostPackets;
+
+    private long droppedPackets;
+
+    /**
+     * Construct an emulated link and start its delivery thread.
+     *
+     * @param name name of the link, used for the thread.
+     * @param configuration the network conditions to emulate.
+     * @param transmitter sends the packets over the real transport.
+     */
+    public EmulatedLink(String name, LinkConfiguration configuration, Transmitter<T> transmitter) {
+        if (configuration == null || transmitter == null) {
+            throw new NullPointerException("EmulatedLink: Configuration and transmitter must not be null!");
+        }
+        this.configuration = configuration;
+        this.transmitter = transmitter;
+        this.random = new Random(configuration.getSeed());
+        this.delayed = new PriorityQueue<>();
+        this.bottleneck = new ArrayDeque<>();
+        this.trace = loadTrace(configuration.getTraceFile());
+        this.start = System.nanoTime();
+        this.lastDeparture = start;
+        this.lastDelivery = start;
+
+        if (configuration.isTransparent()) {
+            deliverer = null;
+        } else {
+            deliverer = new Deliverer(name);
+            deliverer.start();
+        }
+    }
+
+    /**
+     * Send a packet over the link. The packet must not change until it is
+     * handed to the transmitter.
+     *
+     * @param packet the packet.
+     * @param size size of the packet in bytes.
+     *
+     * @return false if the transport could not take the packet now (only
+     * possible for a transparent link).
+     *
+     * @throws IOException if sending fails (only possible for a transparent
+     * link).
+     */
+    public boolean send(T packet, int size) throws IOException {
+        if (deliverer == null) {
+            return transmitter.transmit(packet);
+        }
+
+        final long now = System.nanoTime();
+        synchronized (this) {
+            if (isLost()) {
+                lostPackets++;
+                return true;
+            }
+
+            // drop tail when too many bytes wait for the bandwidth
+            while (!bottleneck.isEmpty() && bottleneck.peekFirst().departure <= now) {
+                queuedBytes -= bottleneck.pollFirst().size;
+            }
+            if (configuration.getQueueLimit() > 0 && queuedBytes + size > configuration.getQueueLimit()) {
+                droppedPackets++;
+                return true;
+            }
+
+            final long departure = getDeparture(now, size);
+            long delivery = departure
+                    + TimeUnit.MILLISECONDS.toNanos(configuration.getDelay())
+                    + getJitter();
+            if (random.nextDouble() < configuration.getReorderRate()) {
+                // later packets overtake this one
+                delivery += TimeUnit.MILLISECONDS.toNanos(configuration.getReorderDelay());
+            } else {
+                // jitter alone does not reorder packets
+                delivery = Math.max(delivery, lastDelivery);
+                lastDelivery = delivery;
+            }
+
+            final DelayedPacket<T> delayedPacket = new DelayedPacket<>(packet, size, departure, delivery, sequenceNumber++);
+            delayed.add(delayedPacket);
+            if (departure > now) {
+                bottleneck.addLast(delayedPacket);
+                queuedBytes += size;
+            }
+        }
+        LockSupport.unpark(deliverer);
+        return true;
+    }
+
+    /**
+     * Stop delivering packets. Packets still in the link are lost.
+     */
+    public void close() {
+        if (deliverer != null) {
+            deliverer.interrupt();
+        }
+    }
+
+    /**
+     * @return number of packets lost by the loss model.
+     */
+    public synchronized long getLostPackets() {
+        return lostPackets;
+    }
+
+    /**
+     * @return number of packets dropped because the queue was full.
+     */
+    public synchronized long getDroppedPackets() {
+        return droppedPackets;
+    }
+
+    /**
+     * Advance the Gilbert-Elliott model by one packet and decide if the packet
+     * gets lost.
+     *
+     * @return true if the packet is lost.
+     */
+    private boolean isLost() {
+        if (badState) {
+            badState = random.nextDouble() >= configuration.getBadToGood();
+        } else {
+            badState = random.nextDouble() < configuration.getGoodToBad();
+        }
+        final double loss = badState ? configuration.getLossBad() : configuration.getLossGood();
+        return random.nextDouble() < loss;
+    }
+
+    /**
+     * Compute when a packet gets through the bandwidth limit.
+     *
+     * @param now arrival of the packet in nanoseconds.
+     * @param size size of the packet in bytes.
+     *
+     * @return departure of the packet in nanoseconds.
+     */
+    private long getDeparture(long now, int size) {
+        if (trace != null) {
+            return start + trace.getDeparture(now - start, size);
+        }
+        if (configuration.getBandwidth() > 0) {
+            lastDeparture = Math.max(now, lastDeparture)
+                    + TimeUnit.SECONDS.toNanos(size) / configuration.getBandwidth();
+            return lastDeparture;
+        }
+        return now;
+    }
+
+    /**
+     * @return a random additional delay in nanoseconds.
+     */
+    private long getJitter() {
+        if (configuration.getJitter() == 0) {
+            return 0;
+        }
+        return (long) (random.nextDouble() * TimeUnit.MILLISECONDS.toNanos(configuration.getJitter()));
+    }
+
+    /**
+     * Load the trace of the configuration. A trace that cannot be loaded is
+     * replaced by the fixed bandwidth.
+     *
+     * @param traceFile path of the trace file or null.
+     *
+     * @return the trace or null.
+     */
+    private static BandwidthTrace loadTrace(String traceFile) {
+        if (traceFile == null) {
+            return null;
+        }
+        try {
+            return new BandwidthTrace(traceFile);
+        } catch (IOException | IllegalArgumentException exception) {
+            GlobalLogger.getInstance().log(Level.SEVERE, "Could not load bandwidth trace. {0}", exception.toString());
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,257 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import edu.hm.networks2.salsify.common.config.LoggingConfiguration;
+
+/**
+ * Writes what happens to every frame as one CSV line per event:
+ *
+ * time,event,frame,value1,value2
+ *
+ * The time is in microseconds of System.nanoTime(), the clock of the send
+ * times of the fragments, so the events of a sender and a receiver on the
+ * same host can be merged. The meaning of the values depends on the event.
+ *
+ * Recording an event only copies primitives into a preallocated slot of a
+ * RingBuffer, it neither allocates nor formats nor waits. A background thread
+ * writes the events to logs/Events_[process id]_[time].csv. Events are dropped
+ * (and counted) when the ring is full. When LoggingConfiguration.FRAME_EVENTS
+ * is off, neither the file nor the thread is created.
+ */
+public class FrameEventLog {
+
+    /**
+     * What happened to a frame.
+     */
+    public enum Event {
+        /**
+         * The sender sent the frame. value1: quality, value2: bytes.
+         */
+        SENT,
+        /**
+         * The sender dropped the frame because no candidate fit. value1:
+         * possible bytes.
+         */
+        DROPPED,
+        /**
+         * The sender reset after a loss, frame is the new source. value1: new
+         * quality.
+         */
+        RESET,
+        /**
+         * The first fragment of the frame arrived.
+         */
+        FIRST_FRAGMENT,
+        /**
+         * The receiver reported missing fragments of the frame. value1:
+         * cumulative fragment index, value2: selective ACKs.
+         */
+        LOSS,
+        /**
+         * The receiver gave the incomplete frame up.
+         */
+        GIVEN_UP,
+        /**
+         * The receiver got the complete frame. value1: source frame index.
+         */
+        COMPLETE
+    }
+
+    /**
+     * A slot of the ring.
+     */
+    private static class Slot {
+
+        private long time;
+
+        private Event event;
+
+        private int frameIndex;
+
+        private long value1;
+
+        private long value2;
+
+    }
+
+    private static final FrameEventLog INSTANCE = new FrameEventLog();
+
+    /**
+     * The queued events, null if frame events are off.
+     */
+    private final RingBuffer<Slot> ring;
+
+    /**
+     * Number of events dropped because the ring was full.
+     */
+    private final AtomicLong droppedEvents;
+
+    /**
+     * The CSV file, null if frame events are off or it could not be created.
+     */
+    private final Writer output;
+
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    private FrameEventLog() {
+        droppedEvents = new AtomicLong();
+        writer = new Thread(this::write, "Salsify-Events");
+        writer.setDaemon(true);
+
+        if (!LoggingConfiguration.FRAME_EVENTS) {
+            ring = null;
+            output = null;
+            return;
+        }
+        ring = new RingBuffer<>(LoggingConfiguration.FRAME_EVENT_QUEUE_SIZE, Slot::new);
+
+        final String now = LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd.MM.yy_HH-mm-ss"));
+        final File file = new File("logs" + File.separator + "Events_" + ProcessHandle.current().pid() + "_" + now + ".csv");
+        Writer created = null;
+        try {
+            created = new BufferedWriter(new FileWriter(file));
+            created.write("time,event,frame,value1,value2\n");
+        } catch (IOException exception) {
+            GlobalLogger.getInstance().log(Level.WARNING, "Could not create frame event log {0}. {1}", new Object[]{file, exception.toString()});
+            created = null;
+        }
+        output = created;
+
+        if (output != null) {
+            writer.start();
+            // write the remaining events when the program ends
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+        }
+    }
+
+    /**
+     * Get event log instance.
+     *
+     * @return event log instance
+     */
+    public static FrameEventLog getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record an event of a frame.
+     *
+     * @param event what happened.
+     * @param frameIndex index of the frame.
+     * @param value1 first value (see Event).
+     * @param value2 second value (see Event).
+     */
+    public void record(Event event, int frameIndex, long value1, long value2) {
+        if (output == null || closed) {
+            return;
+        }
+        final long time = TimeUnit.NANOSECONDS.toMicros(System.nanoTime());
+        final long position = ring.claim();
+        if (position == -1) {
+            droppedEvents.incrementAndGet();
+            return;
+        }
+        final Slot slot = ring.get(position);
+        slot.time = time;
+        slot.event = event;
+        slot.frameIndex = frameIndex;
+        slot.value1 = value1;
+        slot.value2 = value2;
+        ring.publish(position);
+    }
+
+    /**
+     * Record an event without values.
+     *
+     * @param event what happened.
+     * @param frameIndex index of the frame.
+     */
+    public void record(Event event, int frameIndex) {
+        record(event, frameIndex, 0, 0);
+    }
+
+    /**
+     * @return number of events dropped because the ring was full.
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Write the queued events and close the file.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write events until the log is closed. Runs on the writer thread.
+     */
+    private void write() {
+        final StringBuilder line = new StringBuilder(64);
+        try {
+            while (!closed) {
+                if (!drain(line)) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(LoggingConfiguration.WRITE_INTERVAL));
+                }
+            }
+            drain(line);
+            if (droppedEvents.get() > 0) {
+                GlobalLogger.getInstance().log(Level.WARNING, "Dropped {0} frame events because the log could not keep up.", droppedEvents.get());
+            }
+            output.close();
+        } catch (IOException exception) {
+            GlobalLogger.getInstance().log(Level.WARNING, "Could not write frame events. {0}", exception.toString());
+        }
+    }
+
+    /**
+     * Write all queued events.
+     *
+     * @param line reused for formatting.
+     *
+     * @return true if something was written.
+     *
+     * @throws IOException if writing fails.
+     */
+    private boolean drain(StringBuilder line) throws IOException {
+        boolean written = false;
+        Slot slot = ring.poll();
+        while (slot != null) {
+            line.setLength(0);
+            line.append(slot.time).append(',').append(slot.event).append(',').append(slot.frameIndex)
+                    .append(',').append(slot.value1).append(',').append(slot.value2).append('\n');
+            ring.release();
+            output.append(line);
+            written = true;
+            slot = ring.poll();
+        }
+        if (written) {
+            output.flush();
+        }
+        return written;
+    }
+
+}
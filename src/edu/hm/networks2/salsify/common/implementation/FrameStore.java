@@ -0,0 +1,207 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps decoded frames by their frame index, so they can be used as source
+ * states. The store is bounded in two ways: frames that cannot be referenced
+ * anymore are evicted explicitly with evictBefore(...), and when the frames
+ * take more than the capacity in bytes the least recently used ones are
+ * evicted. The frame that was put last is never evicted for the capacity.
+ *
+ * All methods are synchronized, so the store can be shared between the thread
+ * that adds frames and the one that learns which frames are not needed
+ * anymore.
+ */
+public class FrameStore {
+
+    /**
+     * Frames in access order (least recently used first).
+     */
+    private final Map<Integer, BufferedImage> frames;
+
+    /**
+     * Maximum number of bytes of all frames.
+     */
+    private final long capacity;
+
+    /**
+     * Bytes of all frames.
+     */
+    private long bytes;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictedByRetention;
+
+    private long evictedByCapacity;
+
+    /**
+     * Construct an empty store.
+     *
+     * @param capacity maximum number of bytes of all frames.
+     */
+    public FrameStore(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("FrameStore: Capacity must be positive!");
+        }
+        this.frames = new LinkedHashMap<>(16, 0.75f, true);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Store a frame. A frame with the same index is replaced. Least recently
+     * used frames are evicted if the capacity is exceeded.
+     *
+     * @param frameIndex index of the frame.
+     * @param frame the frame. Must not change anymore.
+     */
+    public synchronized void put(int frameIndex, BufferedImage frame) {
+        if (frame == null) {
+            throw new NullPointerException("FrameStore: Frame must not be null!");
+        }
+        final BufferedImage replaced = frames.put(frameIndex, frame);
+        if (replaced != null) {
+            bytes -= getSize(replaced);
+        }
+        bytes += getSize(frame);
+
+        // the new frame is the most recently used one, so it is the last
+        final Iterator<Map.Entry<Integer, BufferedImage>> iterator = frames.entrySet().iterator();
+        while (bytes > capacity && frames.size() > 1) {
+            bytes -= getSize(iterator.next().getValue());
+            iterator.remove();
+            evictedByCapacity++;
+        }
+    }
+
+    /**
+     * Get a frame and mark it as recently used.
+     *
+     * @param frameIndex index of the frame.
+     *
+     * @return the frame, null if it is not stored (anymore).
+     */
+    public synchronized BufferedImage get(int frameIndex) {
+        final BufferedImage frame = frames.get(frameIndex);
+        if (frame == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return frame;
+    }
+
+    /**
+     * Check if a frame is stored. This does not count as a use.
+     *
+     * @param frameIndex index of the frame.
+     *
+     * @return true if the frame is stored.
+     */
+    public synchronized boolean contains(int frameIndex) {
+        return frames.containsKey(frameIndex);
+    }
+
+    /**
+     * Evict all frames older than the given one, because they will not be
+     * referenced anymore.
+     *
+     * @param frameIndex index of the oldest frame to keep.
+     */
+    public synchronized void evictBefore(int frameIndex) {
+        final Iterator<Map.Entry<Integer, BufferedImage>> iterator = frames.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Integer, BufferedImage> entry = iterator.next();
+            if (entry.getKey() < frameIndex) {
+                bytes -= getSize(entry.getValue());
+                iterator.remove();
+                evictedByRetention++;
+            }
+        }
+    }
+
+    /**
+     * Evict all frames.
+     */
+    public synchronized void clear() {
+        evictedByRetention += frames.size();
+        frames.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return index of the oldest stored frame, -1 if the store is empty.
+     */
+    public synchronized int getLowestFrameIndex() {
+        return frames.keySet().stream().mapToInt(Integer::intValue).min().orElse(-1);
+    }
+
+    /**
+     * @return number of stored frames.
+     */
+    public synchronized int getNumberOfFrames() {
+        return frames.size();
+    }
+
+    /**
+     * @return number of bytes of all stored frames.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of get(...) calls that found the frame.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of get(...) calls that did not find the frame.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of frames evicted by evictBefore(...) or clear().
+     */
+    public synchronized long getEvictedByRetention() {
+        return evictedByRetention;
+    }
+
+    /**
+     * @return number of frames evicted because the capacity was exceeded.
+     */
+    public synchronized long getEvictedByCapacity() {
+        return evictedByCapacity;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FrameStore[frames=" + frames.size() + ", bytes=" + bytes + "/" + capacity
+                + ", hits=" + hits + ", misses=" + misses
+                + ", evictedByRetention=" + evictedByRetention + ", evictedByCapacity=" + evictedByCapacity + "]";
+    }
+
+    /**
+     * Get the number of bytes the pixels of a frame take.
+     *
+     * @param frame the frame.
+     *
+     * @return the number of bytes.
+     */
+    private static long getSize(BufferedImage frame) {
+        final DataBuffer dataBuffer = frame.getRaster().getDataBuffer();
+        return (long) dataBuffer.getSize() * dataBuffer.getNumBanks() * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / Byte.SIZE;
+    }
+
+}
@@ -0,0 +1,296 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import edu.hm.networks2.salsify.common.config.TracingConfiguration;
+
+/**
+ * Measures where the time of a frame goes. The sender and the receiver mark
+ * the points a frame passes (keyed by its frame index), and the time between
+ * the two points of a stage is recorded in the stage's LatencyHistogram.
+ * Stages whose points are on different sides (END_TO_END) are only measured
+ * when the sender and the receiver run in one process.
+ *
+ * The histograms are registered as MBeans
+ * (edu.hm.networks2.salsify:type=FrameTracer,stage=...) and summarized in the
+ * log every TracingConfiguration.SUMMARY_INTERVAL milliseconds.
+ *
+ * Marking is lock-free and does not allocate: the timestamps of the newest
+ * TracingConfiguration.TRACED_FRAMES frames are kept in arrays indexed by the
+ * frame index. Every point is marked by one thread only.
+ */
+public class FrameTracer {
+
+    /**
+     * A point a frame passes. Only the first time a frame passes a point
+     * counts.
+     */
+    public enum Point {
+        /**
+         * The webcam delivered the frame to the sender.
+         */
+        CAPTURED,
+        /**
+         * The encoded frame is handed to the transport.
+         */
+        ENCODED,
+        /**
+         * The last fragment passed the rate limit.
+         */
+        TRANSMITTED,
+        /**
+         * The first fragment arrived at the receiver.
+         */
+        ARRIVED,
+        /**
+         * All fragments arrived (or were reconstructed).
+         */
+        REASSEMBLED,
+        /**
+         * The frame is decoded.
+         */
+        DECODED,
+        /**
+         * The frame is handed to the screen.
+         */
+        DISPLAYED
+    }
+
+    /**
+     * A part of the pipeline with a latency histogram.
+     */
+    public enum Stage {
+        /**
+         * Encoding all candidates of a frame.
+         */
+        ENCODE(Point.CAPTURED, Point.ENCODED),
+        /**
+         * Encoding one candidate (recorded directly).
+         */
+        ENCODE_CANDIDATE(null, null),
+        /**
+         * Waiting for the rate limit until the last fragment is sent.
+         */
+        TRANSMIT(Point.ENCODED, Point.TRANSMITTED),
+        /**
+         * Time of a fragment from the rate limit to the receiver (recorded
+         * directly for every fragment). Only meaningful on one host, because
+         * the send times come from the sender's clock.
+         */
+        WIRE(null, null),
+        /**
+         * Receiving the fragments of a frame.
+         */
+        REASSEMBLE(Point.ARRIVED, Point.REASSEMBLED),
+        /**
+         * Waiting for the source frame and the decoder thread, decoding.
+         */
+        DECODE(Point.REASSEMBLED, Point.DECODED),
+        /**
+         * Handing the frame to the screen.
+         */
+        DISPLAY(Point.DECODED, Point.DISPLAYED),
+        /**
+         * Everything at the sender.
+         */
+        SENDER(Point.CAPTURED, Point.TRANSMITTED),
+        /**
+         * Everything at the receiver.
+         */
+        RECEIVER(Point.ARRIVED, Point.DISPLAYED),
+        /**
+         * Capture to display (only if both run in one process).
+         */
+        END_TO_END(Point.CAPTURED, Point.DISPLAYED);
+
+        private final Point start;
+
+        private final Point end;
+
+        Stage(Point start, Point end) {
+            this.start = start;
+            this.end = end;
+        }
+
+    }
+
+    private static final FrameTracer INSTANCE = new FrameTracer();
+
+    /**
+     * Time a frame passed a point (per point, indexed by frame index modulo
+     * TRACED_FRAMES).
+     */
+    private final AtomicLongArray[] times;
+
+    /**
+     * Frame index the time in times belongs to, -1 if there is none.
+     */
+    private final AtomicIntegerArray[] frameIndices;
+
+    /**
+     * Stages that end at a point (per point).
+     */
+    private final Stage[][] endingStages;
+
+    private final Map<Stage, LatencyHistogram> histograms;
+
+    private FrameTracer() {
+        final int points = Point.values().length;
+        times = new AtomicLongArray[points];
+        frameIndices = new AtomicIntegerArray[points];
+        endingStages = new Stage[points][];
+        for (Point point : Point.values()) {
+            times[point.ordinal()] = new AtomicLongArray(TracingConfiguration.TRACED_FRAMES);
+            frameIndices[point.ordinal()] = new AtomicIntegerArray(TracingConfiguration.TRACED_FRAMES);
+            for (int slot = 0; slot < TracingConfiguration.TRACED_FRAMES; slot++) {
+                frameIndices[point.ordinal()].set(slot, -1);
+            }
+            final List<Stage> stages = new ArrayList<>();
+            for (Stage stage : Stage.values()) {
+                if (stage.end == point) {
+                    stages.add(stage);
+                }
+            }
+            endingStages[point.ordinal()] = stages.toArray(new Stage[0]);
+        }
+        histograms = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+
+        if (TracingConfiguration.TRACING) {
+            registerMBeans();
+            if (TracingConfiguration.SUMMARY_INTERVAL > 0) {
+                final ScheduledExecutorService summary = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    final Thread thread = new Thread(runnable, "FrameTracer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                summary.scheduleAtFixedRate(this::logSummary, TracingConfiguration.SUMMARY_INTERVAL,
+                        TracingConfiguration.SUMMARY_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Get tracer instance.
+     *
+     * @return tracer instance
+     */
+    public static FrameTracer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Mark that a frame passes a point now and record the stages that end
+     * there. Only the first mark of a point per frame counts.
+     *
+     * @param frameIndex index of the frame.
+     * @param point the point.
+     */
+    public void mark(int frameIndex, Point point) {
+        if (!TracingConfiguration.TRACING || frameIndex < 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final int slot = frameIndex & (TracingConfiguration.TRACED_FRAMES - 1);
+        final AtomicIntegerArray indices = frameIndices[point.ordinal()];
+        if (indices.get(slot) == frameIndex) {
+            return;
+        }
+        times[point.ordinal()].set(slot, now);
+        // published after the time, so a reader that sees the index sees the
+        // time as well
+        indices.set(slot, frameIndex);
+
+        for (Stage stage : endingStages[point.ordinal()]) {
+            final long start = getTime(frameIndex, stage.start);
+            if (start != -1) {
+                histograms.get(stage).record(now - start);
+            }
+        }
+    }
+
+    /**
+     * Record the latency of a stage that is not measured between points.
+     *
+     * @param stage the stage.
+     * @param nanoseconds the latency in nanoseconds.
+     */
+    public void record(Stage stage, long nanoseconds) {
+        if (TracingConfiguration.TRACING) {
+            histograms.get(stage).record(nanoseconds);
+        }
+    }
+
+    /**
+     * @param stage the stage.
+     *
+     * @return the histogram of the stage.
+     */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * @return one line per stage that was measured.
+     */
+    public String getSummary() {
+        final StringBuilder summary = new StringBuilder();
+        for (Map.Entry<Stage, LatencyHistogram> entry : histograms.entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                summary.append(String.format("%-17s %s%n", entry.getKey() + ":", entry.getValue()));
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Get the time a frame passed a point.
+     *
+     * @return the time, -1 if it is unknown (or not kept anymore).
+     */
+    private long getTime(int frameIndex, Point point) {
+        final int slot = frameIndex & (TracingConfiguration.TRACED_FRAMES - 1);
+        final AtomicIntegerArray indices = frameIndices[point.ordinal()];
+        if (indices.get(slot) != frameIndex) {
+            return -1;
+        }
+        final long time = times[point.ordinal()].get(slot);
+        // a newer frame may have taken the slot meanwhile
+        return indices.get(slot) == frameIndex ? time : -1;
+    }
+
+    private void logSummary() {
+        final String summary = getSummary();
+        if (!summary.isEmpty()) {
+            GlobalLogger.getInstance().log(Level.INFO, "Frame timing:\n{0}", summary);
+        }
+    }
+
+    private void registerMBeans() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Map.Entry<Stage, LatencyHistogram> entry : histograms.entrySet()) {
+            try {
+                server.registerMBean(entry.getValue(), new ObjectName("edu.hm.networks2.salsify:type=FrameTracer,stage=" + entry.getKey()));
+            } catch (JMException exception) {
+                GlobalLogger.getInstance().log(Level.WARNING, "Could not register histogram of {0}. {1}", new Object[]{entry.getKey(), exception.toString()});
+            }
+        }
+    }
+
+}
@@ -9,34 +9,51 @@ import java.io.File;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
+import edu.hm.networks2.salsify.common.config.LoggingConfiguration;
+
 /**
  *
  * @author nico
  */
 public class GlobalLogger {
     
-    private static Logger GLOBAL_LOGGER = null;
+    /**
+     * Only published when it is completely set up, so other threads never see
+     * a logger without handlers.
+     */
+    private static volatile Logger GLOBAL_LOGGER = null;
     
     private GlobalLogger(String fileNamePrefix) {
-        GLOBAL_LOGGER = Logger.getLogger(GlobalLogger.class.getName());
+        final Logger logger = Logger.getLogger(GlobalLogger.class.getName());
+        logger.setLevel(LoggingConfiguration.LEVEL);
         String now = LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd.mm.yy_hh-mm-ss"));
         try {
             FileHandler fileHandler = new FileHandler("logs" + File.separator + fileNamePrefix + now + ".log");
             fileHandler.setFormatter(new SimpleFormatter());
-            GLOBAL_LOGGER.addHandler(fileHandler);
+            if (LoggingConfiguration.ASYNCHRONOUS) {
+                // the console is written by our handler as well, so neither
+                // the file nor the console delays the thread that logs
+                logger.setUseParentHandlers(false);
+                logger.addHandler(new AsyncLogHandler(fileHandler, new ConsoleHandler()));
+            } else {
+                logger.addHandler(fileHandler);
+            }
         } catch (IOException exception) {
             System.out.println("IO Exception occured while creating logger! " + exception.toString());
         } catch (SecurityException exception) {
             System.out.println("Security exception occured while creating logger! " + exception.toString());
         }  
+        GLOBAL_LOGGER = logger;
     }
     
     /**
-     * Get logger instance. File name prefix is only used on first call.
+     * Get logger instance. File name prefix is only used on first call. Safe
+     * to call from several threads, the logger is only created once.
      * 
      * @param fileNamePrefix the prefix of the file to write to.
      * 
@@ -44,8 +61,12 @@ public class GlobalLogger {
      */
     public static Logger getInstance(String fileNamePrefix) {
         if (GLOBAL_LOGGER == null) {
-            // this will intialize our global logger
-            new GlobalLogger(fileNamePrefix);
+            synchronized (GlobalLogger.class) {
+                if (GLOBAL_LOGGER == null) {
+                    // this will intialize our global logger
+                    new GlobalLogger(fileNamePrefix);
+                }
+            }
         } 
         return GLOBAL_LOGGER;
     }
@@ -56,10 +77,7 @@ public class GlobalLogger {
      * @return logger instance 
      */
     public static Logger getInstance() {
-        if (GLOBAL_LOGGER == null) {
-            new GlobalLogger("Log_");
-        }
-        return GLOBAL_LOGGER;
+        return getInstance("Log_");
     }
     
 }
@@ -0,0 +1,167 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets whose width grows with the latency, like an
+ * HDR histogram: every power of two is split into SUB_BUCKETS buckets, so a
+ * percentile is accurate to about 3% over the whole range of a long. Recording
+ * is lock-free and does not allocate, so any number of threads can record
+ * while others read percentiles. Readings taken during recording are
+ * approximate.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * Number of buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values below 2 * SUB_BUCKETS get a bucket of their own, every higher
+     * power of two SUB_BUCKETS buckets.
+     */
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+
+    private final AtomicLong count;
+
+    /**
+     * Sum of all latencies in nanoseconds.
+     */
+    private final AtomicLong sum;
+
+    /**
+     * Highest latency in nanoseconds.
+     */
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        count = new AtomicLong();
+        sum = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * Record a latency.
+     *
+     * @param nanoseconds the latency in nanoseconds. Negative latencies count
+     * as 0.
+     */
+    public void record(long nanoseconds) {
+        final long value = Math.max(0, nanoseconds);
+        counts.incrementAndGet(getBucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Get a percentile of the recorded latencies.
+     *
+     * @param percentile the percentile (0, 100].
+     *
+     * @return the latency in nanoseconds (the middle of its bucket, the
+     * highest latency for 100), 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        final long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        if (percentile >= 100) {
+            return max.get();
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                final long lowest = getLowestValue(bucket);
+                final long middle = lowest + (getLowestValue(bucket + 1) - lowest - 1) / 2;
+                return Math.min(middle, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getMean() {
+        final long total = count.get();
+        return total == 0 ? 0 : sum.get() / 1e6 / total;
+    }
+
+    @Override
+    public double getP50() {
+        return getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getP90() {
+        return getPercentile(90) / 1e6;
+    }
+
+    @Override
+    public double getP99() {
+        return getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getMax() {
+        return max.get() / 1e6;
+    }
+
+    @Override
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.set(bucket, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "n=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f max=%.1f ms",
+                getCount(), getMean(), getP50(), getP90(), getP99(), getMax());
+    }
+
+    /**
+     * @return the bucket of a value (not negative).
+     */
+    private static int getBucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return the lowest value of a bucket, Long.MAX_VALUE behind the last
+     * bucket.
+     */
+    private static long getLowestValue(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        if (bucket >= BUCKETS) {
+            return Long.MAX_VALUE;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+}
@@ -0,0 +1,25 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+/**
+ * Management interface of a LatencyHistogram. All times are in milliseconds.
+ */
+public interface LatencyHistogramMBean {
+
+    long getCount();
+
+    double getMean();
+
+    double getP50();
+
+    double getP90();
+
+    double getP99();
+
+    double getMax();
+
+    /**
+     * Forget all recorded latencies.
+     */
+    void reset();
+
+}
@@ -6,74 +6,222 @@ import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.Queue;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import edu.hm.networks2.salsify.common.config.LinkConfiguration;
+import edu.hm.networks2.salsify.common.packets.SalsifyFragment;
 
 public class LimitedSocket extends DatagramSocket {
 
-	private final Queue<DatagramPacket> queue;
-	
-	private boolean loseNextPacket;
+	/**
+	 * An entry of the send queue. It is either a complete datagram packet or a
+	 * salsify fragment which is written to the outgoing buffer right before
+	 * sending.
+	 */
+	private static class QueuedPacket {
 
-	public LimitedSocket(int port, InetAddress ip, int packetSize, int bandwidth) throws SocketException, UnknownHostException {
-		super(port, ip);
-		queue = new LinkedBlockingQueue<>();
-		
-		// delay = 1000 ms / number of packets that fit into the network
-		int delay = 1000 / (bandwidth / packetSize);
-		// delay must not be 0 -> fastest = sending every millisecond
-		delay = delay > 0 ? delay : 1;
-		final Timer timer = new Timer();
-		final TimerTask task = new TimerTask() {                    
-                        
-			@Override
-			public void run() {
-				// poll the next packet from the queue
-				final DatagramPacket packet = queue.poll();
-				// if it exists, send it
-				if (packet != null) {
-					// is a packet loss forced?
-					if (loseNextPacket) {
-						loseNextPacket = false;
-					} else {
-						try {
-							sendSuper(packet);
-						} catch (SocketException exception) {
-		                    // thread is stopping when socket is closed
-							cancel();
-						} catch (IOException exception) {
-							System.err.println("Error while sending packet from queue.");
-							System.out.println(exception);
+		private final DatagramPacket packet;
+
+		private final SalsifyFragment fragment;
+
+		private final InetAddress address;
+
+		private final int port;
+
+		QueuedPacket(DatagramPacket packet) {
+			this.packet = packet;
+			this.fragment = null;
+			this.address = null;
+			this.port = 0;
+		}
+
+		QueuedPacket(SalsifyFragment fragment, InetAddress address, int port) {
+			this.packet = null;
+			this.fragment = fragment;
+			this.address = address;
+			this.port = port;
+		}
+
+		int getSize() {
+			return fragment == null ? packet.getLength() : fragment.getSize();
+		}
+	}
+
+	/**
+	 * This thread sends the queued packets. Every time it wakes up it sends as
+	 * many packets as the token bucket allows (a burst) and then parks until
+	 * the next packet fits into the bucket.
+	 */
+	private class Pacer extends Thread {
+
+		Pacer() {
+			super("LimitedSocket-Pacer");
+			// must not keep the program running when the socket is forgotten
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!isInterrupted()) {
+					// block until there is something to send
+					QueuedPacket packet = queue.take();
+
+					// wait until the packet fits into the bucket
+					long wait = bucket.nanosUntilAvailable(packet.getSize());
+					while (wait > 0) {
+						LockSupport.parkNanos(wait);
+						wait = bucket.nanosUntilAvailable(packet.getSize());
+					}
+
+					// send a burst of all packets that fit into the bucket
+					while (packet != null && bucket.tryConsume(packet.getSize())) {
+						// the receiver estimates the bandwidth from this
+						if (packet.fragment != null) {
+							packet.fragment.setSendTime(SalsifyFragment.getCurrentTime());
+							if (packet.fragment.getRemainingFragments() == 0) {
+								FrameTracer.getInstance().mark(packet.fragment.getFrameIndex(), FrameTracer.Point.TRANSMITTED);
+							}
+						}
+						// is a packet loss forced?
+						if (loseNextPacket) {
+							loseNextPacket = false;
+						} else {
+							try {
+								link.send(packet, packet.getSize());
+							} catch (IOException exception) {
+								if (isClosed()) {
+									// thread is stopping when socket is closed
+									return;
+								}
+								// the packet is lost, the next one may get through
+								GlobalLogger.getInstance().log(Level.WARNING, "Error while sending packet from queue. {0}", exception.toString());
+							}
 						}
+						packet = queue.poll();
+					}
+					// the packet that did not fit starts the next burst
+					if (packet != null) {
+						queue.addFirst(packet);
 					}
 				}
+			} catch (InterruptedException exception) {
+				// thread is stopping when socket is closed
 			}
-			
-		};
-		timer.schedule(task, 0, delay);
+		}
+	}
+
+	private final BlockingDeque<QueuedPacket> queue;
+
+	/**
+	 * Limits the sent bytes to the bandwidth.
+	 */
+	private final TokenBucket bucket;
+
+	/**
+	 * Thread that sends the queued packets.
+	 */
+	private final Pacer pacer;
+
+	/**
+	 * Emulates the network behind the bandwidth limit.
+	 */
+	private final EmulatedLink<QueuedPacket> link;
+
+	/**
+	 * Queued fragments are written into this buffer right before sending, so
+	 * no array is allocated per fragment.
+	 */
+	private final ByteBuffer outgoing;
+
+	/**
+	 * Packet that wraps the outgoing buffer.
+	 */
+	private final DatagramPacket outgoingPacket;
+	
+	private volatile boolean loseNextPacket;
+
+	public LimitedSocket(int port, InetAddress ip, int packetSize, int bandwidth) throws SocketException, UnknownHostException {
+		this(port, ip, packetSize, bandwidth, new LinkConfiguration(0));
+	}
+
+	/**
+	 * Construct a socket whose packets additionally go over an emulated link.
+	 * 
+	 * @param port is the local port
+	 * @param ip is the local address
+	 * @param packetSize is the size of the biggest packet
+	 * @param bandwidth is the bandwidth to send with in bytes per second
+	 * @param linkConfiguration describes the emulated link
+	 * @throws SocketException if the socket could not be opened
+	 */
+	public LimitedSocket(int port, InetAddress ip, int packetSize, int bandwidth, LinkConfiguration linkConfiguration) throws SocketException {
+		super(port, ip);
+		queue = new LinkedBlockingDeque<>();
+		outgoing = ByteBuffer.allocate(SalsifyFragment.COMPLETE_SIZE);
+		outgoingPacket = new DatagramPacket(outgoing.array(), outgoing.capacity());
+		
+		bucket = new TokenBucket(bandwidth, packetSize);
+		link = new EmulatedLink<>("Fragments", linkConfiguration, packet -> {
+			sendSuper(packet);
+			return true;
+		});
+		pacer = new Pacer();
+		pacer.start();
 	}
 
 	@Override
 	public void send(DatagramPacket packet) throws IOException {
 		// add the packet to the queue
-		queue.add(packet);
+		queue.add(new QueuedPacket(packet));
+	}
+
+	/**
+	 * Send a salsify fragment. The fragment is queued as it is and only written
+	 * into the outgoing buffer when it is its turn, so its data must not change
+	 * until then.
+	 * 
+	 * @param fragment is the fragment to send
+	 * @param address is the address of the receiver
+	 * @param port is the port of the receiver
+	 */
+	public void send(SalsifyFragment fragment, InetAddress address, int port) {
+		queue.add(new QueuedPacket(fragment, address, port));
 	}
 
 	public void loseNexPacket() {
 		loseNextPacket = true;
 	}
+
+	@Override
+	public void close() {
+		pacer.interrupt();
+		link.close();
+		super.close();
+	}
 	
 
 	/**
-	 * Small hack, so we can access super.send() within the timer task.
+	 * Small hack, so we can access super.send() within the emulated link.
 	 * 
 	 * @param packet is the packet to send
 	 * @throws IOException when an i/o error occurs
 	 */
-	private void sendSuper(DatagramPacket packet) throws IOException {
-		super.send(packet);
+	private void sendSuper(QueuedPacket packet) throws IOException {
+		if (packet.fragment == null) {
+			super.send(packet.packet);
+		} else {
+			outgoing.clear();
+			packet.fragment.writeTo(outgoing);
+			outgoingPacket.setData(outgoing.array(), 0, outgoing.position());
+			outgoingPacket.setAddress(packet.address);
+			outgoingPacket.setPort(packet.port);
+			super.send(outgoingPacket);
+		}
 	}
 
 }
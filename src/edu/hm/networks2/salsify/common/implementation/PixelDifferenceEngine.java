@@ -0,0 +1,177 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+import java.awt.image.BufferedImage;
+
+import edu.hm.networks2.salsify.common.IDifferenceEngine;
+
+/**
+ * This is an implementation of IDifferenceEngine. It walks over every pixel
+ * using getRGB(...) and setRGB(...), so it works with every image type but is
+ * slow for big frames.
+ */
+public class PixelDifferenceEngine implements IDifferenceEngine {
+
+    /**
+     * A residual of 0 is stored as this value.
+     */
+    static final int BIAS = 128;
+
+    @Override
+    public BufferedImage calculateDifference(BufferedImage before, BufferedImage after) {
+
+        checkDimensions(before, after);
+
+        // result image
+        BufferedImage result = new BufferedImage(
+                before.getWidth(),
+                before.getHeight(),
+                BufferedImage.TYPE_3BYTE_BGR);
+
+        // loop and calculate difference
+        for (int y = 0; y < result.getHeight(); y++) {
+            for (int x = 0; x < result.getWidth(); x++) {
+                result.setRGB(x, y, calculatePixelDifference(before.getRGB(x, y), after.getRGB(x, y)));
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public BufferedImage addDifference(BufferedImage state, BufferedImage difference) {
+
+        checkDimensions(state, difference);
+
+        // result image
+        return addDifference(state, difference, new BufferedImage(
+                state.getWidth(),
+                state.getHeight(),
+                BufferedImage.TYPE_3BYTE_BGR));
+    }
+
+    @Override
+    public BufferedImage addDifference(BufferedImage state, BufferedImage difference, BufferedImage result) {
+
+        checkDimensions(state, difference);
+        checkDimensions(state, result);
+
+        // loop and add difference
+        for (int y = 0; y < result.getHeight(); y++) {
+            for (int x = 0; x < result.getWidth(); x++) {
+                result.setRGB(x, y, addPixelDifference(
+                        state.getRGB(x, y),
+                        difference.getRGB(x, y))
+                );
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Make sure both images exist and have the same dimensions.
+     *
+     * @param first The first image.
+     * @param second The second image.
+     */
+    static void checkDimensions(BufferedImage first, BufferedImage second) {
+
+        if (first == null || second == null) {
+            throw new IllegalArgumentException("Difference Calculation: Images must not be null!");
+        }
+
+        if (first.getHeight() != second.getHeight() || first.getWidth() != second.getWidth()) {
+            throw new IllegalArgumentException("Difference Calculation: Image dimensions must align!");
+        }
+    }
+
+    /**
+     * Calculates the difference between two pixel components. The difference
+     * is expressed as a signed residual with a bias (see IDifferenceEngine).
+     *
+     * @param rgbOne First pixel value.
+     * @param rgbTwo Second pixel value.
+     *
+     * @return integer containing the difference
+     */
+    private int calculatePixelDifference(int rgbOne, int rgbTwo) {
+
+        int red = calculateComponentDifference(getRed(rgbOne), getRed(rgbTwo));
+        int green = calculateComponentDifference(getGreen(rgbOne), getGreen(rgbTwo));
+        int blue = calculateComponentDifference(getBlue(rgbOne), getBlue(rgbTwo));
+
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * This performs the reverse operation of the operation performed in
+     * calculated pixel difference.
+     *
+     * @param rgbState The pixel value before adding the difference.
+     * @param rgbDifference The difference.
+     *
+     * @return the new pixel value coded into an integer.
+     */
+    private int addPixelDifference(int rgbState, int rgbDifference) {
+
+        int red = addComponentDifference(getRed(rgbState), getRed(rgbDifference));
+        int green = addComponentDifference(getGreen(rgbState), getGreen(rgbDifference));
+        int blue = addComponentDifference(getBlue(rgbState), getBlue(rgbDifference));
+
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Calculates the difference of a single color component.
+     *
+     * @param before Component before in [0, 255].
+     * @param after Component after in [0, 255].
+     *
+     * @return the biased residual in [0, 255].
+     */
+    static int calculateComponentDifference(int before, int after) {
+        return Math.min(0xFF, Math.max(0, after - before + BIAS));
+    }
+
+    /**
+     * Adds the difference of a single color component. This is the reverse
+     * operation of calculateComponentDifference(...) for changes in
+     * [-128, 127].
+     *
+     * @param state Component of the state in [0, 255].
+     * @param difference The biased residual in [0, 255].
+     *
+     * @return the resulting component in [0, 255].
+     */
+    static int addComponentDifference(int state, int difference) {
+        return Math.min(0xFF, Math.max(0, state + difference - BIAS));
+    }
+
+    /**
+     * Extract red from rgb values coded into integer.
+     * @param rgb The rgb value.
+     * @return The value of the red component.
+     */
+    private int getRed(int rgb) {
+        return (rgb >> 16) & 0xFF;
+    }
+
+    /**
+     * Extract green from rgb values coded into integer.
+     * @param rgb The rgb value.
+     * @return The value of the green component.
+     */
+    private int getGreen(int rgb) {
+        return (rgb >> 8) & 0xFF;
+    }
+
+    /**
+     * Extract blue from rgb values coded into integer.
+     * @param rgb The rgb value.
+     * @return The value of the blue component.
+     */
+    private int getBlue(int rgb) {
+        return rgb & 0xFF;
+    }
+
+}
@@ -0,0 +1,189 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
+
+import edu.hm.networks2.salsify.common.IDifferenceEngine;
+
+/**
+ * This is an implementation of IDifferenceEngine. It works directly on the
+ * backing byte array of TYPE_3BYTE_BGR images. Every byte is one color
+ * component, so the difference is computed byte by byte with the same
+ * component functions as the PixelDifferenceEngine. No objects are allocated
+ * except the result image.
+ *
+ * Images that are not plain TYPE_3BYTE_BGR images are handed to a
+ * PixelDifferenceEngine, which produces the same output.
+ */
+public class RasterDifferenceEngine implements IDifferenceEngine {
+
+    /**
+     * Number of bytes per pixel in a TYPE_3BYTE_BGR image.
+     */
+    private static final int BYTES_PER_PIXEL = 3;
+
+    /**
+     * Used for all images we cannot access directly.
+     */
+    private final IDifferenceEngine fallback;
+
+    public RasterDifferenceEngine() {
+        fallback = new PixelDifferenceEngine();
+    }
+
+    @Override
+    public BufferedImage calculateDifference(BufferedImage before, BufferedImage after) {
+
+        PixelDifferenceEngine.checkDimensions(before, after);
+
+        if (!isPlainBgr(before) || !isPlainBgr(after)) {
+            return fallback.calculateDifference(before, after);
+        }
+
+        final BufferedImage result = new BufferedImage(
+                before.getWidth(),
+                before.getHeight(),
+                BufferedImage.TYPE_3BYTE_BGR);
+
+        final byte[] beforeData = getData(before);
+        final byte[] afterData = getData(after);
+        final byte[] resultData = getData(result);
+
+        for (int index = 0; index < resultData.length; index++) {
+            resultData[index] = (byte) PixelDifferenceEngine.calculateComponentDifference(
+                    beforeData[index] & 0xFF, afterData[index] & 0xFF);
+        }
+
+        return result;
+    }
+
+    @Override
+    public BufferedImage addDifference(BufferedImage state, BufferedImage difference) {
+
+        PixelDifferenceEngine.checkDimensions(state, difference);
+
+        return addDifference(state, difference, new BufferedImage(
+                state.getWidth(),
+                state.getHeight(),
+                BufferedImage.TYPE_3BYTE_BGR));
+    }
+
+    @Override
+    public BufferedImage addDifference(BufferedImage state, BufferedImage difference, BufferedImage result) {
+
+        PixelDifferenceEngine.checkDimensions(state, difference);
+        PixelDifferenceEngine.checkDimensions(state, result);
+
+        if (!isPlainBgr(state) || !isPlainBgr(difference) || !isPlainBgr(result)) {
+            return fallback.addDifference(state, difference, result);
+        }
+
+        final byte[] stateData = getData(state);
+        final byte[] differenceData = getData(difference);
+        final byte[] resultData = getData(result);
+
+        for (int index = 0; index < resultData.length; index++) {
+            resultData[index] = (byte) PixelDifferenceEngine.addComponentDifference(
+                    stateData[index] & 0xFF, differenceData[index] & 0xFF);
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the share of color components whose change from before to after
+     * does not fit into the residual and is cut off by calculateDifference(...).
+     * A high share means the frame has little in common with before (a scene
+     * cut), so encoding it without a state is better.
+     *
+     * @param before The state.
+     * @param after The new frame.
+     *
+     * @return share of cut off components in [0, 1], 1 if the dimensions
+     * differ.
+     */
+    public static double getClippedShare(BufferedImage before, BufferedImage after) {
+        if (before.getWidth() != after.getWidth() || before.getHeight() != after.getHeight()) {
+            return 1;
+        }
+
+        long clipped = 0;
+        if (isPlainBgr(before) && isPlainBgr(after)) {
+            final byte[] beforeData = getData(before);
+            final byte[] afterData = getData(after);
+            for (int index = 0; index < beforeData.length; index++) {
+                if (isClipped(beforeData[index] & 0xFF, afterData[index] & 0xFF)) {
+                    clipped++;
+                }
+            }
+        } else {
+            for (int y = 0; y < before.getHeight(); y++) {
+                for (int x = 0; x < before.getWidth(); x++) {
+                    final int beforePixel = before.getRGB(x, y);
+                    final int afterPixel = after.getRGB(x, y);
+                    for (int shift = 0; shift < Integer.SIZE - Byte.SIZE; shift += Byte.SIZE) {
+                        if (isClipped((beforePixel >> shift) & 0xFF, (afterPixel >> shift) & 0xFF)) {
+                            clipped++;
+                        }
+                    }
+                }
+            }
+        }
+        return (double) clipped / ((long) before.getWidth() * before.getHeight() * BYTES_PER_PIXEL);
+    }
+
+    /**
+     * Check if the change of a single color component is cut off.
+     *
+     * @param before Component of the state in [0, 255].
+     * @param after Component of the new frame in [0, 255].
+     *
+     * @return true if the residual cannot hold the change.
+     */
+    private static boolean isClipped(int before, int after) {
+        final int change = after - before;
+        return change < -PixelDifferenceEngine.BIAS || change > 0xFF - PixelDifferenceEngine.BIAS;
+    }
+
+    /**
+     * Check if the given image is a TYPE_3BYTE_BGR image whose pixels are
+     * stored in one byte array without any padding or offset (this is not the
+     * case for sub images for example).
+     *
+     * @param image The image to check.
+     *
+     * @return true if getData(...) can be used on the image.
+     */
+    public static boolean isPlainBgr(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            return false;
+        }
+        final WritableRaster raster = image.getRaster();
+        if (!(raster.getDataBuffer() instanceof DataBufferByte)
+                || !(raster.getSampleModel() instanceof ComponentSampleModel)) {
+            return false;
+        }
+        final ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        return raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getNumBanks() == 1
+                && raster.getDataBuffer().getOffset() == 0
+                && sampleModel.getPixelStride() == BYTES_PER_PIXEL
+                && sampleModel.getScanlineStride() == image.getWidth() * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Get the backing byte array of an image. Only use this when
+     * isPlainBgr(...) returned true.
+     *
+     * @param image The image.
+     *
+     * @return the pixels as blue, green, red bytes (line by line).
+     */
+    public static byte[] getData(BufferedImage image) {
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+}
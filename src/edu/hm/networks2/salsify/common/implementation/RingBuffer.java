@@ -0,0 +1,129 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * A bounded ring of preallocated slots for any number of producers and one
+ * consumer, without locks. A producer claims a slot, fills it and publishes
+ * it; the consumer takes the published slots in order and releases them for
+ * reuse. Every slot has a sequence number which tells whose turn it is, so
+ * producers only compete for the tail. Producers never wait: claim() fails
+ * when the ring is full. The slots are reused, so nothing is allocated.
+ *
+ * @param <T> type of the slots.
+ */
+public class RingBuffer<T> {
+
+    private final Object[] slots;
+
+    /**
+     * For every slot: position + 1 when it is published, position + capacity
+     * when it is free for the position one round later.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * Position of the next slot to claim.
+     */
+    private final AtomicLong tail;
+
+    /**
+     * Position of the next slot to take. Only used by the consumer.
+     */
+    private long head;
+
+    /**
+     * Construct a ring with preallocated slots.
+     *
+     * @param capacity number of slots. Must be a power of two.
+     * @param factory creates the slots.
+     */
+    public RingBuffer(int capacity, Supplier<T> factory) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("RingBuffer: Capacity must be a power of two!");
+        }
+        slots = new Object[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int index = 0; index < capacity; index++) {
+            slots[index] = factory.get();
+            sequences.set(index, index);
+        }
+        tail = new AtomicLong();
+    }
+
+    /**
+     * Claim a slot. Fill it (get(...)) and publish it afterwards.
+     *
+     * @return the position of the slot, -1 if the ring is full.
+     */
+    public long claim() {
+        while (true) {
+            final long position = tail.get();
+            final long difference = sequences.get(getIndex(position)) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+            } else if (difference < 0) {
+                // the slot of the previous round was not released yet
+                return -1;
+            }
+            // another producer claimed the position meanwhile, try the next
+        }
+    }
+
+    /**
+     * Get a claimed slot.
+     *
+     * @param position the position returned by claim().
+     *
+     * @return the slot.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long position) {
+        return (T) slots[getIndex(position)];
+    }
+
+    /**
+     * Hand a filled slot to the consumer.
+     *
+     * @param position the position returned by claim().
+     */
+    public void publish(long position) {
+        sequences.set(getIndex(position), position + 1);
+    }
+
+    /**
+     * Get the next published slot. Only call this from the consumer and call
+     * release() when the slot is not needed anymore.
+     *
+     * @return the slot, null if it is not published yet.
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        final int index = getIndex(head);
+        return sequences.get(index) == head + 1 ? (T) slots[index] : null;
+    }
+
+    /**
+     * Give the slot returned by poll() back to the producers.
+     */
+    public void release() {
+        sequences.set(getIndex(head), head + slots.length);
+        head++;
+    }
+
+    /**
+     * @return the capacity of the ring.
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    private int getIndex(long position) {
+        return (int) position & (slots.length - 1);
+    }
+
+}
@@ -0,0 +1,282 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+import java.awt.image.BufferedImage;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
+
+import edu.hm.networks2.salsify.common.ICodec;
+import edu.hm.networks2.salsify.common.config.CodecConfiguration;
+
+/**
+ * This is an implementation of ICodec. It splits every frame into horizontal
+ * stripes (tiles) and encodes or decodes them in parallel on a fork join pool.
+ * Each tile is handed to another codec which does the actual work.
+ *
+ * All tiles are packed into one payload:
+ * <pre>
+ * MAGIC | number of tiles | width | height | (y | tile height | length) * tiles | tile data
+ * </pre>
+ * Each field is a 4 byte integer. A payload that does not start with MAGIC
+ * was not tiled and is decoded by the tile codec as a whole, so a receiver
+ * with a tiled codec understands senders with and without tiles.
+ */
+public class TiledCodec implements ICodec {
+
+    /**
+     * Tile heights are a multiple of this so tile borders fall on jpeg block
+     * borders.
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * First field of a tiled payload ("TILE"). A jpeg image starts with
+     * 0xFFD8, so it never starts with this.
+     */
+    private static final int MAGIC = 0x54494C45;
+
+    /**
+     * Size of the fixed part of the header (magic, number of tiles, width,
+     * height).
+     */
+    private static final int HEADER_SIZE = Integer.BYTES * 4;
+
+    /**
+     * Size of the header of every tile (y, tile height, length).
+     */
+    private static final int TILE_HEADER_SIZE = Integer.BYTES * 3;
+
+    /**
+     * Encodes and decodes the single tiles.
+     */
+    private final ICodec tileCodec;
+
+    /**
+     * Number of tiles a frame is split into.
+     */
+    private final int tiles;
+
+    /**
+     * Runs the encoding and decoding of the tiles.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Construct a tiled codec.
+     *
+     * @param tileCodec encodes and decodes single tiles.
+     * @param tiles number of tiles a frame is split into (at least 1).
+     */
+    public TiledCodec(ICodec tileCodec, int tiles) {
+        if (tiles < 1) {
+            throw new IllegalArgumentException("TiledCodec: Number of tiles must be at least 1!");
+        }
+        this.tileCodec = tileCodec;
+        this.tiles = tiles;
+        this.pool = new ForkJoinPool(tiles);
+    }
+
+    @Override
+    public Optional<byte[]> encode(Optional<BufferedImage> state, BufferedImage frame, int quality) {
+
+        if (frame == null) {
+            throw new IllegalArgumentException("Encode: Provided frame must not be null!");
+        }
+
+        // compute the tile borders
+        final int tileHeight = getTileHeight(frame.getHeight());
+        final List<Integer> tileStarts = new ArrayList<>();
+        for (int y = 0; y < frame.getHeight(); y += tileHeight) {
+            tileStarts.add(y);
+        }
+
+        // encode all tiles in parallel
+        final List<ForkJoinTask<Optional<byte[]>>> tasks = new ArrayList<>(tileStarts.size());
+        for (int y : tileStarts) {
+            final int height = Math.min(tileHeight, frame.getHeight() - y);
+            tasks.add(pool.submit(() -> {
+                final Optional<BufferedImage> tileState = state.map(image -> getTile(image, y, height));
+                return tileCodec.encode(tileState, getTile(frame, y, height), quality);
+            }));
+        }
+
+        // collect the results, the tiles run on the pool, so an interrupt of
+        // the calling thread cancels the tiles that did not start yet
+        final List<byte[]> encodedTiles = new ArrayList<>(tasks.size());
+        int size = HEADER_SIZE;
+        try {
+            for (ForkJoinTask<Optional<byte[]>> task : tasks) {
+                final Optional<byte[]> encodedTile = task.get();
+                if (!encodedTile.isPresent()) {
+                    tasks.forEach(remaining -> remaining.cancel(false));
+                    return Optional.empty();
+                }
+                encodedTiles.add(encodedTile.get());
+                size += TILE_HEADER_SIZE + encodedTile.get().length;
+            }
+        } catch (InterruptedException exception) {
+            tasks.forEach(remaining -> remaining.cancel(false));
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } catch (ExecutionException exception) {
+            GlobalLogger.getInstance().log(Level.SEVERE, "Encode: Could not encode tile! {0}", exception.toString());
+            tasks.forEach(remaining -> remaining.cancel(false));
+            return Optional.empty();
+        }
+
+        // pack the tiles into one payload
+        final ByteBuffer payload = ByteBuffer.allocate(size)
+                .putInt(MAGIC)
+                .putInt(encodedTiles.size())
+                .putInt(frame.getWidth())
+                .putInt(frame.getHeight());
+        for (int index = 0; index < encodedTiles.size(); index++) {
+            final int y = tileStarts.get(index);
+            payload.putInt(y)
+                    .putInt(Math.min(tileHeight, frame.getHeight() - y))
+                    .putInt(encodedTiles.get(index).length);
+        }
+        encodedTiles.forEach(payload::put);
+
+        return Optional.of(payload.array());
+    }
+
+    @Override
+    public Optional<BufferedImage> decode(Optional<BufferedImage> state, byte[] encodedFrame) {
+        return decode(state, encodedFrame, null);
+    }
+
+    @Override
+    public Optional<BufferedImage> decode(Optional<BufferedImage> state, byte[] encodedFrame, BufferedImage destination) {
+
+        if (encodedFrame == null) {
+            throw new IllegalArgumentException("Decode: Provided frame must not be null!");
+        }
+
+        final ByteBuffer payload = ByteBuffer.wrap(encodedFrame);
+        if (payload.remaining() < HEADER_SIZE || payload.getInt() != MAGIC) {
+            return tileCodec.decode(state, encodedFrame, destination);
+        }
+
+        final BufferedImage result;
+        final List<ForkJoinTask<Optional<BufferedImage>>> tasks = new ArrayList<>();
+        final List<Integer> tileStarts = new ArrayList<>();
+        final List<Integer> tileHeights = new ArrayList<>();
+        try {
+            // read and check the header before allocating anything
+            final int numberOfTiles = payload.getInt();
+            final int width = payload.getInt();
+            final int height = payload.getInt();
+            if (width <= 0 || height <= 0 || (long) width * height > CodecConfiguration.MAXIMUM_PIXELS) {
+                throw new IllegalArgumentException("Invalid frame size " + width + "x" + height + "!");
+            }
+            if (numberOfTiles <= 0 || numberOfTiles > height
+                    || (long) numberOfTiles * TILE_HEADER_SIZE > payload.remaining()) {
+                throw new IllegalArgumentException("Invalid number of tiles " + numberOfTiles + "!");
+            }
+            if (state.isPresent() && (state.get().getWidth() != width || state.get().getHeight() != height)) {
+                throw new IllegalArgumentException("Frame does not fit the state!");
+            }
+
+            final int[] lengths = new int[numberOfTiles];
+            long dataSize = 0;
+            for (int index = 0; index < numberOfTiles; index++) {
+                final int y = payload.getInt();
+                final int tileHeight = payload.getInt();
+                lengths[index] = payload.getInt();
+                if (y < 0 || tileHeight <= 0 || (long) y + tileHeight > height || lengths[index] < 0) {
+                    throw new IllegalArgumentException("Invalid tile " + index + "!");
+                }
+                tileStarts.add(y);
+                tileHeights.add(tileHeight);
+                dataSize += lengths[index];
+            }
+            if (dataSize > payload.remaining()) {
+                throw new IllegalArgumentException("Tiles are longer than the payload!");
+            }
+
+            if (destination != null
+                    && destination.getType() == BufferedImage.TYPE_3BYTE_BGR
+                    && destination.getWidth() == width
+                    && destination.getHeight() == height) {
+                result = destination;
+            } else {
+                result = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            }
+
+            // decode all tiles in parallel
+            for (int index = 0; index < numberOfTiles; index++) {
+                final byte[] encodedTile = new byte[lengths[index]];
+                payload.get(encodedTile);
+                final int y = tileStarts.get(index);
+                final int tileHeight = tileHeights.get(index);
+                tasks.add(pool.submit(() -> {
+                    final Optional<BufferedImage> tileState = state.map(image -> getTile(image, y, tileHeight));
+                    return tileCodec.decode(tileState, encodedTile);
+                }));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException exception) {
+            GlobalLogger.getInstance().log(Level.SEVERE, "Decode: Could not read tiled frame! {0}", exception.toString());
+            return Optional.empty();
+        }
+
+        // put the tiles together
+        for (int index = 0; index < tasks.size(); index++) {
+            final Optional<BufferedImage> tile = tasks.get(index).join();
+            if (!tile.isPresent()) {
+                return Optional.empty();
+            }
+            if (tile.get().getWidth() != result.getWidth() || tile.get().getHeight() != tileHeights.get(index)) {
+                GlobalLogger.getInstance().log(Level.SEVERE, "Decode: Tile {0} does not fit the tiled frame!", index);
+                return Optional.empty();
+            }
+            result.getRaster().setRect(0, tileStarts.get(index), tile.get().getRaster());
+        }
+
+        return Optional.of(result);
+    }
+
+    /**
+     * Compute the height of a single tile. All tiles except the last one have
+     * this height.
+     *
+     * @param frameHeight the height of the whole frame.
+     *
+     * @return the tile height.
+     */
+    private int getTileHeight(int frameHeight) {
+        final int tileHeight = (frameHeight + tiles - 1) / tiles;
+        // round up to full blocks
+        return Math.max(BLOCK_SIZE, (tileHeight + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE);
+    }
+
+    /**
+     * Get a horizontal stripe of an image. For plain TYPE_3BYTE_BGR images the
+     * stripe is a contiguous range of bytes, so it is copied into a new plain
+     * image (which the difference engine can process fast). All other images
+     * are cut with getSubimage(...).
+     *
+     * @param image the whole image.
+     * @param y first row of the stripe.
+     * @param height number of rows of the stripe.
+     *
+     * @return the stripe.
+     */
+    private static BufferedImage getTile(BufferedImage image, int y, int height) {
+        if (!RasterDifferenceEngine.isPlainBgr(image)) {
+            return image.getSubimage(0, y, image.getWidth(), height);
+        }
+        final BufferedImage tile = new BufferedImage(image.getWidth(), height, BufferedImage.TYPE_3BYTE_BGR);
+        final int rowSize = image.getWidth() * 3;
+        System.arraycopy(RasterDifferenceEngine.getData(image), y * rowSize,
+                RasterDifferenceEngine.getData(tile), 0, height * rowSize);
+        return tile;
+    }
+
+}
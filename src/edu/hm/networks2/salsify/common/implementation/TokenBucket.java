@@ -0,0 +1,113 @@
+package edu.hm.networks2.salsify.common.implementation;
+
+/**
+ * A token bucket that limits a byte stream to a given bandwidth. Tokens (bytes)
+ * are refilled continuously with the bandwidth up to the capacity of the
+ * bucket. The capacity is the largest burst that may be sent at once, so a
+ * pacer can send several packets per wakeup instead of sleeping between every
+ * packet.
+ *
+ * This class is not thread safe, it is meant to be used by a single pacer
+ * thread.
+ */
+public class TokenBucket {
+
+    /**
+     * The bucket holds enough tokens for this many nanoseconds of sending.
+     */
+    private static final long BURST_DURATION = 1000000;
+
+    private static final double BILLION = 1000000000.0;
+
+    /**
+     * Refill rate in bytes per nanosecond.
+     */
+    private final double rate;
+
+    /**
+     * Maximum number of tokens (bytes).
+     */
+    private final double capacity;
+
+    /**
+     * Currently available tokens (bytes).
+     */
+    private double tokens;
+
+    /**
+     * Time of the last refill in nanoseconds.
+     */
+    private long lastRefill;
+
+    /**
+     * Construct a full token bucket.
+     *
+     * @param bandwidth the bandwidth in bytes per second.
+     * @param minimumBurst the capacity is at least this many bytes (usually
+     * the size of the biggest packet).
+     */
+    public TokenBucket(long bandwidth, int minimumBurst) {
+        if (bandwidth <= 0) {
+            throw new IllegalArgumentException("TokenBucket: Bandwidth must be positive!");
+        }
+        this.rate = bandwidth / BILLION;
+        this.capacity = Math.max(minimumBurst, bandwidth * (BURST_DURATION / BILLION));
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Take the given number of bytes from the bucket if they are available.
+     *
+     * @param bytes number of bytes to send.
+     *
+     * @return true if the bytes may be sent now.
+     */
+    public boolean tryConsume(int bytes) {
+        refill();
+        // packets bigger than the bucket are sent when it is full (the
+        // tokens become negative, which is paid back before the next packet)
+        if (tokens >= Math.min(bytes, capacity)) {
+            tokens -= bytes;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Take the given number of bytes from the bucket. Use this to pay for a
+     * packet after it was sent, when nanosUntilAvailable(...) returned 0
+     * before.
+     *
+     * @param bytes number of bytes that were sent.
+     */
+    public void consume(int bytes) {
+        refill();
+        tokens -= bytes;
+    }
+
+    /**
+     * Compute how long to wait until the given number of bytes is available.
+     *
+     * @param bytes number of bytes to send.
+     *
+     * @return nanoseconds to wait, 0 if the bytes are available now.
+     */
+    public long nanosUntilAvailable(int bytes) {
+        refill();
+        if (tokens >= Math.min(bytes, capacity)) {
+            return 0;
+        }
+        return (long) Math.ceil((Math.min(bytes, capacity) - tokens) / rate);
+    }
+
+    /**
+     * Add the tokens for the time since the last refill.
+     */
+    private void refill() {
+        final long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * rate);
+        lastRefill = now;
+    }
+
+}
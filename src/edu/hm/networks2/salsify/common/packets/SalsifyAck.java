@@ -5,6 +5,20 @@ import java.nio.ByteBuffer;
 /**
  * This class is a container for all data needed in an ACK.
  * 
+ * Besides the cumulative acknowledgement (all fragments up to fragmentIndex
+ * were received) an ACK carries a bitmap of the fragments received after the
+ * first missing one (SACK). Bit i stands for fragment fragmentIndex + 1 + i,
+ * so bit 0 is never set.
+ * 
+ * The bandwidth is the receiver's estimate of the delivery rate. It comes with
+ * the number of bytes the receiver got so far (modulo 2^32), so the sender can
+ * tell an estimate from one that is older (for example a reordered ACK).
+ * 
+ * Every ACK also carries the index of the newest frame the receiver decoded
+ * and stored. Only such frames are safe source states for the sender: a
+ * completely received frame may still be dropped before decoding or fail to
+ * decode.
+ * 
  * @author Philipp
  */
 public class SalsifyAck {
@@ -12,7 +26,7 @@ public class SalsifyAck {
 	/**
 	 * Size of the whole ACK in bytes.
 	 */
-	public static final int SIZE = Integer.BYTES * 3;
+	public static final int SIZE = Integer.BYTES * 5 + Long.BYTES;
 	
     /**
      * Index of the acknowledged frame.
@@ -30,6 +44,22 @@ public class SalsifyAck {
      */
     private final int bandwidth;    
 
+    /**
+     * Bytes the receiver got so far when the bandwidth was estimated (modulo
+     * 2^32).
+     */
+    private final int delivered;
+
+    /**
+     * Bitmap of the fragments received after fragmentIndex + 1.
+     */
+    private final long selectiveAcks;
+
+    /**
+     * Index of the newest frame the receiver decoded, -1 if there is none.
+     */
+    private final int decodedFrameIndex;
+
     
     /**
      * Constructor that builds a data container from raw data.<br>
@@ -48,8 +78,34 @@ public class SalsifyAck {
         this.frameIndex = byteBuffer.getInt();
         this.fragmentIndex = byteBuffer.getInt();
         this.bandwidth = byteBuffer.getInt();
+        this.delivered = byteBuffer.getInt();
+        this.selectiveAcks = byteBuffer.getLong();
+        this.decodedFrameIndex = byteBuffer.getInt();
 	}
 
+    /**
+     * Constructor that builds a data container from a buffer (for example a
+     * direct buffer a channel received into). Reads SIZE bytes starting at the
+     * current position of the buffer.<br>
+     * <b>This Constructor should be used for receiving ACKs from the network.</b>
+     * 
+     * @param byteBuffer contains the raw data coming from the network.
+     * 
+     * @throws NullPointerException if byteBuffer is null
+     */
+    public SalsifyAck(ByteBuffer byteBuffer) {
+        if (byteBuffer == null) {
+            throw new NullPointerException("SalsifyAck: data is not allowed to be null!");
+        }
+        
+        this.frameIndex = byteBuffer.getInt();
+        this.fragmentIndex = byteBuffer.getInt();
+        this.bandwidth = byteBuffer.getInt();
+        this.delivered = byteBuffer.getInt();
+        this.selectiveAcks = byteBuffer.getLong();
+        this.decodedFrameIndex = byteBuffer.getInt();
+    }
+
 	/**
 	 * Constructor that builds a data container from given data.<br>
      * <b>This Constructor should be used for building ACKs for the network.</b>
@@ -59,9 +115,61 @@ public class SalsifyAck {
 	 * @param bandwidth is the estimated bandwidth of the network connection
 	 */
 	public SalsifyAck(int frameIndex, int fragmentIndex, int bandwidth) {
+		this(frameIndex, fragmentIndex, bandwidth, 0);
+	}
+
+	/**
+	 * Constructor that builds a data container from given data.<br>
+     * <b>This Constructor should be used for building ACKs for the network.</b>
+     * 
+	 * @param frameIndex is the frame index of the acknowledged frame
+	 * @param fragmentIndex is the index of the highest fragment up to which
+	 * all fragments were received
+	 * @param bandwidth is the estimated bandwidth of the network connection
+	 * @param selectiveAcks is the bitmap of fragments received after
+	 * fragmentIndex + 1
+	 */
+	public SalsifyAck(int frameIndex, int fragmentIndex, int bandwidth, long selectiveAcks) {
+		this(frameIndex, fragmentIndex, bandwidth, 0, selectiveAcks);
+	}
+
+	/**
+	 * Constructor that builds a data container from given data.<br>
+     * <b>This Constructor should be used for building ACKs for the network.</b>
+     * 
+	 * @param frameIndex is the frame index of the acknowledged frame
+	 * @param fragmentIndex is the index of the highest fragment up to which
+	 * all fragments were received
+	 * @param bandwidth is the estimated bandwidth of the network connection
+	 * @param delivered is the number of bytes received so far (modulo 2^32)
+	 * @param selectiveAcks is the bitmap of fragments received after
+	 * fragmentIndex + 1
+	 */
+	public SalsifyAck(int frameIndex, int fragmentIndex, int bandwidth, int delivered, long selectiveAcks) {
+		this(frameIndex, fragmentIndex, bandwidth, delivered, selectiveAcks, -1);
+	}
+
+	/**
+	 * Constructor that builds a data container from given data.<br>
+     * <b>This Constructor should be used for building ACKs for the network.</b>
+     * 
+	 * @param frameIndex is the frame index of the acknowledged frame
+	 * @param fragmentIndex is the index of the highest fragment up to which
+	 * all fragments were received
+	 * @param bandwidth is the estimated bandwidth of the network connection
+	 * @param delivered is the number of bytes received so far (modulo 2^32)
+	 * @param selectiveAcks is the bitmap of fragments received after
+	 * fragmentIndex + 1
+	 * @param decodedFrameIndex is the index of the newest decoded frame, -1 if
+	 * there is none
+	 */
+	public SalsifyAck(int frameIndex, int fragmentIndex, int bandwidth, int delivered, long selectiveAcks, int decodedFrameIndex) {
 		this.frameIndex = frameIndex;
 		this.fragmentIndex = fragmentIndex;
 		this.bandwidth = bandwidth;
+		this.delivered = delivered;
+		this.selectiveAcks = selectiveAcks;
+		this.decodedFrameIndex = decodedFrameIndex;
 	}
     
     /**
@@ -74,9 +182,28 @@ public class SalsifyAck {
         		.putInt(this.frameIndex)
                 .putInt(this.fragmentIndex)
                 .putInt(this.bandwidth)
+                .putInt(this.delivered)
+                .putLong(this.selectiveAcks)
+                .putInt(this.decodedFrameIndex)
                 .array();               
     }
 
+    /**
+     * Write the raw data of this container to the given buffer starting at its
+     * current position. Use this to reuse one buffer for all outgoing ACKs.
+     * 
+     * @param byteBuffer the buffer to write to. Needs at least SIZE remaining
+     * bytes.
+     */
+    public void writeTo(ByteBuffer byteBuffer) {
+        byteBuffer.putInt(this.frameIndex)
+                .putInt(this.fragmentIndex)
+                .putInt(this.bandwidth)
+                .putInt(this.delivered)
+                .putLong(this.selectiveAcks)
+                .putInt(this.decodedFrameIndex);
+    }
+
     
 	public int getFrameIndex() {
 		return frameIndex;
@@ -89,5 +216,17 @@ public class SalsifyAck {
 	public int getBandwidth() {
 		return bandwidth;
 	}
+
+	public int getDelivered() {
+		return delivered;
+	}
+
+	public long getSelectiveAcks() {
+		return selectiveAcks;
+	}
+
+	public int getDecodedFrameIndex() {
+		return decodedFrameIndex;
+	}
     
 }
@@ -8,6 +8,7 @@ package edu.hm.networks2.salsify.common.packets;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Instances of this class encapsulate a Salsify fragment.
@@ -16,11 +17,19 @@ import java.util.Arrays;
  * data. Usually a single frame is split up into several fragments.
  *
  * Each instance variable represents one field of the final packet. That makes a
- * total header size of 160 bits or 20 bytes. This size is included in calls of
+ * total header size of 256 bits or 32 bytes. This size is included in calls of
  * getSize().
  *
  * Each fragment has the maximum size of 1024 bytes. That gives the maximum
- * payload size of 1004 bytes which is always checked.
+ * payload size of 992 bytes which is always checked.
+ *
+ * A frame can be protected by parity fragments (forward error correction).
+ * The group size tells how many data fragments are followed by one parity
+ * fragment, see SalsifyFrame.
+ *
+ * The send time is stamped when the fragment passes the bandwidth limit of the
+ * sender. The receiver compares the send times of several fragments with their
+ * arrival to estimate the bandwidth.
  *
  * @author Nico
  */
@@ -29,7 +38,7 @@ public class SalsifyFragment {
     /**
      * MAXIMUM size of data in a fragment. This is equal to the number of bytes.
      */
-    public final static int MAXIMUM_DATA_SIZE = 1004;
+    public final static int MAXIMUM_DATA_SIZE = 992;
     
     /**
      * Complete size including the header is stored here.
@@ -37,9 +46,9 @@ public class SalsifyFragment {
     public final static int COMPLETE_SIZE = 1024;
     
     /**
-     * Bytes 20-1023 is data.
+     * Size of the header. Bytes 32-1023 is data.
      */
-    private final int DATA_OFFSET = 20;
+    public final static int HEADER_SIZE = 32;
 
     /**
      * A frame consists of multiple fragments. Each has an index to report
@@ -68,10 +77,39 @@ public class SalsifyFragment {
     private int remainingFragments;
 
     /**
-     * The actual data that is transported using this fragment.
+     * Number of data fragments protected by one parity fragment. 0 if the
+     * frame has no parity fragments.
+     */
+    private int groupSize;
+
+    /**
+     * Number of data bytes of the whole frame (without parity). 0 if unknown.
+     */
+    private int frameSize;
+
+    /**
+     * Time the fragment was sent in microseconds (modulo 2^32, only
+     * differences are meaningful). 0 if unknown.
+     */
+    private int sendTime;
+
+    /**
+     * The buffer that contains the actual data that is transported using this
+     * fragment. The fragment is only a view on this buffer, the data starts at
+     * dataOffset and has dataLength bytes.
      */
     private byte[] data;
 
+    /**
+     * Index of the first data byte in data.
+     */
+    private int dataOffset;
+
+    /**
+     * Number of data bytes.
+     */
+    private int dataLength;
+
     /**
      * Use this to initialize a packet that you want to send. That means
      * converting your data into bytes.
@@ -102,7 +140,82 @@ public class SalsifyFragment {
         this.frameIndex = frameIndex;
         this.frameIndexState = frameIndexState;
         this.remainingFragments = remainingFragments;
+        this.groupSize = 0;
+        this.frameSize = 0;
+        this.sendTime = 0;
         this.data = Arrays.copyOf(data, data.length);
+        this.dataOffset = 0;
+        this.dataLength = data.length;
+    }
+
+    /**
+     * Use this to initialize a packet that you want to send without copying
+     * the data. The fragment is a view on the given range of the buffer, so
+     * the buffer must not change until the fragment was sent.
+     * 
+     * @param fragmentIndex
+     * @param gracePeriod
+     * @param frameIndex
+     * @param frameIndexState
+     * @param remainingFragments
+     * @param buffer The buffer that contains the data.
+     * @param offset Index of the first data byte in buffer.
+     * @param length Number of data bytes. Not allowed to exceed
+     * MAXIMUM_DATA_SIZE.
+     */
+    public SalsifyFragment(int fragmentIndex, int gracePeriod, 
+            int frameIndex, int frameIndexState, int remainingFragments, byte[] buffer, int offset, int length) {
+        this(fragmentIndex, gracePeriod, frameIndex, frameIndexState, remainingFragments, 0, 0, buffer, offset, length);
+    }
+
+    /**
+     * Use this to initialize a packet of a frame that is protected by parity
+     * fragments without copying the data. The fragment is a view on the given
+     * range of the buffer, so the buffer must not change until the fragment
+     * was sent.
+     * 
+     * @param fragmentIndex
+     * @param gracePeriod
+     * @param frameIndex
+     * @param frameIndexState
+     * @param remainingFragments
+     * @param groupSize Number of data fragments per parity fragment, 0 for no
+     * parity.
+     * @param frameSize Number of data bytes of the whole frame.
+     * @param buffer The buffer that contains the data.
+     * @param offset Index of the first data byte in buffer.
+     * @param length Number of data bytes. Not allowed to exceed
+     * MAXIMUM_DATA_SIZE.
+     */
+    public SalsifyFragment(int fragmentIndex, int gracePeriod, 
+            int frameIndex, int frameIndexState, int remainingFragments, 
+            int groupSize, int frameSize, byte[] buffer, int offset, int length) {
+
+        if (buffer == null) {
+            throw new NullPointerException("SalsifyFragment: data is not allowed to be null!");
+        }
+
+        if (length > MAXIMUM_DATA_SIZE) {
+            throw new IllegalArgumentException(
+                    "SalsifyFragment: Size of data is not allowed to exceed " + MAXIMUM_DATA_SIZE + "bytes."
+            );
+        }
+
+        if (offset < 0 || length < 0 || offset + length > buffer.length) {
+            throw new IndexOutOfBoundsException("SalsifyFragment: Range of data is outside of the buffer!");
+        }
+
+        this.fragmentIndex = fragmentIndex;
+        this.gracePeriod = gracePeriod;
+        this.frameIndex = frameIndex;
+        this.frameIndexState = frameIndexState;
+        this.remainingFragments = remainingFragments;
+        this.groupSize = groupSize;
+        this.frameSize = frameSize;
+        this.sendTime = 0;
+        this.data = buffer;
+        this.dataOffset = offset;
+        this.dataLength = length;
     }
     
     /**
@@ -125,11 +238,49 @@ public class SalsifyFragment {
         this.frameIndex = byteBuffer.getInt();
         this.frameIndexState = byteBuffer.getInt();
         this.remainingFragments = byteBuffer.getInt();
+        this.groupSize = byteBuffer.getInt();
+        this.frameSize = byteBuffer.getInt();
+        this.sendTime = byteBuffer.getInt();
         // allocate the new rawData array which will store the image rawData with
-        // - 20 in size to not contain header
-        this.data = new byte[byteBuffer.capacity() - 20];
+        // - HEADER_SIZE in size to not contain header
+        this.data = new byte[byteBuffer.capacity() - HEADER_SIZE];
         // copy into data
         byteBuffer.get(this.data);
+        this.dataOffset = 0;
+        this.dataLength = this.data.length;
+    }
+
+    /**
+     * This is to initialize a salsify fragment with the first length bytes of
+     * a receive buffer without copying. The fragment is a view on the buffer,
+     * so it is only valid until the buffer is used for the next packet. Copy
+     * the data (copyData(...)) if you need it longer.
+     * 
+     * @param rawData The receive buffer including the salsify header.
+     * @param length The number of valid bytes in rawData.
+     */
+    public SalsifyFragment(byte[] rawData, int length) {
+        if (rawData == null) {
+            throw new NullPointerException("SalsifyFragment: data is not allowed to be null!");
+        }
+
+        if (length < HEADER_SIZE || length > rawData.length) {
+            throw new IllegalArgumentException("SalsifyFragment: Invalid length " + length + " of raw data!");
+        }
+
+        ByteBuffer byteBuffer = ByteBuffer.wrap(rawData, 0, length);
+
+        this.fragmentIndex = byteBuffer.getInt();
+        this.gracePeriod = byteBuffer.getInt();
+        this.frameIndex = byteBuffer.getInt();
+        this.frameIndexState = byteBuffer.getInt();
+        this.remainingFragments = byteBuffer.getInt();
+        this.groupSize = byteBuffer.getInt();
+        this.frameSize = byteBuffer.getInt();
+        this.sendTime = byteBuffer.getInt();
+        this.data = rawData;
+        this.dataOffset = HEADER_SIZE;
+        this.dataLength = length - HEADER_SIZE;
     }
 
     /**
@@ -141,7 +292,12 @@ public class SalsifyFragment {
         this.frameIndex = 0;
         this.frameIndexState = 0;
         this.remainingFragments = 0;
+        this.groupSize = 0;
+        this.frameSize = 0;
+        this.sendTime = 0;
         this.data = null;
+        this.dataOffset = 0;
+        this.dataLength = 0;
     }
     
     /**
@@ -152,14 +308,41 @@ public class SalsifyFragment {
      * @return the raw bytes of all the fields.
      */
     public byte[] getRawPacket() {
-        return ByteBuffer.allocate(this.getSize())
-                .putInt(this.fragmentIndex)
+        final ByteBuffer byteBuffer = ByteBuffer.allocate(this.getSize());
+        writeTo(byteBuffer);
+        return byteBuffer.array();
+    }
+
+    /**
+     * Write all the fields in this packet (header and data) to the given
+     * buffer starting at its current position. Use this to reuse one buffer
+     * for all outgoing packets.
+     * 
+     * @param byteBuffer The buffer to write to. Needs at least getSize()
+     * remaining bytes.
+     */
+    public void writeTo(ByteBuffer byteBuffer) {
+        writeHeaderTo(byteBuffer);
+        byteBuffer.put(this.data, this.dataOffset, this.dataLength);
+    }
+
+    /**
+     * Write only the header of this packet to the given buffer starting at its
+     * current position. The data can then be sent from getDataBuffer() without
+     * copying it.
+     * 
+     * @param byteBuffer The buffer to write to. Needs at least HEADER_SIZE
+     * remaining bytes.
+     */
+    public void writeHeaderTo(ByteBuffer byteBuffer) {
+        byteBuffer.putInt(this.fragmentIndex)
                 .putInt(this.gracePeriod)
                 .putInt(this.frameIndex)
                 .putInt(this.frameIndexState)
                 .putInt(this.remainingFragments)
-                .put(this.data)
-                .array();               
+                .putInt(this.groupSize)
+                .putInt(this.frameSize)
+                .putInt(this.sendTime);
     }
     
     /**
@@ -168,8 +351,7 @@ public class SalsifyFragment {
      * @return an integer containing the size.
      */
     public int getSize() {
-        // 20 is the fixed header size
-        return this.data.length + 20;
+        return this.dataLength + HEADER_SIZE;
     }
     
     /**
@@ -178,7 +360,26 @@ public class SalsifyFragment {
      * @return integer representing the size. 
      */
     public int getDataSize() {
-        return this.data.length;
+        return this.dataLength;
+    }
+
+    /**
+     * Copy the data of this packet into the given array.
+     * 
+     * @param destination The array to copy to.
+     * @param destinationOffset Index in destination of the first data byte.
+     */
+    public void copyData(byte[] destination, int destinationOffset) {
+        System.arraycopy(this.data, this.dataOffset, destination, destinationOffset, this.dataLength);
+    }
+
+    /**
+     * Get a read only view on the data of this packet. Nothing is copied.
+     * 
+     * @return ByteBuffer whose remaining bytes are the data.
+     */
+    public ByteBuffer getDataBuffer() {
+        return ByteBuffer.wrap(this.data, this.dataOffset, this.dataLength).asReadOnlyBuffer();
     }
     
     public int getFragmentIndex() {
@@ -201,6 +402,18 @@ public class SalsifyFragment {
         return remainingFragments;
     }
 
+    public int getGroupSize() {
+        return groupSize;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getSendTime() {
+        return sendTime;
+    }
+
     /**
      * Get the data in this packet. Returns a copy so you
      * can do whatever you want to it. No kinky stuff allowed.
@@ -208,7 +421,7 @@ public class SalsifyFragment {
      * @return byte[] (copy of data)
      */
     public byte[] getData() {
-        return Arrays.copyOf(this.data, this.data.length);
+        return Arrays.copyOfRange(this.data, this.dataOffset, this.dataOffset + this.dataLength);
     }
 
     public void setFragmentIndex(int fragmentIndex) {
@@ -231,6 +444,27 @@ public class SalsifyFragment {
         this.remainingFragments = remainingFragments;
     }
 
+    public void setGroupSize(int groupSize) {
+        this.groupSize = groupSize;
+    }
+
+    public void setFrameSize(int frameSize) {
+        this.frameSize = frameSize;
+    }
+
+    public void setSendTime(int sendTime) {
+        this.sendTime = sendTime;
+    }
+
+    /**
+     * Get the current time in the unit of the send time.
+     * 
+     * @return the current time in microseconds (modulo 2^32).
+     */
+    public static int getCurrentTime() {
+        return (int) TimeUnit.NANOSECONDS.toMicros(System.nanoTime());
+    }
+
     /**
      * Set data of this fragment.
      * 
@@ -244,6 +478,8 @@ public class SalsifyFragment {
         }
         
         this.data = data;
+        this.dataOffset = 0;
+        this.dataLength = data.length;
     }
     
     
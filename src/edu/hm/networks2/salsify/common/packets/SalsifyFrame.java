@@ -8,22 +8,81 @@ package edu.hm.networks2.salsify.common.packets;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * This class is responsible for taking the raw data of a frame and split it up
  * into different fragments to send.
  * 
+ * A frame can be protected by parity fragments. Then every group of groupSize
+ * data fragments is followed by a parity fragment, which is the XOR of the
+ * data of the group. The receiver reconstructs a single missing data fragment
+ * of a group from the others and the parity fragment without waiting for a
+ * retransmission. Fragment indices follow the sending order, so the parity
+ * fragments are numbered in between the data fragments:
+ * <pre>
+ * groupSize 3:  D0 D1 D2 P0 D3 D4 D5 P1 D6 P2
+ * index:         0  1  2  3  4  5  6  7  8  9
+ * </pre>
+ * 
  * @author nicfel
  */
 public class SalsifyFrame {
    
+    /**
+     * Maximum number of data bytes of a frame. Received headers describing
+     * bigger frames are invalid, so a corrupt header cannot make the receiver
+     * allocate huge buffers.
+     */
+    public static final int MAXIMUM_FRAME_SIZE = 16 * 1024 * 1024;
+    
+    /**
+     * Maximum number of data fragments of a frame.
+     */
+    private static final int MAXIMUM_DATA_FRAGMENTS = MAXIMUM_FRAME_SIZE / SalsifyFragment.MAXIMUM_DATA_SIZE + 1;
+    
     private final int frameIndex;
     
     private final int frameIndexState;
     
+    /**
+     * Number of data fragments per parity fragment, 0 for no parity.
+     */
+    private final int groupSize;
+    
+    /**
+     * Number of fragments that carry data of the frame (without parity).
+     */
+    private final int numberOfDataFragments;
+    
     private final List<SalsifyFragment> fragments;
 
+    /**
+     * Buffer that contains the parity of every group, one MAXIMUM_DATA_SIZE
+     * block per group. Null without parity.
+     */
+    private final byte[] parity;
+
+    /**
+     * Number of data fragments that were received or reconstructed. Only used
+     * when receiving.
+     */
+    private int receivedDataFragments;
+
+    /**
+     * Marks the fragments that were received. Only used when receiving.
+     */
+    private final BitSet received;
+
+    /**
+     * Buffer that contains the data of all fragments in order. When sending,
+     * this is the raw frame. When receiving, the data of each fragment is
+     * copied to its position as soon as the fragment is added.
+     */
+    private byte[] buffer;
+
     /**
      * Construct a salsify frame from raw data (bytes). The frame is 
      * split up into multiple fragments with size up to (1024 bytes 
@@ -38,69 +97,144 @@ public class SalsifyFrame {
      * @param gracePeriod from salsify protocol.
      */
     public SalsifyFrame(byte[] frame, int frameIndex, int frameIndexState, int gracePeriod) {
+        this(frame, frameIndex, frameIndexState, gracePeriod, 0);
+    }
+
+    /**
+     * Construct a salsify frame from raw data (bytes) which is protected by
+     * parity fragments. Every groupSize data fragments are followed by one
+     * parity fragment.
+     * 
+     * @param frame The raw frame/image data. 
+     * @param frameIndex Index of the frame that is stored.
+     * @param frameIndexState  Index of the frame this frame is based on.
+     * @param gracePeriod from salsify protocol.
+     * @param groupSize Number of data fragments per parity fragment, 0 for no
+     * parity.
+     */
+    public SalsifyFrame(byte[] frame, int frameIndex, int frameIndexState, int gracePeriod, int groupSize) {
         
-        // number of fragment that will have the maximum size
-        int fullFragments = frame.length / SalsifyFragment.MAXIMUM_DATA_SIZE;
-        int remainingBytes = frame.length % SalsifyFragment.MAXIMUM_DATA_SIZE;
-        
-        int numberOfFragments = fullFragments;
-        // one more fragment in case we have remaining bytes
-        if (remainingBytes > 0) {
-            numberOfFragments++;
+        if (groupSize < 0) {
+            throw new IllegalArgumentException("SalsifyFrame: Group size must not be negative!");
         }
+        if (frame.length > MAXIMUM_FRAME_SIZE) {
+            throw new IllegalArgumentException("SalsifyFrame: Frame is bigger than MAXIMUM_FRAME_SIZE!");
+        }
+        
         this.frameIndex = frameIndex;
         this.frameIndexState = frameIndexState;
+        this.groupSize = groupSize;
+        this.numberOfDataFragments = countDataFragments(frame.length);
+        final int numberOfFragments = countFragments(frame.length, groupSize);
         
-        // we need at least numberofFragment space
-        this.fragments = new ArrayList<>(numberOfFragments);
+        // the fragments are views on the frame, nothing is copied
+        this.buffer = frame;
+        this.received = null;
+        this.parity = groupSize == 0 ? null : new byte[countParityFragments(frame.length, groupSize) * SalsifyFragment.MAXIMUM_DATA_SIZE];
+        // parity fragments are placed by their index, so all are there first
+        this.fragments = new ArrayList<>(Collections.nCopies(numberOfFragments, (SalsifyFragment) null));
         // split frame into fragments
         for (int counter = 0; counter < numberOfFragments; counter++) {
-            // this will step like this: 0, 1004, 2008, 3012, ...
-            int fragmentStart = counter * SalsifyFragment.MAXIMUM_DATA_SIZE;
-            // this will step like this: 1004, 2008, 3012, ...
-            int fragmentEnd = (counter + 1) * SalsifyFragment.MAXIMUM_DATA_SIZE;
-            // now add
-            if (counter == numberOfFragments -1) {
-                // last iteration is special (end is exclusive)
-                byte[] data = Arrays.copyOfRange(frame, fragmentStart, frame.length);
-                fragments.add(new SalsifyFragment(
-                        counter, gracePeriod, 
-                        frameIndex, frameIndexState, 
-                        numberOfFragments - counter - 1, data)
-                );
+            final int fragmentStart;
+            final int fragmentLength;
+            final byte[] fragmentBuffer;
+            if (isParity(counter)) {
+                // the parity is as long as the first data fragment of the
+                // group (all others are not longer)
+                fragmentStart = getGroup(counter) * SalsifyFragment.MAXIMUM_DATA_SIZE;
+                fragmentLength = getDataLength(getGroupStart(counter));
+                fragmentBuffer = parity;
+                for (int index = getGroupStart(counter); index < counter; index++) {
+                    xor(frame, getDataOffset(index), parity, fragmentStart, getDataLength(index));
+                }
             } else {
-                // the fragment end index is exclusive so it doesnt matter that its
-                // one higher from the computation above
-                byte[] data = Arrays.copyOfRange(frame, fragmentStart, fragmentEnd);
-                fragments.add(new SalsifyFragment(
-                        counter, gracePeriod, 
-                        frameIndex, frameIndexState, 
-                        numberOfFragments - counter - 1, data)
-                );
+                // this will step like this: 0, 996, 1992, 2988, ...
+                fragmentStart = getDataOffset(counter);
+                // last data fragment is special (only the remaining bytes)
+                fragmentLength = getDataLength(counter);
+                fragmentBuffer = frame;
             }
+            fragments.set(counter, new SalsifyFragment(
+                    counter, gracePeriod, 
+                    frameIndex, frameIndexState, 
+                    numberOfFragments - counter - 1, 
+                    groupSize, frame.length,
+                    fragmentBuffer, fragmentStart, fragmentLength)
+            );
         } 
     }
 
     /**
      * Construct a new frame based on an initial fragment. Use this when you 
      * received the first fragment of a frame and want to add more fragments 
-     * later. Use the addFragment method for that.
+     * later. Use the addFragment method for that. The initial fragment does not
+     * need to be the fragment with index 0.
      * 
-     * @param initialFragment
+     * @param initialFragment Has to be valid (see isValid(...)).
      */
     public SalsifyFrame(SalsifyFragment initialFragment) {
-        this.fragments = new ArrayList<>();
+        // every fragment tells us how many fragments the frame has, so the
+        // buffer can take all of them (only the last one may be smaller)
+        final int numberOfFragments = initialFragment.getFragmentIndex() + initialFragment.getRemainingFragments() + 1;
+        final int frameSize = initialFragment.getFrameSize();
+        this.fragments = new ArrayList<>(Collections.nCopies(numberOfFragments, (SalsifyFragment) null));
+        this.received = new BitSet(numberOfFragments);
+        this.groupSize = initialFragment.getGroupSize();
+        if (groupSize == 0) {
+            this.numberOfDataFragments = numberOfFragments;
+            this.parity = null;
+        } else {
+            this.numberOfDataFragments = countDataFragments(frameSize);
+            this.parity = new byte[countParityFragments(frameSize, groupSize) * SalsifyFragment.MAXIMUM_DATA_SIZE];
+        }
+        // with a known frame size the buffer is exactly the frame
+        this.buffer = new byte[frameSize > 0 ? frameSize : numberOfFragments * SalsifyFragment.MAXIMUM_DATA_SIZE];
         this.frameIndex = initialFragment.getFrameIndex();
         this.frameIndexState = initialFragment.getFrameIndexState();
-        this.fragments.add(initialFragment);
+        store(initialFragment);
+    }
+
+    /**
+     * Check if the header of a received fragment describes a valid frame. Use
+     * this before constructing a frame from the fragment. The frame must not
+     * be bigger than MAXIMUM_FRAME_SIZE, so its buffers are bounded.
+     * 
+     * @param fragment The received fragment.
+     * 
+     * @return true if the fragment is valid.
+     */
+    public static boolean isValid(SalsifyFragment fragment) {
+        final int index = fragment.getFragmentIndex();
+        final int groupSize = fragment.getGroupSize();
+        final int frameSize = fragment.getFrameSize();
+        if (fragment.getFrameIndex() < 0 || index < 0 || fragment.getRemainingFragments() < 0
+                || groupSize < 0 || groupSize > MAXIMUM_DATA_FRAGMENTS
+                || frameSize < 0 || frameSize > MAXIMUM_FRAME_SIZE) {
+            return false;
+        }
+        final long numberOfFragments = (long) index + fragment.getRemainingFragments() + 1;
+        if (groupSize == 0) {
+            // without frame size the buffer is sized by the number of fragments
+            return frameSize == 0 
+                    ? numberOfFragments * SalsifyFragment.MAXIMUM_DATA_SIZE <= MAXIMUM_FRAME_SIZE
+                    : countDataFragments(frameSize) == numberOfFragments
+                            && (long) index * SalsifyFragment.MAXIMUM_DATA_SIZE + fragment.getDataSize() <= frameSize;
+        }
+        // data of a data fragment has to fit into the frame, parity fragments
+        // are never longer than a data fragment
+        final boolean parityFragment = index % (groupSize + 1) == groupSize || index == numberOfFragments - 1;
+        return countFragments(frameSize, groupSize) == numberOfFragments
+                && (parityFragment || (long) (index - index / (groupSize + 1)) * SalsifyFragment.MAXIMUM_DATA_SIZE + fragment.getDataSize() <= frameSize);
     }
     
     /**
-     * Adds the fragment to this frame. On success it will return true. It 
-     * will be unsuccessful if:
+     * Adds the fragment to this frame. Fragments can be added in any order. On
+     * success it will return true. It will be unsuccessful if:
      *     - frameIndex of new fragment and frame do not match
      *     - frameIndexState of new fragment and frame do not match
-     *     - fragmentIndex is not 1 higher than that of the last added fragment
+     *     - fragmentIndex and remainingFragments do not fit to the frame
+     *     - the parity of the fragment does not fit to the frame
+     *     - the fragment was already added (or reconstructed)
      * 
      * @param fragmentToAdd The fragment that will be added.
      * @return boolean indicating success
@@ -111,16 +245,140 @@ public class SalsifyFrame {
                 fragmentToAdd.getFrameIndex() == getFrameIndex() 
                 // frameIndexState of new fragment and frame do not match
                 && fragmentToAdd.getFrameIndexState() == getFrameIndexState()
-                // fragmentIndex is not 1 higher than that of the last added fragment
-                && fragmentToAdd.getFragmentIndex() == getLastFragment().getFragmentIndex() + 1;
+                // fragment belongs to a frame with a different size
+                && fragmentToAdd.getFragmentIndex() + fragmentToAdd.getRemainingFragments() + 1 == getNumberOfFragments()
+                // fragment belongs to a frame with different parity
+                && fragmentToAdd.getGroupSize() == groupSize
+                && (fragmentToAdd.getFrameSize() == 0 || fragmentToAdd.getFrameSize() == buffer.length)
+                // fragment does not fit into the frame
+                && isValid(fragmentToAdd)
+                // fragment is already there
+                && !received.get(fragmentToAdd.getFragmentIndex());
         
         if (result) {
-            // TODO: should be copied
-            this.fragments.add(fragmentToAdd);
+            store(fragmentToAdd);
         }
         
         return result;
     }
+
+    /**
+     * Check if all data fragments of a received frame were added or
+     * reconstructed. Missing parity fragments do not matter then.
+     * 
+     * @return true if the frame is complete.
+     */
+    public boolean isComplete() {
+        return received == null || receivedDataFragments == numberOfDataFragments;
+    }
+
+    /**
+     * Get the index of the highest fragment up to which all fragments were
+     * added (cumulative acknowledgement).
+     * 
+     * @return the fragment index, -1 if the first fragment is missing.
+     */
+    public int getCumulativeFragmentIndex() {
+        if (received == null) {
+            return getNumberOfFragments() - 1;
+        }
+        return received.nextClearBit(0) - 1;
+    }
+
+    /**
+     * Get the bitmap of the fragments that were added after the first missing
+     * fragment (see SalsifyAck). Only the next 64 fragments are covered.
+     * 
+     * @return the bitmap, 0 if no fragment after the first missing one was
+     * added.
+     */
+    public long getSelectiveAcks() {
+        if (received == null) {
+            return 0;
+        }
+        final int first = getCumulativeFragmentIndex() + 1;
+        final long[] bits = received.get(first, first + Long.SIZE).toLongArray();
+        return bits.length == 0 ? 0 : bits[0];
+    }
+
+    /**
+     * Copy the data of a received fragment to its position in the buffer (or
+     * the parity buffer) and keep a view on it. After this the received
+     * fragment (and the receive buffer it might point to) is not needed
+     * anymore. A missing data fragment of the group is reconstructed if
+     * possible.
+     * 
+     * @param fragment The received fragment.
+     */
+    private void store(SalsifyFragment fragment) {
+        final int index = fragment.getFragmentIndex();
+        final byte[] destination;
+        final int offset;
+        if (isParity(index)) {
+            destination = this.parity;
+            offset = getGroup(index) * SalsifyFragment.MAXIMUM_DATA_SIZE;
+        } else {
+            destination = this.buffer;
+            offset = getDataOffset(index);
+            receivedDataFragments++;
+        }
+        fragment.copyData(destination, offset);
+        this.received.set(index);
+        this.fragments.set(index, new SalsifyFragment(
+                index, fragment.getGracePeriod(),
+                fragment.getFrameIndex(), fragment.getFrameIndexState(),
+                fragment.getRemainingFragments(),
+                groupSize, fragment.getFrameSize(),
+                destination, offset, fragment.getDataSize()));
+        
+        if (groupSize > 0) {
+            reconstruct(index);
+            if (isComplete()) {
+                // the missing parity fragments are not needed anymore, so
+                // they are acknowledged as well
+                this.received.set(0, getNumberOfFragments());
+            }
+        }
+    }
+
+    /**
+     * Reconstruct the data fragment of a group that is the only one missing
+     * when the parity fragment of the group was received.
+     * 
+     * @param index Index of any fragment of the group.
+     */
+    private void reconstruct(int index) {
+        final int parityIndex = getParityIndex(index);
+        if (!received.get(parityIndex)) {
+            return;
+        }
+        final int start = getGroupStart(index);
+        final int missing = received.nextClearBit(start);
+        if (missing >= parityIndex || received.nextClearBit(missing + 1) < parityIndex) {
+            // nothing or too much is missing
+            return;
+        }
+        
+        // parity XOR all other data fragments of the group
+        final int offset = getDataOffset(missing);
+        final int length = getDataLength(missing);
+        System.arraycopy(parity, getGroup(index) * SalsifyFragment.MAXIMUM_DATA_SIZE, buffer, offset, length);
+        for (int other = start; other < parityIndex; other++) {
+            if (other != missing) {
+                xor(buffer, getDataOffset(other), buffer, offset, Math.min(length, getDataLength(other)));
+            }
+        }
+        
+        final SalsifyFragment parityFragment = fragments.get(parityIndex);
+        received.set(missing);
+        receivedDataFragments++;
+        fragments.set(missing, new SalsifyFragment(
+                missing, parityFragment.getGracePeriod(),
+                frameIndex, frameIndexState,
+                getNumberOfFragments() - missing - 1,
+                groupSize, buffer.length,
+                buffer, offset, length));
+    }
     
     /**
      * Collects all the bytes from all fragments and returns them. This will
@@ -133,14 +391,13 @@ public class SalsifyFrame {
      * @return byte array containing the data of all frames.
      */
     public byte[] getFrame() {
-        // initialize array
-        byte[] frame = new byte[getFrameSize()];
-        int currentIndex = 0;
-        for (SalsifyFragment fragment : this.fragments) {
-            System.arraycopy(fragment.getData(), 0, frame, currentIndex, fragment.getDataSize());
-            currentIndex += fragment.getDataSize();
+        final int frameSize = getFrameSize();
+        // the data is already in place, we only need to cut off the unused
+        // end of the buffer
+        if (frameSize == this.buffer.length) {
+            return this.buffer;
         }
-        return frame;
+        return Arrays.copyOf(this.buffer, frameSize);
     }
     
     /**
@@ -152,11 +409,12 @@ public class SalsifyFrame {
      */
     public int getFrameSize() {
         int result = 0;
-        result = this.fragments
-                .stream()
-                .map((fragment) -> fragment.getDataSize())
-                .reduce(result, Integer::sum);
-        
+        for (int index = 0; index < getNumberOfFragments(); index++) {
+            final SalsifyFragment fragment = this.fragments.get(index);
+            if (fragment != null && !isParity(index)) {
+                result += fragment.getDataSize();
+            }
+        }
         return result;
     }
     
@@ -171,9 +429,9 @@ public class SalsifyFrame {
     
     /**
      * Fragments will be stored in the same order as the bytes in the
-     * provided byte array. That means the first 1004 bytes will be stored
-     * in the first fragment which can be accessed using this method and
-     * index = 0.
+     * provided byte array. That means the first MAXIMUM_DATA_SIZE bytes will
+     * be stored in the first fragment which can be accessed using this method
+     * and index = 0. Parity fragments are in between (see above).
      * 
      * Throws IndexOutOfBoundsException in case the index is invalid.
      * 
@@ -181,7 +439,7 @@ public class SalsifyFrame {
      * index is the value returned by getNumberOfFragments - 1 and the lower bound is
      * zero. 
      * 
-     * @return 
+     * @return the fragment, null if it was not received yet.
      */
     public SalsifyFragment getFragment(int index) {
         if (index < 0 || index >= getNumberOfFragments()) {
@@ -198,10 +456,118 @@ public class SalsifyFrame {
         return frameIndexState;
     } 
     
+    public int getGroupSize() {
+        return groupSize;
+    }
+    
+    /**
+     * Check if a fragment is a parity fragment.
+     * 
+     * @param index Index of the fragment.
+     * 
+     * @return true for a parity fragment, false for a data fragment.
+     */
+    public boolean isParity(int index) {
+        return groupSize > 0 && (index % (groupSize + 1) == groupSize || index == getNumberOfFragments() - 1);
+    }
+    
+    /**
+     * Get the parity fragment a fragment can be reconstructed with. This is
+     * the last fragment of its group.
+     * 
+     * @param index Index of the fragment.
+     * 
+     * @return index of the parity fragment, index itself without parity.
+     */
+    public int getParityIndex(int index) {
+        if (groupSize == 0) {
+            return index;
+        }
+        return Math.min(getGroupStart(index) + groupSize, getNumberOfFragments() - 1);
+    }
+    
+    /**
+     * Get the first fragment of the group of a fragment.
+     * 
+     * @param index Index of the fragment.
+     * 
+     * @return index of the first data fragment of the group, index itself
+     * without parity.
+     */
+    public int getGroupStart(int index) {
+        return groupSize == 0 ? index : getGroup(index) * (groupSize + 1);
+    }
+    
+    /**
+     * Get the number of bytes all fragments of a frame take on the network
+     * (data, parity and headers).
+     * 
+     * @param frameSize Number of data bytes of the frame.
+     * @param groupSize Number of data fragments per parity fragment, 0 for no
+     * parity.
+     * 
+     * @return the number of bytes.
+     */
+    public static long getTransmittedSize(int frameSize, int groupSize) {
+        long result = frameSize + (long) countFragments(frameSize, groupSize) * SalsifyFragment.HEADER_SIZE;
+        final int parityFragments = countParityFragments(frameSize, groupSize);
+        if (parityFragments > 0) {
+            // every parity fragment is as long as the first data fragment of
+            // its group, only the one of the last group may be shorter
+            final int lastGroupStart = (parityFragments - 1) * groupSize * SalsifyFragment.MAXIMUM_DATA_SIZE;
+            result += (long) (parityFragments - 1) * SalsifyFragment.MAXIMUM_DATA_SIZE 
+                    + Math.min(SalsifyFragment.MAXIMUM_DATA_SIZE, frameSize - lastGroupStart);
+        }
+        return result;
+    }
+    
+    /**
+     * @return number of the group of a fragment (only with parity).
+     */
+    private int getGroup(int index) {
+        return index / (groupSize + 1);
+    }
+    
+    /**
+     * @return offset of the data of a data fragment in the frame.
+     */
+    private int getDataOffset(int index) {
+        final int dataIndex = groupSize == 0 ? index : index - getGroup(index);
+        return dataIndex * SalsifyFragment.MAXIMUM_DATA_SIZE;
+    }
+    
+    /**
+     * @return number of data bytes of a data fragment.
+     */
+    private int getDataLength(int index) {
+        return Math.min(SalsifyFragment.MAXIMUM_DATA_SIZE, buffer.length - getDataOffset(index));
+    }
+    
+    private static int countDataFragments(int frameSize) {
+        return (frameSize + SalsifyFragment.MAXIMUM_DATA_SIZE - 1) / SalsifyFragment.MAXIMUM_DATA_SIZE;
+    }
+    
+    private static int countParityFragments(int frameSize, int groupSize) {
+        return groupSize == 0 ? 0 : (countDataFragments(frameSize) + groupSize - 1) / groupSize;
+    }
+    
+    private static int countFragments(int frameSize, int groupSize) {
+        return countDataFragments(frameSize) + countParityFragments(frameSize, groupSize);
+    }
+    
+    /**
+     * XOR a range of source into destination.
+     */
+    private static void xor(byte[] source, int sourceOffset, byte[] destination, int destinationOffset, int length) {
+        for (int index = 0; index < length; index++) {
+            destination[destinationOffset + index] ^= source[sourceOffset + index];
+        }
+    }
+    
     /**
-     * Helper Gets the last fragment that was added to this frame.
+     * Helper Gets the last fragment of this frame.
      * 
-     * @return The last fragment. 
+     * @return The last fragment, null if it was not received yet. 
      */
     public SalsifyFragment getLastFragment() {
         return this.fragments.get(this.fragments.size() - 1);
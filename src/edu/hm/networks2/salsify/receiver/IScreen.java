@@ -20,5 +20,16 @@ public interface IScreen {
 	 * @param frame is the frame to be displayed
 	 */
 	void displayFrame(BufferedImage frame);
+	
+	/**
+	 * Display a frame on this screen. Use this if the screen needs to know
+	 * which frame it displays (for example to measure the latency).
+	 * 
+	 * @param frame is the frame to be displayed
+	 * @param frameIndex is the index of the frame
+	 */
+	default void displayFrame(BufferedImage frame, int frameIndex) {
+		displayFrame(frame);
+	}
 
 }
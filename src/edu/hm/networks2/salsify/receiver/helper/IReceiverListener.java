@@ -13,7 +13,10 @@ public interface IReceiverListener {
 	 * @param data contains the raw frame data
 	 * @param frameIndex is the frame index of the frame
 	 * @param sourceFrameIndex is the source state of the encoding
+	 * 
+	 * @return true if the frame was decoded and stored, so later frames may be
+	 * based on it
 	 */
-	void receiveFrame(byte[] data, int frameIndex, int sourceFrameIndex);
+	boolean receiveFrame(byte[] data, int frameIndex, int sourceFrameIndex);
 	
 }
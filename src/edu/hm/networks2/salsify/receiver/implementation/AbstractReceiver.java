@@ -0,0 +1,455 @@
+package edu.hm.networks2.salsify.receiver.implementation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import edu.hm.networks2.salsify.common.config.LinkConfiguration;
+import edu.hm.networks2.salsify.common.config.NetworkConfiguration;
+import edu.hm.networks2.salsify.common.implementation.EmulatedLink;
+import edu.hm.networks2.salsify.common.implementation.FrameEventLog;
+import edu.hm.networks2.salsify.common.implementation.FrameTracer;
+import edu.hm.networks2.salsify.common.implementation.GlobalLogger;
+import edu.hm.networks2.salsify.common.packets.SalsifyAck;
+import edu.hm.networks2.salsify.common.packets.SalsifyFragment;
+import edu.hm.networks2.salsify.common.packets.SalsifyFrame;
+import edu.hm.networks2.salsify.receiver.IReceiver;
+import edu.hm.networks2.salsify.receiver.helper.IReceiverListener;
+
+/**
+ * This is the part of IReceiver that does not depend on the transport. It
+ * collects fragments into frames (several at once and in any order), reports
+ * missing fragments with selective ACKs, estimates the bandwidth and notifies
+ * the listeners. Subclasses receive fragments, hand them to
+ * processFragment(...) and transmit the ACKs, which go over an emulated link.
+ * 
+ * The listeners are notified by a separate decoder thread, which gets the
+ * complete frames over a FrameHandoff. So decoding never delays receiving
+ * fragments and sending ACKs. Every ACK carries the newest frame the listeners
+ * decoded, because only those frames are safe sources for the sender. A newly
+ * decoded frame is reported right away with an ACK of the whole frame.
+ * 
+ * A missing fragment is only reported when REORDER_WINDOW fragments arrived
+ * after it or GAP_TIMEOUT passed, so reordering does not look like loss. The
+ * report is repeated every GAP_TIMEOUT until the gap is closed, so a lost
+ * retransmission is noticed as well. Subclasses wait at most getGapTimeout()
+ * for fragments and call reportGaps() afterwards.
+ */
+public abstract class AbstractReceiver extends Thread implements IReceiver {
+    
+    /**
+     * This thread notifies the listeners about complete frames until it gets
+     * interrupted.
+     */
+    private class Decoder extends Thread {
+        
+        Decoder() {
+            super("Salsify-Decoder");
+        }
+        
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                try {
+                    final SalsifyFrame frame = completeFrames.take();
+                    // notify the salsify core about a new frame, it is only a
+                    // source for later frames if all listeners decoded it
+                    boolean decoded = true;
+                    for (IReceiverListener listener : listeners) {
+                        decoded &= listener.receiveFrame(frame.getFrame(), frame.getFrameIndex(), frame.getFrameIndexState());
+                    }
+                    final SalsifyFrame previous = decodedFrame;
+                    if (decoded && (previous == null || frame.getFrameIndex() > previous.getFrameIndex())) {
+                        decodedFrame = frame;
+                        wakeUp();
+                    }
+                } catch (InterruptedException exception) {
+                    break;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Number of complete frames that may wait for the decoder.
+     */
+    private static final int DECODER_QUEUE_SIZE = 16;
+    
+    /**
+     * Incomplete frames are given up and delivered frames are forgotten when
+     * they are this many frames older than the newest frame.
+     */
+    private static final int RETAINED_FRAMES = 8;
+    
+    private final List<IReceiverListener> listeners;
+    
+    /**
+     * Emulates the network the ACKs go over.
+     */
+    private final EmulatedLink<SalsifyAck> ackLink;
+    
+    /**
+     * Index of the newest frame of which a fragment was received.
+     */
+    private int latestFrameIndex;
+    
+    /**
+     * Frames that are incomplete or wait for the frame they are based on.
+     */
+    private final NavigableMap<Integer, SalsifyFrame> frames;
+    
+    /**
+     * Indices of the frames that were handed to the listeners.
+     */
+    private final NavigableSet<Integer> deliveredFrames;
+    
+    /**
+     * Frames with missing fragments, mapped to the time (nanoseconds) at
+     * which the missing fragments are reported (again) at the latest.
+     */
+    private final NavigableMap<Integer, Long> gapDeadlines;
+    
+    /**
+     * Complete frames waiting for the decoder thread.
+     */
+    private final FrameHandoff completeFrames;
+    
+    private final Decoder decoder;
+    
+    /**
+     * Estimates the bandwidth from the delivered fragments.
+     */
+    private final DeliveryRateEstimator deliveryRate;
+    
+    /**
+     * Newest frame the listeners decoded, null if there is none. Only changed
+     * by the decoder thread.
+     */
+    private volatile SalsifyFrame decodedFrame;
+    
+    /**
+     * Index of the decoded frame the latest ACK carried.
+     */
+    private int reportedDecodedFrameIndex;
+    
+    protected AbstractReceiver() {
+        listeners = new ArrayList<>();
+        ackLink = new EmulatedLink<>("ACKs", LinkConfiguration.ACKS, this::transmitAck);
+        
+        this.deliveryRate = new DeliveryRateEstimator(NetworkConfiguration.BANDWIDTH_WINDOW);
+        this.latestFrameIndex = -1;
+        this.reportedDecodedFrameIndex = -1;
+        this.frames = new TreeMap<>();
+        this.deliveredFrames = new TreeSet<>();
+        this.gapDeadlines = new TreeMap<>();
+        this.completeFrames = new FrameHandoff(DECODER_QUEUE_SIZE);
+        this.decoder = new Decoder();
+    }
+    
+    @Override
+    public void register(IReceiverListener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Handle a fragment received from the network. This collects the fragment
+     * (in any order), sends an ACK for its frame (with the missing fragments
+     * in case of packet loss) and notifies the listeners when a frame is
+     * complete.
+     * 
+     * @param salsifyFragment the received fragment. It may be a view on a
+     * receive buffer, it is not used after this method returns.
+     * 
+     * @throws IOException if sending the ACK fails
+     */
+    protected void processFragment(SalsifyFragment salsifyFragment) throws IOException {
+        
+        final int frameIndex = salsifyFragment.getFrameIndex();
+        if (!SalsifyFrame.isValid(salsifyFragment)) {
+            GlobalLogger.getInstance().log(Level.WARNING, "Received invalid fragment for frame {0}.", frameIndex);
+            return;
+        }
+        FrameTracer.getInstance().mark(frameIndex, FrameTracer.Point.ARRIVED);
+        // the send time is only comparable on the same host, where it is
+        // never later than now
+        final int wireTime = SalsifyFragment.getCurrentTime() - salsifyFragment.getSendTime();
+        if (wireTime >= 0) {
+            FrameTracer.getInstance().record(FrameTracer.Stage.WIRE, TimeUnit.MICROSECONDS.toNanos(wireTime));
+        }
+        
+        if (deliveredFrames.contains(frameIndex)) {
+            // a retransmission of a frame we have already, acknowledge the
+            // whole frame again
+            sendAck(frameIndex, salsifyFragment.getFragmentIndex() + salsifyFragment.getRemainingFragments(), 0);
+            return;
+        }
+        
+        SalsifyFrame frame = frames.get(frameIndex);
+        final boolean added;
+        if (frame == null) {
+            if (frameIndex <= latestFrameIndex - RETAINED_FRAMES) {
+                // this frame was given up already
+                return;
+            }
+            frame = new SalsifyFrame(salsifyFragment);
+            frames.put(frameIndex, frame);
+            added = true;
+            
+            if (frameIndex > latestFrameIndex) {
+                // first fragment of a new frame
+                latestFrameIndex = frameIndex;
+                if (GlobalLogger.getInstance().isLoggable(Level.INFO)) {
+                    GlobalLogger.getInstance().log(Level.INFO, "Received first fragment for frame {0}", frameIndex);
+                }
+                FrameEventLog.getInstance().record(FrameEventLog.Event.FIRST_FRAGMENT, frameIndex);
+                forgetOldFrames();
+            }
+        } else {
+            added = frame.addFragment(salsifyFragment);
+        }
+        if (added) {
+            // frames sent back to back belong to the same train
+            deliveryRate.deliver(salsifyFragment.getSize(), salsifyFragment.getSendTime(), System.nanoTime());
+        }
+        
+        // send an acknowledgement, which reports missing fragments
+        acknowledge(frame);
+        
+        if (added && frame.isComplete()) {
+            FrameTracer.getInstance().mark(frameIndex, FrameTracer.Point.REASSEMBLED);
+            release(frame);
+        }
+    }
+    
+    /**
+     * Send an ACK for a frame. Missing fragments are only reported when they
+     * are lost: enough fragments arrived after them or the gap timeout of the
+     * frame passed. Otherwise the ACK is only cumulative.
+     * 
+     * @param frame the frame to acknowledge.
+     * 
+     * @throws IOException if sending the ACK fails
+     */
+    private void acknowledge(SalsifyFrame frame) throws IOException {
+        final int frameIndex = frame.getFrameIndex();
+        long selectiveAcks = frame.getSelectiveAcks();
+        if (selectiveAcks == 0) {
+            gapDeadlines.remove(frameIndex);
+        } else {
+            final long now = System.nanoTime();
+            final long nextDeadline = now + TimeUnit.MILLISECONDS.toNanos(NetworkConfiguration.GAP_TIMEOUT);
+            final Long deadline = gapDeadlines.putIfAbsent(frameIndex, nextDeadline);
+            if (Long.bitCount(selectiveAcks) < NetworkConfiguration.REORDER_WINDOW && (deadline == null || now < deadline)) {
+                // the missing fragments may only be late
+                selectiveAcks = 0;
+            } else {
+                gapDeadlines.put(frameIndex, nextDeadline);
+                if (GlobalLogger.getInstance().isLoggable(Level.INFO)) {
+                    GlobalLogger.getInstance().log(Level.INFO, 
+                            "Received fragment out of order which indicates PACKET LOSS! Sending selective ACK for frame {0} and fragment {1}.", 
+                            new Object[]{frameIndex, frame.getCumulativeFragmentIndex()});
+                }
+                FrameEventLog.getInstance().record(FrameEventLog.Event.LOSS, frameIndex, frame.getCumulativeFragmentIndex(), selectiveAcks);
+            }
+        }
+        sendAck(frameIndex, frame.getCumulativeFragmentIndex(), selectiveAcks);
+    }
+    
+    /**
+     * Report the missing fragments of all frames whose gap timeout passed and
+     * restart their timeout. A frame decoded since the latest ACK is reported
+     * as well. Subclasses call this after waiting for fragments.
+     * 
+     * @throws IOException if sending an ACK fails
+     */
+    protected void reportGaps() throws IOException {
+        final SalsifyFrame decoded = decodedFrame;
+        if (decoded != null && decoded.getFrameIndex() != reportedDecodedFrameIndex) {
+            // acknowledge the whole frame again, now as decoded
+            sendAck(decoded.getFrameIndex(), decoded.getNumberOfFragments() - 1, 0);
+        }
+        
+        final long now = System.nanoTime();
+        for (Map.Entry<Integer, Long> gap : new ArrayList<>(gapDeadlines.entrySet())) {
+            if (gap.getValue() <= now) {
+                final SalsifyFrame frame = frames.get(gap.getKey());
+                if (frame == null || frame.getSelectiveAcks() == 0) {
+                    gapDeadlines.remove(gap.getKey());
+                } else {
+                    gapDeadlines.put(gap.getKey(), now + TimeUnit.MILLISECONDS.toNanos(NetworkConfiguration.GAP_TIMEOUT));
+                    if (GlobalLogger.getInstance().isLoggable(Level.INFO)) {
+                        GlobalLogger.getInstance().log(Level.INFO, 
+                                "Gap timeout passed which indicates PACKET LOSS! Sending selective ACK for frame {0} and fragment {1}.", 
+                                new Object[]{gap.getKey(), frame.getCumulativeFragmentIndex()});
+                    }
+                    FrameEventLog.getInstance().record(FrameEventLog.Event.LOSS, gap.getKey(), frame.getCumulativeFragmentIndex(), frame.getSelectiveAcks());
+                    sendAck(gap.getKey(), frame.getCumulativeFragmentIndex(), frame.getSelectiveAcks());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Get the time subclasses may wait for fragments before they have to call
+     * reportGaps().
+     * 
+     * @return time in milliseconds (at least 1), 0 if there is no gap and
+     * waiting is not limited.
+     */
+    protected int getGapTimeout() {
+        if (gapDeadlines.isEmpty()) {
+            return 0;
+        }
+        final long earliest = gapDeadlines.values().stream().mapToLong(Long::longValue).min().getAsLong();
+        return (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(earliest - System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+    }
+    
+    /**
+     * Hand a complete frame to the listeners as soon as the frame it is based
+     * on was delivered or given up. A frame is only released once.
+     * 
+     * @param frame the complete frame.
+     */
+    private void release(SalsifyFrame frame) {
+        if (!frames.containsKey(frame.getFrameIndex()) || isWaiting(frame)) {
+            return;
+        }
+        
+        frames.remove(frame.getFrameIndex());
+        deliveredFrames.add(frame.getFrameIndex());
+        
+        // the decoder thread notifies the salsify core
+        final SalsifyFrame dropped = completeFrames.offer(frame);
+        if (dropped != null) {
+            GlobalLogger.getInstance().log(Level.WARNING, "Decoder is too slow, dropped superseded frame {0} ({1} frames dropped so far).", 
+                    new Object[]{dropped.getFrameIndex(), completeFrames.getDroppedFrames()});
+        }
+        
+        // frames based on this one do not need to wait anymore
+        for (SalsifyFrame waiting : new ArrayList<>(frames.values())) {
+            if (waiting.isComplete() && waiting.getFrameIndexState() == frame.getFrameIndex()) {
+                release(waiting);
+            }
+        }
+    }
+    
+    /**
+     * Check if a complete frame has to wait for the frame it is based on. That
+     * frame may be incomplete, wait itself or not have arrived at all yet
+     * (when all of its fragments are late), then it is delivered or given up
+     * later.
+     * 
+     * @param frame the complete frame.
+     * 
+     * @return true if the frame cannot be delivered yet.
+     */
+    private boolean isWaiting(SalsifyFrame frame) {
+        final int source = frame.getFrameIndexState();
+        if (source == -1 || source <= latestFrameIndex - RETAINED_FRAMES) {
+            // no source or the source was delivered or given up already
+            return frames.containsKey(source);
+        }
+        return !deliveredFrames.contains(source);
+    }
+    
+    /**
+     * Give up incomplete frames and forget delivered frames that are too old.
+     * Complete frames that waited for a given up frame (or for one that never
+     * arrived) are handed to the listeners anyway.
+     */
+    private void forgetOldFrames() {
+        final int oldest = latestFrameIndex - RETAINED_FRAMES;
+        
+        final List<SalsifyFrame> givenUp = new ArrayList<>();
+        frames.headMap(oldest, true).values().removeIf(frame -> !frame.isComplete() && givenUp.add(frame));
+        for (SalsifyFrame frame : givenUp) {
+            if (GlobalLogger.getInstance().isLoggable(Level.INFO)) {
+                GlobalLogger.getInstance().log(Level.INFO, "Gave up incomplete frame {0}.", frame.getFrameIndex());
+            }
+            FrameEventLog.getInstance().record(FrameEventLog.Event.GIVEN_UP, frame.getFrameIndex());
+        }
+        
+        for (SalsifyFrame waiting : new ArrayList<>(frames.values())) {
+            if (waiting.isComplete()) {
+                release(waiting);
+            }
+        }
+        
+        deliveredFrames.headSet(oldest, true).clear();
+        gapDeadlines.headMap(oldest, true).clear();
+    }
+    
+    /**
+     * Send an ACK to the sender.
+     * 
+     * @param frameIndex is the frame index of the acknowledged frame
+     * @param fragmentIndex is the index of the fragment up to which all
+     * fragments were received
+     * @param selectiveAcks is the bitmap of fragments received after
+     * fragmentIndex + 1
+     * 
+     * @throws IOException if sending fails
+     */
+    private void sendAck(int frameIndex, int fragmentIndex, long selectiveAcks) throws IOException {
+        final SalsifyFrame decoded = decodedFrame;
+        reportedDecodedFrameIndex = decoded == null ? -1 : decoded.getFrameIndex();
+        // build a salsify ack from input data
+        ackLink.send(new SalsifyAck(frameIndex, fragmentIndex, deliveryRate.getBandwidth(System.nanoTime()),
+                (int) deliveryRate.getDelivered(), selectiveAcks, reportedDecodedFrameIndex), SalsifyAck.SIZE);
+    }
+    
+    /**
+     * Wake the receiver thread up if it waits for fragments, so it reports a
+     * decoded frame soon. Called by the decoder thread. This implementation
+     * does nothing, then the frame is reported after the next fragment or gap
+     * timeout.
+     */
+    protected void wakeUp() {
+    }
+    
+    /**
+     * Send an ACK over the network. This is called by the receiver thread or
+     * by the emulated link, never by both.
+     * 
+     * @param ack the ACK to send.
+     * 
+     * @return false if the ACK could not be sent now.
+     * 
+     * @throws IOException if sending fails
+     */
+    protected abstract boolean transmitAck(SalsifyAck ack) throws IOException;
+    
+    /**
+     * {@inheritDoc}<br>
+     * This implementation also starts the decoder thread.
+     *
+     * @see java.lang.Thread#start()
+     */
+    @Override
+    public void start() {
+        decoder.start();
+        super.start();
+    }
+    
+    /**
+     * {@inheritDoc}<br>
+     * This implementation also stops the emulated link and the decoder
+     * thread.
+     *
+     * @see java.lang.Thread#interrupt()
+     */
+    @Override
+    public void interrupt() {
+        super.interrupt();
+        ackLink.close();
+        decoder.interrupt();
+    }
+    
+}
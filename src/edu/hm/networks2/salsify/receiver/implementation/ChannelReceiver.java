@@ -0,0 +1,134 @@
+package edu.hm.networks2.salsify.receiver.implementation;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.logging.Level;
+
+import edu.hm.networks2.salsify.common.config.NetworkConfiguration;
+import edu.hm.networks2.salsify.common.implementation.GlobalLogger;
+import edu.hm.networks2.salsify.common.packets.SalsifyAck;
+import edu.hm.networks2.salsify.common.packets.SalsifyFragment;
+
+/**
+ * This is an implementation of IReceiver based on a non-blocking
+ * DatagramChannel which is connected to the sender. A selector loop receives
+ * all fragments and sends the ACKs on the same channel. Fragments and ACKs go
+ * through direct buffers which are allocated once.
+ */
+public class ChannelReceiver extends AbstractReceiver {
+    
+    /**
+     * Channel which is used to send ACKs and receive fragments.
+     */
+    private DatagramChannel channel;
+    
+    /**
+     * Wakes up the receiver when fragments arrive.
+     */
+    private Selector selector;
+    
+    /**
+     * Outgoing ACKs are written into this buffer.
+     */
+    private final ByteBuffer ackBuffer;
+    
+    public ChannelReceiver() {
+        ackBuffer = ByteBuffer.allocateDirect(SalsifyAck.SIZE);
+        
+        try {
+            selector = Selector.open();
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(NetworkConfiguration.RECEIVER_IP, NetworkConfiguration.RECEIVER_PORT));
+            channel.connect(new InetSocketAddress(NetworkConfiguration.SENDER_IP, NetworkConfiguration.SENDER_PORT));
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException exception) {
+            GlobalLogger.getInstance().log(Level.SEVERE, "Salsify Receiver had problems opening a DatagramChannel.{0}", exception.toString());
+        }
+    }
+    
+    @Override
+    public void run() {
+        // allocate memory for incoming packet data
+        final ByteBuffer fragmentBuffer = ByteBuffer.allocateDirect(SalsifyFragment.COMPLETE_SIZE);
+        final byte[] fragmentData = new byte[SalsifyFragment.COMPLETE_SIZE];
+        
+        // loop infinite
+        while (!isInterrupted()) {
+            try {
+                // block until fragments arrive or a gap has to be reported
+                selector.select(getGapTimeout());
+                selector.selectedKeys().clear();
+                
+                // handle all fragments that arrived
+                fragmentBuffer.clear();
+                while (channel.receive(fragmentBuffer) != null) {
+                    fragmentBuffer.flip();
+                    final int length = fragmentBuffer.remaining();
+                    if (length >= SalsifyFragment.HEADER_SIZE) {
+                        // one copy into the parse buffer, the frame copies the
+                        // data to its final position when adding
+                        fragmentBuffer.get(fragmentData, 0, length);
+                        processFragment(new SalsifyFragment(fragmentData, length));
+                    }
+                    fragmentBuffer.clear();
+                }
+                reportGaps();
+                
+            } catch (ClosedChannelException | ClosedSelectorException exception) {
+                GlobalLogger.getInstance().log(Level.SEVERE, "Channel got closed! Exception: {0}", exception.toString());
+                break;
+            } catch (PortUnreachableException exception) {
+                GlobalLogger.getInstance().log(Level.WARNING, "Salsify Sender is not reachable.{0}", exception.toString());
+            } catch (IOException exception) {
+                GlobalLogger.getInstance().log(Level.SEVERE, "Salsify Receiver had problems receiving frames.{0}", exception.toString());
+            }
+        }
+    }
+    
+    /**
+     * {@inheritDoc}<br>
+     * When this implementation gets interrupted, the channel and the selector
+     * get closed.
+     *
+     * @see java.lang.Thread#interrupt()
+     */
+    @Override
+    public void interrupt() {
+        super.interrupt();
+        try {
+            selector.close();
+            channel.close();
+        } catch (IOException exception) {
+            GlobalLogger.getInstance().log(Level.SEVERE, "Could not close channel.{0}", exception.toString());
+        }
+    }
+    
+    /**
+     * {@inheritDoc}<br>
+     * This implementation wakes up the selector.
+     */
+    @Override
+    protected void wakeUp() {
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+    
+    @Override
+    protected boolean transmitAck(SalsifyAck ack) throws IOException {
+        // write the ack to the channel
+        ackBuffer.clear();
+        ack.writeTo(ackBuffer);
+        ackBuffer.flip();
+        return channel.write(ackBuffer) != 0;
+    }
+    
+}
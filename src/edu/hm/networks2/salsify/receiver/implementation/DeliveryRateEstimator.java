@@ -0,0 +1,203 @@
+package edu.hm.networks2.salsify.receiver.implementation;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the bandwidth from the rate at which fragments are delivered.
+ * Fragments that arrive back to back form a train, which only starts after an
+ * idle period. So a train spans all frames that are sent back to back and
+ * small frames yield samples as well. A rate sample is the number of
+ * bytes delivered in the train divided by the time since its start, so it
+ * spans many fragments and the granularity of timers (and of the token bucket
+ * that limits the sender) does not matter.
+ *
+ * Like in BBR the time of a sample is the longer one of sending and receiving
+ * the train: fragments that waited in the socket buffer for the receiver
+ * thread arrive in a burst, which says nothing about the network, and cannot
+ * have been delivered faster than they were sent.
+ *
+ * Like BBR the estimate is the highest sample within a time window: queueing
+ * and scheduling only make fragments late, so they lower the samples but never
+ * raise them. The maximum is kept with a monotonic queue, so every sample is
+ * O(1) amortized. Samples leave the window when they get too old, also while
+ * nothing is delivered, so an old maximum does not stay forever.
+ *
+ * This class is not thread safe, it is only used by the receiver thread.
+ */
+public class DeliveryRateEstimator {
+
+    /**
+     * A delivery rate measured at a point in time.
+     */
+    private static class Sample {
+
+        private final long time;
+
+        private final double rate;
+
+        Sample(long time, double rate) {
+            this.time = time;
+            this.rate = rate;
+        }
+    }
+
+    private static final double BILLION = 1000000000.0;
+
+    /**
+     * A train ends when no fragment arrived for this long (nanoseconds).
+     */
+    private static final long TRAIN_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /**
+     * A sample spans at least this time (nanoseconds)...
+     */
+    private static final long MINIMUM_INTERVAL = TimeUnit.MILLISECONDS.toNanos(2);
+
+    /**
+     * ...and at least this many fragments after the first one of the train.
+     */
+    private static final int MINIMUM_FRAGMENTS = 4;
+
+    /**
+     * Samples are kept this long (nanoseconds).
+     */
+    private final long window;
+
+    /**
+     * Samples of the window with decreasing rates, the first one is the
+     * maximum.
+     */
+    private final Deque<Sample> samples;
+
+    /**
+     * Arrival of the first fragment of the current train.
+     */
+    private long trainStart;
+
+    /**
+     * Send time of the first fragment of the current train (see
+     * SalsifyFragment).
+     */
+    private int trainSendStart;
+
+    /**
+     * Arrival of the latest fragment.
+     */
+    private long lastArrival;
+
+    /**
+     * Bytes delivered in the current train after its first fragment.
+     */
+    private long trainBytes;
+
+    /**
+     * Fragments delivered in the current train after its first fragment.
+     */
+    private int trainFragments;
+
+    /**
+     * All bytes delivered so far.
+     */
+    private long delivered;
+
+    /**
+     * Construct an estimator without any samples.
+     *
+     * @param window time in milliseconds the highest sample is kept.
+     */
+    public DeliveryRateEstimator(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("DeliveryRateEstimator: Window must be positive!");
+        }
+        this.window = TimeUnit.MILLISECONDS.toNanos(window);
+        this.samples = new ArrayDeque<>();
+        this.lastArrival = Long.MIN_VALUE;
+    }
+
+    /**
+     * Start a new train with a delivered fragment.
+     *
+     * @param size size of the fragment in bytes.
+     * @param sendTime send time of the fragment in microseconds.
+     * @param now arrival of the fragment in nanoseconds.
+     */
+    private void startTrain(int size, int sendTime, long now) {
+        delivered += size;
+        trainStart = now;
+        trainSendStart = sendTime;
+        lastArrival = now;
+        trainBytes = 0;
+        trainFragments = 0;
+    }
+
+    /**
+     * Add a delivered fragment to the current train and take a sample if the
+     * train is long enough. The fragment starts a new train if the link was
+     * idle before.
+     *
+     * @param size size of the fragment in bytes.
+     * @param sendTime send time of the fragment in microseconds.
+     * @param now arrival of the fragment in nanoseconds.
+     */
+    public void deliver(int size, int sendTime, long now) {
+        if (lastArrival == Long.MIN_VALUE || now - lastArrival > TRAIN_TIMEOUT) {
+            startTrain(size, sendTime, now);
+            return;
+        }
+        delivered += size;
+        lastArrival = now;
+        trainBytes += size;
+        trainFragments++;
+
+        final long interval = Math.max(now - trainStart, 
+                TimeUnit.MICROSECONDS.toNanos(sendTime - trainSendStart));
+        if (trainFragments >= MINIMUM_FRAGMENTS && interval >= MINIMUM_INTERVAL) {
+            addSample(now, trainBytes * BILLION / interval);
+        }
+    }
+
+    /**
+     * Get the bandwidth estimate.
+     *
+     * @param now the current time in nanoseconds.
+     *
+     * @return the highest delivery rate of the window in bytes per second, -1
+     * if there is no sample in the window.
+     */
+    public int getBandwidth(long now) {
+        expire(now);
+        final Sample maximum = samples.peekFirst();
+        return maximum == null ? -1 : (int) Math.min(Integer.MAX_VALUE, Math.round(maximum.rate));
+    }
+
+    /**
+     * @return number of bytes delivered so far.
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Add a sample to the window and forget the samples that left it or can
+     * never be the maximum anymore.
+     */
+    private void addSample(long now, double rate) {
+        while (!samples.isEmpty() && samples.peekLast().rate <= rate) {
+            samples.pollLast();
+        }
+        samples.addLast(new Sample(now, rate));
+        expire(now);
+    }
+
+    /**
+     * Forget the samples that left the window.
+     */
+    private void expire(long now) {
+        while (!samples.isEmpty() && now - samples.peekFirst().time > window) {
+            samples.pollFirst();
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+package edu.hm.networks2.salsify.receiver.implementation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.hm.networks2.salsify.common.packets.SalsifyFrame;
+
+/**
+ * Hands complete frames from the thread that receives fragments to the thread
+ * that decodes them. This is a bounded ring buffer for exactly one producer and
+ * one consumer without locks: only the producer moves the tail, the head is
+ * moved with compare and set by the consumer when it takes a frame and by the
+ * producer when it drops one. The producer never waits.
+ *
+ * When the ring is full the oldest frame is dropped, because the newer frames
+ * supersede it. Nothing depends on a waiting frame: the sender only bases
+ * frames on frames the receiver decoded (see SalsifyAck), and a dropped frame
+ * is never decoded.
+ */
+public class FrameHandoff {
+
+    /**
+     * Frames between head and tail, null elsewhere.
+     */
+    private final AtomicReferenceArray<SalsifyFrame> ring;
+
+    /**
+     * Number of frames taken or dropped so far (index of the next frame to
+     * take).
+     */
+    private final AtomicLong head;
+
+    /**
+     * Number of frames offered so far (index of the next free slot).
+     */
+    private final AtomicLong tail;
+
+    /**
+     * The consumer, null until it took the first time.
+     */
+    private volatile Thread consumer;
+
+    /**
+     * Number of frames dropped because the ring was full. Only changed by the
+     * producer.
+     */
+    private volatile long droppedFrames;
+
+    /**
+     * Construct an empty handoff.
+     *
+     * @param capacity number of frames that can wait. Must be a power of two.
+     */
+    public FrameHandoff(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("FrameHandoff: Capacity must be a power of two!");
+        }
+        ring = new AtomicReferenceArray<>(capacity);
+        head = new AtomicLong();
+        tail = new AtomicLong();
+    }
+
+    /**
+     * Hand a frame to the consumer. If the ring is full the oldest frame is
+     * dropped. Only call this from the producer thread.
+     *
+     * @param frame the complete frame. It must not change anymore.
+     *
+     * @return the dropped frame, null if the ring was not full.
+     */
+    public SalsifyFrame offer(SalsifyFrame frame) {
+        final long index = tail.get();
+        SalsifyFrame dropped = null;
+        long taken = head.get();
+        while (index - taken == ring.length()) {
+            // only the producer writes slots, so the oldest frame is read
+            // correctly, but the consumer may take it meanwhile
+            final SalsifyFrame oldest = ring.get((int) taken & (ring.length() - 1));
+            if (head.compareAndSet(taken, taken + 1)) {
+                dropped = oldest;
+                droppedFrames++;
+            }
+            taken = head.get();
+        }
+        ring.set((int) index & (ring.length() - 1), frame);
+        tail.set(index + 1);
+
+        final Thread waiting = consumer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+        return dropped;
+    }
+
+    /**
+     * Take the oldest frame, wait if there is none. Only call this from the
+     * consumer thread.
+     *
+     * @return the frame.
+     *
+     * @throws InterruptedException if the consumer gets interrupted while
+     * waiting.
+     */
+    public SalsifyFrame take() throws InterruptedException {
+        consumer = Thread.currentThread();
+        while (true) {
+            final SalsifyFrame frame = poll();
+            if (frame != null) {
+                return frame;
+            }
+            // an offer after the poll unparks us, so nothing is missed
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                throw new InterruptedException("FrameHandoff: Interrupted while waiting for frames!");
+            }
+        }
+    }
+
+    /**
+     * Take the oldest frame if there is one. Only call this from the consumer
+     * thread.
+     *
+     * @return the frame, null if there is none.
+     */
+    public SalsifyFrame poll() {
+        while (true) {
+            final long index = head.get();
+            if (index == tail.get()) {
+                return null;
+            }
+            final int slot = (int) index & (ring.length() - 1);
+            final SalsifyFrame frame = ring.get(slot);
+            if (head.compareAndSet(index, index + 1)) {
+                // the frame is not kept alive by the ring (unless the
+                // producer reused the slot already)
+                ring.compareAndSet(slot, frame, null);
+                return frame;
+            }
+            // the producer dropped the frame, take the next one
+        }
+    }
+
+    /**
+     * @return number of frames waiting for the consumer.
+     */
+    public int size() {
+        // the head never passes the tail read after it
+        final long taken = head.get();
+        return (int) (tail.get() - taken);
+    }
+
+    /**
+     * @return number of frames dropped because the ring was full.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+}
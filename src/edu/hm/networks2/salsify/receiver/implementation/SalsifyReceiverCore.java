@@ -1,14 +1,18 @@
 package edu.hm.networks2.salsify.receiver.implementation;
 
 import java.awt.image.BufferedImage;
-import java.util.Map;
 import java.util.Optional;
-import java.util.TreeMap;
 import java.util.logging.Level;
 
 import edu.hm.networks2.salsify.common.ICodec;
+import edu.hm.networks2.salsify.common.config.CodecConfiguration;
+import edu.hm.networks2.salsify.common.config.NetworkConfiguration;
 import edu.hm.networks2.salsify.common.implementation.Codec;
+import edu.hm.networks2.salsify.common.implementation.FrameStore;
+import edu.hm.networks2.salsify.common.implementation.FrameEventLog;
+import edu.hm.networks2.salsify.common.implementation.FrameTracer;
 import edu.hm.networks2.salsify.common.implementation.GlobalLogger;
+import edu.hm.networks2.salsify.common.implementation.TiledCodec;
 import edu.hm.networks2.salsify.receiver.IReceiver;
 import edu.hm.networks2.salsify.receiver.ISalsifyReceiverCore;
 import edu.hm.networks2.salsify.receiver.IScreen;
@@ -16,6 +20,11 @@ import edu.hm.networks2.salsify.receiver.helper.IReceiverListener;
 
 public class SalsifyReceiverCore implements ISalsifyReceiverCore, IReceiverListener {
 
+    /**
+     * The statistics of the source states are logged every this many frames.
+     */
+    private static final int STATISTICS_INTERVAL = 100;
+
     private final IScreen screen;
     private final ICodec codec;
     private final IReceiver receiver;
@@ -23,13 +32,41 @@ public class SalsifyReceiverCore implements ISalsifyReceiverCore, IReceiverListe
     /**
      * Stores source states which can be used for decoding
      */
-    private final Map<Integer, BufferedImage> sourceStates;
+    private final FrameStore sourceStates;
+
+    /**
+     * Index of the newest source frame a received frame was based on.
+     */
+    private int newestSourceFrameIndex;
+
+    /**
+     * Number of frames that were decoded.
+     */
+    private volatile long decodedFrames;
+
+    /**
+     * Number of frames that could not be decoded because their source was
+     * not stored.
+     */
+    private volatile long missingSources;
 
     public SalsifyReceiverCore() {
-        screen = new Screen();
-        codec = new Codec();
-        receiver = new Receiver();
-        sourceStates = new TreeMap<>();
+        this(new Screen());
+    }
+
+    /**
+     * Construct a receiver core which displays the frames on the given
+     * screen.
+     *
+     * @param screen the screen.
+     */
+    public SalsifyReceiverCore(IScreen screen) {
+        this.screen = screen;
+        // decodes tiled and plain frames
+        codec = new TiledCodec(new Codec(), CodecConfiguration.TILES);
+        receiver = NetworkConfiguration.USE_CHANNEL ? new ChannelReceiver() : new Receiver();
+        sourceStates = new FrameStore(CodecConfiguration.STATE_CAPACITY);
+        newestSourceFrameIndex = -1;
     }
 
     @Override
@@ -45,7 +82,7 @@ public class SalsifyReceiverCore implements ISalsifyReceiverCore, IReceiverListe
     }
 
     @Override
-    public void receiveFrame(byte[] data, int frameIndex, int sourceFrameIndex) {
+    public boolean receiveFrame(byte[] data, int frameIndex, int sourceFrameIndex) {
     	
     	// debug purposes
 //    	try {
@@ -57,38 +94,73 @@ public class SalsifyReceiverCore implements ISalsifyReceiverCore, IReceiverListe
 //    	}
 
     	
-        GlobalLogger.getInstance().log(Level.INFO, "Received complete frame with index {0} based on frame with index {1} from transport layer! Decoding and displaying now!", new Object[]{frameIndex, sourceFrameIndex});
+        if (GlobalLogger.getInstance().isLoggable(Level.INFO)) {
+            GlobalLogger.getInstance().log(Level.INFO, "Received complete frame with index {0} based on frame with index {1} from transport layer! Decoding and displaying now!", new Object[]{frameIndex, sourceFrameIndex});
+        }
+        FrameEventLog.getInstance().record(FrameEventLog.Event.COMPLETE, frameIndex, sourceFrameIndex, 0);
 
         Optional<BufferedImage> sourceState;
+        final BufferedImage source = sourceFrameIndex == -1 ? null : sourceStates.get(sourceFrameIndex);
         // has no source state?
         if (sourceFrameIndex == -1) {
             sourceState = Optional.empty();
-        } else if (sourceStates.containsKey(sourceFrameIndex)) {
-            sourceState = Optional.empty();
-            // this is to disable encoding based on a source state
-            // we will always send encoding based only on the current image
-            // sourceState = Optional.of(sourceStates.get(sourceFrameIndex));
+        } else if (source != null) {
+            // the frame only holds the difference to its source
+            sourceState = Optional.of(source);
         } else {
+            // without its source the difference is worthless
             GlobalLogger.getInstance().log(Level.SEVERE, "Source frame index ({0})  is not stored! Needed for frame with index {1}.", new Object[]{sourceFrameIndex, frameIndex});
-            sourceState = Optional.empty();
+            missingSources++;
+            return false;
         }
         
         final Optional<BufferedImage> frame = codec.decode(sourceState, data);
         
-        if (frame.isPresent()) {
-            screen.displayFrame(frame.get());
-            sourceStates.put(frameIndex, frame.get());
-            
-            // debug purposes
-//            try {
-//                // retrieve image
-//                File outputfile = new File("results" + File.separator + "result" + frameIndex + ".jpg");
-//                ImageIO.write(frame.get(), "jpg", outputfile);
-//            } catch (IOException exception) {
-//                System.out.println("error occured while writing file to disk");
-//            }
+        if (!frame.isPresent()) {
+            GlobalLogger.getInstance().log(Level.WARNING, "Could not decode frame with index {0}.", frameIndex);
+            return false;
+        }
+        
+        FrameTracer.getInstance().mark(frameIndex, FrameTracer.Point.DECODED);
+        screen.displayFrame(frame.get(), frameIndex);
+        FrameTracer.getInstance().mark(frameIndex, FrameTracer.Point.DISPLAYED);
+        sourceStates.put(frameIndex, frame.get());
+        
+        // frames far behind the newest source will not be referenced
+        // anymore
+        newestSourceFrameIndex = Math.max(newestSourceFrameIndex, sourceFrameIndex);
+        sourceStates.evictBefore(newestSourceFrameIndex - CodecConfiguration.RETAINED_STATES);
+        
+        decodedFrames++;
+        if (decodedFrames % STATISTICS_INTERVAL == 0) {
+            GlobalLogger.getInstance().log(Level.INFO, "Source states: {0}, {1}", new Object[]{sourceStates, screen});
         }
+        
+        // debug purposes
+//        try {
+//            // retrieve image
+//            File outputfile = new File("results" + File.separator + "result" + frameIndex + ".jpg");
+//            ImageIO.write(frame.get(), "jpg", outputfile);
+//        } catch (IOException exception) {
+//            System.out.println("error occured while writing file to disk");
+//        }
 
+        return true;
+    }
+
+    /**
+     * @return number of frames that were decoded.
+     */
+    public long getDecodedFrames() {
+        return decodedFrames;
+    }
+
+    /**
+     * @return number of frames that could not be decoded because their
+     * source was not stored.
+     */
+    public long getMissingSources() {
+        return missingSources;
     }
 
 }
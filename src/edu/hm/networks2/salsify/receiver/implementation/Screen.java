@@ -1,30 +1,142 @@
 package edu.hm.networks2.salsify.receiver.implementation;
 
-import java.awt.FlowLayout;
-import java.awt.Image;
+import java.awt.BorderLayout;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
-import javax.swing.ImageIcon;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
-import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
 
 import edu.hm.networks2.salsify.receiver.IScreen;
 
+/**
+ * Shows the received frames in a window. Frames are handed over in a mailbox
+ * with a single slot and rendered on the event dispatch thread, so the thread
+ * that displays a frame never waits for rendering (and never delays ACKs). A
+ * frame that was not rendered yet is replaced by a newer one and counts as
+ * skipped.
+ */
 public class Screen implements IScreen {
 
 	private static final int WIDTH = 1920;
 	private static final int HEIGHT = 1080;
 	
+    /**
+     * Shows the latest frame. The frame is scaled into a back buffer in video
+     * memory once and only copied from there when Swing repaints.
+     */
+    private static class Canvas extends JComponent {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The latest rendered frame, only used on the event dispatch thread.
+         */
+        private transient BufferedImage frame;
+
+        /**
+         * The scaled frame, null while the component is not displayable.
+         */
+        private transient VolatileImage backBuffer;
+
+        /**
+         * Show a new frame.
+         * 
+         * @param frame the frame. It must not change anymore.
+         */
+        void setFrame(BufferedImage frame) {
+            this.frame = frame;
+            renderBackBuffer();
+            repaint();
+        }
+
+        @Override
+        protected void paintComponent(Graphics graphics) {
+            if (frame == null) {
+                return;
+            }
+            do {
+                if (backBuffer == null || backBuffer.getWidth() != getWidth() || backBuffer.getHeight() != getHeight()
+                        || backBuffer.validate(getGraphicsConfiguration()) != VolatileImage.IMAGE_OK) {
+                    // the contents were lost or the size changed
+                    renderBackBuffer();
+                }
+                if (backBuffer == null) {
+                    drawScaled(graphics);
+                    return;
+                }
+                graphics.drawImage(backBuffer, 0, 0, null);
+            } while (backBuffer.contentsLost());
+        }
+
+        /**
+         * Scale the frame into the back buffer, which is (re)created if
+         * necessary.
+         */
+        private void renderBackBuffer() {
+            final int width = Math.max(1, getWidth());
+            final int height = Math.max(1, getHeight());
+            if (backBuffer == null || backBuffer.getWidth() != width || backBuffer.getHeight() != height
+                    || backBuffer.validate(getGraphicsConfiguration()) == VolatileImage.IMAGE_INCOMPATIBLE) {
+                if (backBuffer != null) {
+                    backBuffer.flush();
+                }
+                backBuffer = createVolatileImage(width, height);
+                if (backBuffer == null) {
+                    return;
+                }
+            }
+            final Graphics graphics = backBuffer.createGraphics();
+            try {
+                drawScaled(graphics);
+            } finally {
+                graphics.dispose();
+            }
+        }
+
+        /**
+         * Draw the frame scaled to the size of the component with bilinear
+         * interpolation.
+         * 
+         * @param graphics where to draw.
+         */
+        private void drawScaled(Graphics graphics) {
+            ((Graphics2D) graphics).setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(frame, 0, 0, getWidth(), getHeight(), null);
+        }
+    }
+
     private final JFrame parent;
-    private final JLabel imageContainer;
+    private final Canvas canvas;
+
+    /**
+     * The latest frame that was not rendered yet.
+     */
+    private final AtomicReference<BufferedImage> mailbox;
+
+    private final AtomicLong renderedFrames;
+
+    /**
+     * Frames replaced in the mailbox before they were rendered.
+     */
+    private final AtomicLong skippedFrames;
 
     public Screen() {
         super();
         this.parent = new JFrame("Salsify Receiver");
-        this.parent.getContentPane().setLayout(new FlowLayout());
+        this.parent.getContentPane().setLayout(new BorderLayout());
         this.parent.setSize(WIDTH, HEIGHT);
-        this.imageContainer = new JLabel();
-        this.parent.getContentPane().add(this.imageContainer);
+        this.canvas = new Canvas();
+        this.parent.getContentPane().add(this.canvas, BorderLayout.CENTER);
+        this.mailbox = new AtomicReference<>();
+        this.renderedFrames = new AtomicLong();
+        this.skippedFrames = new AtomicLong();
     }
     
     @Override
@@ -32,14 +144,52 @@ public class Screen implements IScreen {
         this.parent.setVisible(true);
     }
     
+    /**
+     * {@inheritDoc}<br>
+     * This implementation only puts the frame into the mailbox, it is rendered
+     * later on the event dispatch thread.
+     */
     @Override
     public void displayFrame(BufferedImage frame) {
-        imageContainer.removeAll();
-        final ImageIcon image = new ImageIcon(frame.getScaledInstance(WIDTH, HEIGHT, Image.SCALE_SMOOTH));
-        imageContainer.setIcon(image);
+        final BufferedImage undelivered = mailbox.getAndSet(frame);
+        if (undelivered == null) {
+            // the mailbox was empty, so nobody is going to render yet
+            SwingUtilities.invokeLater(this::render);
+        } else {
+            skippedFrames.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return number of frames that were rendered.
+     */
+    public long getRenderedFrames() {
+        return renderedFrames.get();
+    }
+
+    /**
+     * @return number of frames that were replaced by a newer frame before
+     * they were rendered.
+     */
+    public long getSkippedFrames() {
+        return skippedFrames.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Screen[rendered=" + renderedFrames.get() + ", skipped=" + skippedFrames.get() + "]";
+    }
+
+    /**
+     * Render the latest frame of the mailbox. Runs on the event dispatch
+     * thread.
+     */
+    private void render() {
+        final BufferedImage frame = mailbox.getAndSet(null);
+        if (frame != null) {
+            canvas.setFrame(frame);
+            renderedFrames.incrementAndGet();
+        }
     }
-    
-    
-    
 
 }
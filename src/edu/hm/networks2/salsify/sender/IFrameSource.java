@@ -0,0 +1,23 @@
+package edu.hm.networks2.salsify.sender;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * This interface describes a source of frames a webcam plays, for example a
+ * directory of pictures or a raw video file.
+ */
+public interface IFrameSource {
+
+	/**
+	 * Get the next frame. May wait until the frame is available.
+	 * 
+	 * @return the next frame, null if the source ended.
+	 */
+	BufferedImage next();
+
+	/**
+	 * Release all resources of the source.
+	 */
+	void close();
+
+}
@@ -20,8 +20,10 @@ public interface ITransportProtocolListener {
     void reset();
     
     /**
-     * Tells the transport protocol listener that the frame with the given index
-     * was completely acknowledged.
+     * Tells the transport protocol listener that the receiver decoded and
+     * stored the frame with the given index, so later frames can be based on
+     * it. A completely acknowledged frame is not reported before it is
+     * decoded, because it may still be dropped or fail to decode.
      * 
      * @param frameIndex identifying the frame.
      * 
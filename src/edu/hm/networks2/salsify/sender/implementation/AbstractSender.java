@@ -0,0 +1,268 @@
+package edu.hm.networks2.salsify.sender.implementation;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import edu.hm.networks2.salsify.common.config.NetworkConfiguration;
+import edu.hm.networks2.salsify.common.packets.SalsifyAck;
+import edu.hm.networks2.salsify.common.packets.SalsifyFragment;
+import edu.hm.networks2.salsify.common.packets.SalsifyFrame;
+import edu.hm.networks2.salsify.sender.ISender;
+import edu.hm.networks2.salsify.sender.helper.ITransportProtocolListener;
+
+/**
+ * This is the part of ISender that does not depend on the transport. It splits
+ * frames into fragments, keeps track of acknowledgements and notifies the
+ * listener. Missing fragments reported by selective ACKs are retransmitted
+ * within the grace period of their frame. Subclasses only send fragments and
+ * hand received ACKs to receiveAck(...).
+ *
+ * @author Philipp
+ */
+public abstract class AbstractSender implements ISender {
+
+    /**
+     * Latest measured bandwidth time.
+     */
+    private volatile int latestBandwidth;
+
+    /**
+     * Bytes the receiver had got when it estimated latestBandwidth (modulo
+     * 2^32).
+     */
+    private int latestDelivered;
+
+    /**
+     * Stores listeners to notify about events.
+     */
+    private final ITransportProtocolListener listener;
+
+    /**
+     * This keeps track of acknowledged frames by keeping track of the highest
+     * acknowledged fragment of every frame in flight. It is shared by the
+     * sending thread and the thread receiving ACKs without locking.
+     */
+    private final AcknowledgementWindow acknowledgements;
+
+    /**
+     * Sent frames for retransmitting missing fragments, null if
+     * retransmission is disabled.
+     */
+    private final RetransmissionBuffer retransmissions;
+
+    /**
+     * Index of the latest frame that is completely acknowledged with all
+     * frames before it.
+     */
+    private int lastAcknowledged;
+
+    /**
+     * Index of the newest frame the receiver reported as decoded.
+     */
+    private int lastDecoded;
+
+    /**
+     * Constructor that initializes the acknowledgement bookkeeping.
+     *
+     * @param listener The given listener will get notified about events.
+     */
+    protected AbstractSender(ITransportProtocolListener listener) {
+        latestBandwidth = -1;
+        acknowledgements = new AcknowledgementWindow();
+        retransmissions = NetworkConfiguration.RETRANSMISSION ? new RetransmissionBuffer() : null;
+        lastAcknowledged = -1;
+        lastDecoded = -1;
+        this.listener = listener;
+    }
+
+    /**
+     * {@inheritDoc}<br>
+     * This implementation splits a frame into several fragments and sends them
+     * with sendFragment(...).
+     *
+     * @see edu.hm.networks2.salsify.sender.ISender#sendFrame(byte[], int, int,
+     * int)
+     */
+    @Override
+    public void sendFrame(byte[] data, int frameIndex, int sourceFrameIndex, int gracePeriod) throws IOException {
+
+        // build a salsify frame from input data
+        final SalsifyFrame frame = new SalsifyFrame(data, frameIndex, sourceFrameIndex, gracePeriod, NetworkConfiguration.FEC_GROUP_SIZE);
+
+        // add to acknowledgements
+        acknowledgements.add(frameIndex, frame.getNumberOfFragments());
+        if (retransmissions != null) {
+            retransmissions.add(frame, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(NetworkConfiguration.RETRANSMISSION_PERIOD));
+        }
+
+        // send each salsify fragment inside the frame
+        for (int index = 0; index < frame.getNumberOfFragments(); index++) {
+            sendFragment(frame.getFragment(index));
+        }
+    }
+
+    /**
+     * Send a single fragment to the receiver. The fragment is a view on the
+     * frame data, which does not change after sendFrame(...) returns.
+     *
+     * @param fragment the fragment to send.
+     *
+     * @throws IOException if sending fails
+     */
+    protected abstract void sendFragment(SalsifyFragment fragment) throws IOException;
+
+    /**
+     * {@inheritDoc}<br>
+     * This implementation is just a normal getter.
+     *
+     * @see edu.hm.networks2.salsify.sender.ISender#getLatestBandwidth()
+     */
+    @Override
+    public int getLatestBandwidth() {
+        return latestBandwidth;
+    }
+
+    protected void setLatestBandwidth(int latestBandwidth) {
+        this.latestBandwidth = latestBandwidth;
+    }
+
+    /**
+     * Handle an ACK received from the network: take over the bandwidth and
+     * check the acknowledged fragment.
+     *
+     * @param ack the received ACK.
+     *
+     * @throws IOException if retransmitting fragments fails
+     */
+    protected void receiveAck(SalsifyAck ack) throws IOException {
+        // take over the bandwidth unless the ACK was overtaken by a newer one
+        // (the difference also works when delivered wraps around)
+        if (latestBandwidth == -1 || ack.getDelivered() - latestDelivered >= 0) {
+            latestDelivered = ack.getDelivered();
+            setLatestBandwidth(ack.getBandwidth());
+        }
+
+        // only frames the receiver decoded can be sources (reordered ACKs
+        // may report an older one)
+        if (ack.getDecodedFrameIndex() > lastDecoded) {
+            lastDecoded = ack.getDecodedFrameIndex();
+            listener.acknowledged(lastDecoded);
+        }
+
+        // process ack. handles loss detection...
+        processAck(ack);
+    }
+
+    /**
+     * This checks the acknowledgement for lost fragments and completed frames.
+     *
+     * @param ack the received ACK.
+     *
+     * @throws IOException if retransmitting fragments fails
+     */
+    private void processAck(SalsifyAck ack) throws IOException {
+        final int frameIndex = ack.getFrameIndex();
+
+        final AcknowledgementWindow.Result result = acknowledgements.acknowledge(frameIndex, ack.getFragmentIndex());
+        if (result == AcknowledgementWindow.Result.UNKNOWN) {
+            // frame is not in flight anymore
+            return;
+        }
+        if (retransmissions != null) {
+            final RetransmissionBuffer.SentFrame sentFrame = retransmissions.get(frameIndex);
+            if (sentFrame != null) {
+                sentFrame.markReceived(ack.getFragmentIndex(), ack.getSelectiveAcks(), System.nanoTime());
+            }
+        }
+
+        // fragments are sent in order, so fragments of older frames that are
+        // still missing got lost (unless they are only reordered, which is
+        // ruled out after REORDER_WINDOW fragments of this frame or its end)
+        final int receivedFragments = ack.getFragmentIndex() + 1 + Long.bitCount(ack.getSelectiveAcks());
+        final int lostBefore = receivedFragments >= NetworkConfiguration.REORDER_WINDOW 
+                || result == AcknowledgementWindow.Result.COMPLETE ? frameIndex : acknowledgements.getLowestFrameIndex();
+        for (int index = acknowledgements.getLowestFrameIndex(); index < lostBefore; index++) {
+            if (acknowledgements.isPending(index) && !recover(index, Integer.MAX_VALUE)) {
+                // LOSS FOUND!
+                // listener has to reset back to a frame that is completely
+                // acknowledged
+                listener.reset();
+                return;
+            }
+        }
+
+        // the same holds for missing fragments before the highest selectively
+        // acknowledged one
+        final long selectiveAcks = ack.getSelectiveAcks();
+        if (selectiveAcks != 0) {
+            final int highest = ack.getFragmentIndex() + Long.SIZE - Long.numberOfLeadingZeros(selectiveAcks);
+            if (!recover(frameIndex, highest)) {
+                listener.reset();
+                return;
+            }
+        }
+
+        if (result == AcknowledgementWindow.Result.COMPLETE) {
+            reportAcknowledged();
+        }
+        // a duplicate ACK without missing fragments only repeats what we
+        // know already (for example after a retransmission)
+    }
+
+    /**
+     * Retransmit the missing fragments of a frame which were not retransmitted
+     * within the retransmission timeout.
+     *
+     * @param frameIndex index of the frame.
+     * @param toIndex fragment index after the last fragment that is known to
+     * be missing.
+     *
+     * @return false if the frame cannot be recovered (retransmission is
+     * disabled or the grace period of the frame is over).
+     *
+     * @throws IOException if sending fails
+     */
+    private boolean recover(int frameIndex, int toIndex) throws IOException {
+        final RetransmissionBuffer.SentFrame sentFrame = retransmissions == null ? null : retransmissions.get(frameIndex);
+        final long now = System.nanoTime();
+        if (sentFrame == null || sentFrame.isExpired(now)) {
+            return false;
+        }
+        SalsifyFragment fragment = sentFrame.nextToRetransmit(0, toIndex, now);
+        while (fragment != null) {
+            sendFragment(fragment);
+            fragment = sentFrame.nextToRetransmit(fragment.getFragmentIndex() + 1, toIndex, now);
+        }
+        return true;
+    }
+
+    /**
+     * Stop waiting for acknowledgements of frames older than the newest frame
+     * that is completely acknowledged and has no incomplete frame before it.
+     * The listener learns about usable frames only when they are decoded (see
+     * receiveAck(...)).
+     */
+    private void reportAcknowledged() {
+        int newest = -1;
+        for (int index = acknowledgements.getLowestFrameIndex(); index <= acknowledgements.getNewestFrameIndex(); index++) {
+            if (acknowledgements.isPending(index)) {
+                break;
+            }
+            if (acknowledgements.isComplete(index)) {
+                newest = index;
+            }
+        }
+        if (newest > lastAcknowledged) {
+            lastAcknowledged = newest;
+            // we dont need to wait for acknowledgements for older frames than this
+            acknowledgements.evictBefore(newest);
+        }
+    }
+
+    @Override
+    public void resetSender() {
+        // clear all pending acknowledgements
+        acknowledgements.reset();
+    }
+
+}
@@ -0,0 +1,223 @@
+package edu.hm.networks2.salsify.sender.implementation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps track of the acknowledged fragments of the frames in flight. This is a
+ * ring buffer indexed by the frame index. Each slot is a single long which
+ * holds the frame index, the number of fragments and the highest cumulatively
+ * acknowledged fragment, so a slot is updated with one compare and set and
+ * nothing is allocated or boxed.
+ *
+ * A frame that is more than CAPACITY frames older than the newest frame is
+ * overwritten. Evicting all older frames and resetting only moves a lower
+ * bound, so both are O(1).
+ */
+public class AcknowledgementWindow {
+
+    /**
+     * Outcome of an acknowledgement.
+     */
+    public enum Result {
+        /**
+         * The frame is not (or no longer) in the window.
+         */
+        UNKNOWN,
+        /**
+         * The fragment was acknowledged before.
+         */
+        DUPLICATE,
+        /**
+         * The fragment is acknowledged, the frame is not complete yet.
+         */
+        PROGRESS,
+        /**
+         * The last fragment of the frame is acknowledged.
+         */
+        COMPLETE
+    }
+
+    /**
+     * Number of frames in flight that can be tracked. Must be a power of two.
+     */
+    private static final int CAPACITY = 256;
+
+    /**
+     * Maximum number of fragments of a frame (16 bits per slot).
+     */
+    private static final int MAXIMUM_FRAGMENTS = 0xFFFF;
+
+    /**
+     * Value of a slot that holds no frame.
+     */
+    private static final long EMPTY = -1L;
+
+    /**
+     * Slots holding: frame index (32 bits) | number of fragments (16 bits) |
+     * highest acknowledged fragment + 1 (16 bits).
+     */
+    private final AtomicLongArray slots;
+
+    /**
+     * Frames with a lower index are evicted.
+     */
+    private final AtomicInteger lowestFrameIndex;
+
+    /**
+     * Index of the newest frame that was added.
+     */
+    private final AtomicInteger newestFrameIndex;
+
+    public AcknowledgementWindow() {
+        slots = new AtomicLongArray(CAPACITY);
+        for (int index = 0; index < CAPACITY; index++) {
+            slots.set(index, EMPTY);
+        }
+        lowestFrameIndex = new AtomicInteger(0);
+        newestFrameIndex = new AtomicInteger(-1);
+    }
+
+    /**
+     * Add a frame of which nothing is acknowledged yet. A frame that is
+     * already in the window stays unchanged.
+     *
+     * @param frameIndex index of the frame (not negative).
+     * @param numberOfFragments number of fragments of the frame.
+     */
+    public void add(int frameIndex, int numberOfFragments) {
+        if (frameIndex < 0) {
+            throw new IllegalArgumentException("AcknowledgementWindow: Frame index must not be negative!");
+        }
+        if (numberOfFragments < 1 || numberOfFragments > MAXIMUM_FRAGMENTS) {
+            throw new IllegalArgumentException("AcknowledgementWindow: Invalid number of fragments!");
+        }
+        final int slot = frameIndex & (CAPACITY - 1);
+        if (getFrameIndex(slots.get(slot)) != frameIndex) {
+            slots.set(slot, pack(frameIndex, numberOfFragments, 0));
+        }
+        newestFrameIndex.accumulateAndGet(frameIndex, Math::max);
+    }
+
+    /**
+     * Acknowledge all fragments of a frame up to the given fragment.
+     *
+     * @param frameIndex index of the frame.
+     * @param fragmentIndex index of the highest acknowledged fragment.
+     *
+     * @return what the acknowledgement changed.
+     */
+    public Result acknowledge(int frameIndex, int fragmentIndex) {
+        if (frameIndex < lowestFrameIndex.get() || fragmentIndex < -1) {
+            return Result.UNKNOWN;
+        }
+        final int slot = frameIndex & (CAPACITY - 1);
+        while (true) {
+            final long current = slots.get(slot);
+            if (current == EMPTY || getFrameIndex(current) != frameIndex) {
+                return Result.UNKNOWN;
+            }
+            final int numberOfFragments = getNumberOfFragments(current);
+            final int acknowledged = getAcknowledged(current);
+            if (fragmentIndex + 1 <= acknowledged) {
+                return Result.DUPLICATE;
+            }
+            if (fragmentIndex >= numberOfFragments) {
+                return Result.UNKNOWN;
+            }
+            if (slots.compareAndSet(slot, current, pack(frameIndex, numberOfFragments, fragmentIndex + 1))) {
+                return fragmentIndex + 1 == numberOfFragments ? Result.COMPLETE : Result.PROGRESS;
+            }
+        }
+    }
+
+    /**
+     * Check if a frame is in the window and still waits for acknowledgements.
+     *
+     * @param frameIndex index of the frame.
+     *
+     * @return true if the frame is not completely acknowledged yet.
+     */
+    public boolean isPending(int frameIndex) {
+        final long current = getSlot(frameIndex);
+        return current != EMPTY && getAcknowledged(current) < getNumberOfFragments(current);
+    }
+
+    /**
+     * Check if a frame is in the window and completely acknowledged.
+     *
+     * @param frameIndex index of the frame.
+     *
+     * @return true if all fragments of the frame are acknowledged.
+     */
+    public boolean isComplete(int frameIndex) {
+        final long current = getSlot(frameIndex);
+        return current != EMPTY && getAcknowledged(current) == getNumberOfFragments(current);
+    }
+
+    /**
+     * @return index of the oldest frame that may still be in the window.
+     */
+    public int getLowestFrameIndex() {
+        return Math.max(lowestFrameIndex.get(), newestFrameIndex.get() - CAPACITY + 1);
+    }
+
+    /**
+     * @return index of the newest frame that was added, -1 if there is none.
+     */
+    public int getNewestFrameIndex() {
+        return newestFrameIndex.get();
+    }
+
+    /**
+     * Evict all frames older than the given one.
+     *
+     * @param frameIndex index of the oldest frame to keep.
+     */
+    public void evictBefore(int frameIndex) {
+        lowestFrameIndex.accumulateAndGet(frameIndex, Math::max);
+    }
+
+    /**
+     * Evict all frames that were added so far.
+     */
+    public void reset() {
+        evictBefore(newestFrameIndex.get() + 1);
+    }
+
+    /**
+     * Get the slot of a frame.
+     *
+     * @param frameIndex index of the frame.
+     *
+     * @return the slot, EMPTY if the frame is not in the window.
+     */
+    private long getSlot(int frameIndex) {
+        if (frameIndex < lowestFrameIndex.get() || frameIndex < 0) {
+            return EMPTY;
+        }
+        final long current = slots.get(frameIndex & (CAPACITY - 1));
+        return getFrameIndex(current) == frameIndex ? current : EMPTY;
+    }
+
+    private static long pack(int frameIndex, int numberOfFragments, int acknowledged) {
+        return ((long) frameIndex << 32) | ((long) numberOfFragments << 16) | acknowledged;
+    }
+
+    private static int getFrameIndex(long slot) {
+        return (int) (slot >>> 32);
+    }
+
+    private static int getNumberOfFragments(long slot) {
+        return (int) (slot >>> 16) & 0xFFFF;
+    }
+
+    /**
+     * @return highest acknowledged fragment + 1 (0 if nothing is
+     * acknowledged).
+     */
+    private static int getAcknowledged(long slot) {
+        return (int) slot & 0xFFFF;
+    }
+
+}
@@ -0,0 +1,287 @@
+package edu.hm.networks2.salsify.sender.implementation;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import edu.hm.networks2.salsify.common.config.LinkConfiguration;
+import edu.hm.networks2.salsify.common.config.NetworkConfiguration;
+import edu.hm.networks2.salsify.common.implementation.EmulatedLink;
+import edu.hm.networks2.salsify.common.implementation.FrameTracer;
+import edu.hm.networks2.salsify.common.implementation.GlobalLogger;
+import edu.hm.networks2.salsify.common.implementation.TokenBucket;
+import edu.hm.networks2.salsify.common.packets.SalsifyAck;
+import edu.hm.networks2.salsify.common.packets.SalsifyFragment;
+import edu.hm.networks2.salsify.sender.helper.ITransportProtocolListener;
+
+/**
+ * This is an implementation of ISender based on a non-blocking DatagramChannel
+ * which is connected to the receiver. A single selector thread sends the
+ * queued fragments in bursts limited by a token bucket and receives the ACKs on the
+ * same channel. Fragments and ACKs go through direct buffers which are
+ * allocated once.
+ *
+ * A fragment only pays its tokens when it was written. When the socket buffer
+ * is full, the loop waits until the channel is writable again (OP_WRITE) and
+ * retries the fragment.
+ */
+public class ChannelSender extends AbstractSender {
+
+    /**
+     * This is an inner class which extends Thread. This thread sends fragments
+     * and receives ACKs until it gets interrupted.
+     */
+    private class SelectorLoop extends Thread {
+
+        /**
+         * Shorter waits are done by parking instead of select(...), which only
+         * takes milliseconds.
+         */
+        private static final long MINIMUM_SELECT_WAIT = 1000000;
+
+        /**
+         * {@inheritDoc}<br>
+         * This implementation waits until an ACK arrives or the next fragment
+         * may be sent.
+         *
+         * @see java.lang.Thread#run()
+         */
+        @Override
+        public void run() {
+            // allocate memory for incoming acks
+            final ByteBuffer ackBuffer = ByteBuffer.allocateDirect(SalsifyAck.SIZE);
+            // the socket buffer was full, wait until the channel is writable
+            boolean writeBlocked = false;
+
+            while (!isInterrupted()) {
+                try {
+                    // wait for ACKs or new fragments or until the next fragment fits into the bucket
+                    final SalsifyFragment next = queue.peek();
+                    final long wait = next == null ? 0 : bucket.nanosUntilAvailable(next.getSize());
+                    if (next == null || writeBlocked) {
+                        selector.select();
+                    } else if (wait >= MINIMUM_SELECT_WAIT) {
+                        selector.select(TimeUnit.NANOSECONDS.toMillis(wait));
+                    } else if (wait > 0) {
+                        // select(...) cannot wait less than a millisecond
+                        LockSupport.parkNanos(wait);
+                        selector.selectNow();
+                    } else {
+                        selector.selectNow();
+                    }
+                    selector.selectedKeys().clear();
+                    if (writeBlocked) {
+                        // retry the fragment (again waiting for OP_WRITE if
+                        // the buffer is still full)
+                        writeBlocked = false;
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+
+                    // read all ACKs that arrived
+                    ackBuffer.clear();
+                    while (channel.receive(ackBuffer) != null) {
+                        ackBuffer.flip();
+                        if (ackBuffer.remaining() >= SalsifyAck.SIZE) {
+                            receiveAck(new SalsifyAck(ackBuffer));
+                        }
+                        ackBuffer.clear();
+                    }
+
+                    // send a burst of all fragments that fit into the bucket
+                    SalsifyFragment fragment = queue.peek();
+                    while (fragment != null && bucket.nanosUntilAvailable(fragment.getSize()) == 0) {
+                        // the receiver estimates the bandwidth from this (a
+                        // fragment that is retried gets a new send time)
+                        fragment.setSendTime(SalsifyFragment.getCurrentTime());
+                        // is a packet loss forced?
+                        if (loseNextPacket) {
+                            loseNextPacket = false;
+                        } else if (!link.send(fragment, fragment.getSize())) {
+                            // socket buffer is full, try again when the
+                            // channel is writable
+                            writeBlocked = true;
+                            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            break;
+                        }
+                        bucket.consume(fragment.getSize());
+                        if (fragment.getRemainingFragments() == 0) {
+                            FrameTracer.getInstance().mark(fragment.getFrameIndex(), FrameTracer.Point.TRANSMITTED);
+                        }
+                        queue.poll();
+                        fragment = queue.peek();
+                    }
+
+                } catch (ClosedChannelException | ClosedSelectorException exception) {
+                    // thread is stopping when channel is closed
+                    GlobalLogger.getInstance().log(Level.SEVERE, "Stopped waiting for ACKs {0}", exception.toString());
+                    break;
+                } catch (PortUnreachableException exception) {
+                    // receiver is not running (yet)
+                    GlobalLogger.getInstance().log(Level.WARNING, "Salsify Receiver is not reachable. {0}", exception.toString());
+                } catch (IOException exception) {
+                    GlobalLogger.getInstance().log(Level.SEVERE, "Salsify Sender had problems sending fragments or receiving ACKs. {0}", exception.toString());
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}<br>
+         * When this implementation gets interrupted, the channel and the
+         * selector get closed.
+         *
+         * @see java.lang.Thread#interrupt()
+         */
+        @Override
+        public void interrupt() {
+            super.interrupt();
+            link.close();
+            try {
+                selector.close();
+                channel.close();
+            } catch (IOException exception) {
+                GlobalLogger.getInstance().log(Level.SEVERE, "Could not close channel. {0}", exception.toString());
+            }
+        }
+    }
+
+    /**
+     * Channel which is used to send fragments and receive ACKs.
+     */
+    private DatagramChannel channel;
+
+    /**
+     * Wakes up the selector loop when ACKs arrive.
+     */
+    private Selector selector;
+
+    /**
+     * Registration of the channel with the selector.
+     */
+    private SelectionKey key;
+
+    /**
+     * Fragments waiting to be sent.
+     */
+    private final Queue<SalsifyFragment> queue;
+
+    /**
+     * Limits the sent bytes to the bandwidth.
+     */
+    private final TokenBucket bucket;
+
+    /**
+     * Emulates the network behind the bandwidth limit.
+     */
+    private final EmulatedLink<SalsifyFragment> link;
+
+    /**
+     * Outgoing fragments are written into this buffer.
+     */
+    private final ByteBuffer fragmentBuffer;
+
+    /**
+     * Drop the next fragment instead of sending it.
+     */
+    private volatile boolean loseNextPacket;
+
+    /**
+     * Thread that sends fragments and receives ACKs.
+     */
+    private final SelectorLoop selectorLoop;
+
+    /**
+     * Constructor that opens and connects the channel and starts the thread
+     * that sends fragments and receives ACKs.
+     *
+     * @param listener The given listener will get notified about events.
+     * @param bandwidth The bandwidth to send with in bytes per second.
+     */
+    public ChannelSender(ITransportProtocolListener listener, int bandwidth) {
+        super(listener);
+        queue = new ConcurrentLinkedQueue<>();
+        bucket = new TokenBucket(bandwidth, SalsifyFragment.COMPLETE_SIZE);
+        fragmentBuffer = ByteBuffer.allocateDirect(SalsifyFragment.COMPLETE_SIZE);
+        link = new EmulatedLink<>("Fragments", LinkConfiguration.FRAGMENTS, this::writeFragment);
+
+        try {
+            selector = Selector.open();
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(NetworkConfiguration.SENDER_IP, NetworkConfiguration.SENDER_PORT));
+            channel.connect(new InetSocketAddress(NetworkConfiguration.RECEIVER_IP, NetworkConfiguration.RECEIVER_PORT));
+            key = channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException exception) {
+            GlobalLogger.getInstance().log(Level.SEVERE, "Salsify Sender had problems opening a DatagramChannel. {0}", exception.toString());
+        }
+        selectorLoop = new SelectorLoop();
+        selectorLoop.start();
+    }
+
+    /**
+     * {@inheritDoc}<br>
+     * This implementation queues the fragment and wakes up the selector loop.
+     *
+     * @see edu.hm.networks2.salsify.sender.implementation.AbstractSender#sendFragment(edu.hm.networks2.salsify.common.packets.SalsifyFragment)
+     */
+    @Override
+    protected void sendFragment(SalsifyFragment fragment) {
+        queue.add(fragment);
+        selector.wakeup();
+    }
+
+    /**
+     * {@inheritDoc}<br>
+     * This implementation interrupts the selector loop.
+     *
+     * @see edu.hm.networks2.salsify.sender.ISender#stopListening()
+     */
+    @Override
+    public void stopListening() {
+        selectorLoop.interrupt();
+    }
+
+    /**
+     * {@inheritDoc}<br>
+     * This implementation just joins the selector loop.
+     *
+     * @see edu.hm.networks2.salsify.sender.ISender#join()
+     */
+    @Override
+    public void join() throws InterruptedException {
+        selectorLoop.join();
+    }
+
+    /**
+     * Write a fragment to the channel. This is called by the selector loop or
+     * by the emulated link, never by both.
+     *
+     * @param fragment the fragment to send.
+     *
+     * @return false if the socket buffer is full.
+     *
+     * @throws IOException if sending fails
+     */
+    private boolean writeFragment(SalsifyFragment fragment) throws IOException {
+        fragmentBuffer.clear();
+        fragment.writeTo(fragmentBuffer);
+        fragmentBuffer.flip();
+        return channel.write(fragmentBuffer) != 0;
+    }
+
+    @Override
+    public void loseNexPacket() {
+        loseNextPacket = true;
+    }
+
+}
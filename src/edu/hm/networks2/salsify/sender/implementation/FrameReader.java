@@ -0,0 +1,187 @@
+package edu.hm.networks2.salsify.sender.implementation;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+import javax.imageio.ImageIO;
+
+import edu.hm.networks2.salsify.common.implementation.GlobalLogger;
+import edu.hm.networks2.salsify.sender.IFrameSource;
+
+/**
+ * Reads a clip of numbered frames (prefix + index + extension, starting at 0)
+ * while it is played. The frames are decoded in order by a pool of background
+ * threads, at most a given number of frames ahead, so the first frame is
+ * available right away and memory does not grow with the length of the clip.
+ * Only the number of frames is determined up front, which needs no decoding.
+ *
+ * next() must be called by one thread only.
+ */
+public class FrameReader implements IFrameSource {
+
+    /**
+     * Path of the frames up to the index.
+     */
+    private final String prefix;
+
+    private final String extension;
+
+    /**
+     * Number of frames of the clip.
+     */
+    private final int numberOfFrames;
+
+    /**
+     * Start from the beginning after the last frame.
+     */
+    private final boolean loop;
+
+    /**
+     * Maximum number of frames that are decoded ahead.
+     */
+    private final int readAhead;
+
+    /**
+     * Decodes the frames.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * Frames being decoded, in the order they are played.
+     */
+    private final Deque<Future<BufferedImage>> pending;
+
+    /**
+     * Number of frames handed to the pool so far.
+     */
+    private long submittedFrames;
+
+    /**
+     * Construct a reader and start decoding the first frames.
+     *
+     * @param prefix path of the frames up to the index.
+     * @param extension file extension of the frames (including the dot).
+     * @param readAhead maximum number of frames that are decoded ahead.
+     * @param threads number of threads that decode frames.
+     * @param loop start from the beginning after the last frame.
+     */
+    public FrameReader(String prefix, String extension, int readAhead, int threads, boolean loop) {
+        if (prefix == null || extension == null) {
+            throw new NullPointerException("FrameReader: Prefix and extension must not be null!");
+        }
+        if (readAhead < 1 || threads < 1) {
+            throw new IllegalArgumentException("FrameReader: Read ahead and threads must be positive!");
+        }
+        this.prefix = prefix;
+        this.extension = extension;
+        this.readAhead = readAhead;
+        this.loop = loop;
+        this.pending = new ArrayDeque<>(readAhead);
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "FrameReader");
+            // must not keep the program running when the reader is forgotten
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        int count = 0;
+        while (getFile(count).isFile()) {
+            count++;
+        }
+        this.numberOfFrames = count;
+        if (numberOfFrames == 0) {
+            GlobalLogger.getInstance().log(Level.SEVERE, "Could not find any pictures to load at {0}.", getFile(0));
+        }
+        fill();
+    }
+
+    /**
+     * Get the next frame of the clip. Waits until it is decoded. Frames that
+     * cannot be decoded are skipped.
+     *
+     * @return the frame, null if the clip ended (or the thread got
+     * interrupted).
+     */
+    @Override
+    public BufferedImage next() {
+        // when looping, give up after every frame failed once
+        int failures = 0;
+        while (!pending.isEmpty() && failures < Math.max(1, numberOfFrames)) {
+            final Future<BufferedImage> future = pending.poll();
+            fill();
+            try {
+                final BufferedImage frame = future.get();
+                if (frame != null) {
+                    return frame;
+                }
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException exception) {
+                GlobalLogger.getInstance().log(Level.SEVERE, "Could not read frame. {0}", exception.toString());
+            }
+            failures++;
+        }
+        return null;
+    }
+
+    /**
+     * @return number of frames of the clip.
+     */
+    public int getNumberOfFrames() {
+        return numberOfFrames;
+    }
+
+    /**
+     * Stop decoding frames.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+        pending.clear();
+    }
+
+    /**
+     * Hand frames to the pool until readAhead frames are pending.
+     */
+    private void fill() {
+        while (pending.size() < readAhead && numberOfFrames > 0 && (loop || submittedFrames < numberOfFrames)) {
+            final int index = (int) (submittedFrames % numberOfFrames);
+            pending.add(pool.submit(() -> read(index)));
+            submittedFrames++;
+        }
+    }
+
+    /**
+     * Decode a frame.
+     *
+     * @param index index of the frame.
+     *
+     * @return the frame, null if it could not be decoded.
+     */
+    private BufferedImage read(int index) {
+        try {
+            final BufferedImage frame = ImageIO.read(getFile(index));
+            if (frame == null) {
+                GlobalLogger.getInstance().log(Level.SEVERE, "Frame {0} is not an image.", index);
+            }
+            return frame;
+        } catch (IOException exception) {
+            GlobalLogger.getInstance().log(Level.SEVERE, "Could not read frame {0}. {1}", new Object[]{index, exception.toString()});
+            return null;
+        }
+    }
+
+    private File getFile(int index) {
+        return new File(prefix + index + extension);
+    }
+
+}
@@ -0,0 +1,140 @@
+package edu.hm.networks2.salsify.sender.implementation;
+
+/**
+ * Predicts the size of an encoded frame from the JPEG quality. The model is
+ *
+ * size(quality) = floor + scale * shape(quality)
+ *
+ * where floor is the size at quality 0 (headers and DC coefficients), and shape
+ * is a fixed curve that grows slowly up to quality 80 and steeply afterwards.
+ * Floor and scale depend on the content, so they are updated online from every
+ * encoded frame: two encodings of the same frame with different qualities
+ * determine both, a single one keeps their ratio and only moves the level.
+ * The ratio is limited to the range seen on real frames, so a noisy pair of
+ * encodings cannot make the model swing between the lowest and the highest
+ * quality.
+ *
+ * A stream should use one model per kind of frame (with and without source
+ * state), because their sizes differ a lot.
+ */
+public class QualityModel {
+
+    /**
+     * Shape of the size over the quality at qualities 0, 10, ..., 100. It is
+     * 0 at quality 0 and 1 at quality 50 (measured on webcam frames, with and
+     * without source state).
+     */
+    private static final double[] SHAPE = {0.0, 0.2, 0.43, 0.63, 0.81, 1.0, 1.19, 1.47, 2.0, 3.4, 10.0};
+
+    /**
+     * Ratio of scale to floor until a pair of encodings was seen.
+     */
+    private static final double INITIAL_RATIO = 1.0;
+
+    /**
+     * Lowest ratio of scale to floor.
+     */
+    private static final double MINIMUM_RATIO = 0.25;
+
+    /**
+     * Highest ratio of scale to floor.
+     */
+    private static final double MAXIMUM_RATIO = 8.0;
+
+    /**
+     * Two encodings are only used together if their shapes differ at least
+     * this much (about 5 quality points), otherwise noise dominates the fit.
+     */
+    private static final double MINIMUM_SHAPE_DIFFERENCE = 0.1;
+
+    /**
+     * Size at quality 0 in bytes, -1 until the first encoding was seen.
+     */
+    private double floor;
+
+    /**
+     * Growth of the size with the shape in bytes.
+     */
+    private double scale;
+
+    public QualityModel() {
+        floor = -1;
+        scale = -1;
+    }
+
+    /**
+     * @return true if the model has seen an encoding and can predict sizes.
+     */
+    public boolean isTrained() {
+        return floor >= 0;
+    }
+
+    /**
+     * Predict the size of an encoded frame.
+     *
+     * @param quality the quality [0, 100].
+     *
+     * @return the size in bytes, -1 if the model is not trained yet.
+     */
+    public long predict(int quality) {
+        if (!isTrained()) {
+            return -1;
+        }
+        return Math.round(floor + scale * getShape(quality));
+    }
+
+    /**
+     * Update the model with an encoded frame.
+     *
+     * @param quality the quality the frame was encoded with.
+     * @param size the size of the encoded frame in bytes.
+     */
+    public void update(int quality, int size) {
+        final double ratio = isTrained() ? scale / floor : INITIAL_RATIO;
+        floor = Math.max(1, size / (1 + ratio * getShape(quality)));
+        scale = ratio * floor;
+    }
+
+    /**
+     * Update the model with two encodings of the same frame. If they do not
+     * fit the model (for example almost the same quality) only the better one
+     * is used.
+     *
+     * @param betterQuality the higher quality.
+     * @param betterSize the size of the frame with the higher quality.
+     * @param worseQuality the lower quality.
+     * @param worseSize the size of the frame with the lower quality.
+     */
+    public void update(int betterQuality, int betterSize, int worseQuality, int worseSize) {
+        final double shapeDifference = getShape(betterQuality) - getShape(worseQuality);
+        final double newScale = (betterSize - worseSize) / shapeDifference;
+        final double newFloor = worseSize - newScale * getShape(worseQuality);
+        if (shapeDifference >= MINIMUM_SHAPE_DIFFERENCE && newFloor >= 1
+                && newScale >= MINIMUM_RATIO * newFloor && newScale <= MAXIMUM_RATIO * newFloor) {
+            floor = newFloor;
+            scale = newScale;
+        } else {
+            update(betterQuality, betterSize);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QualityModel[floor=" + Math.round(floor) + ", scale=" + Math.round(scale) + "]";
+    }
+
+    /**
+     * Interpolate the shape between the measured qualities.
+     *
+     * @param quality the quality [0, 100].
+     *
+     * @return the shape at the quality.
+     */
+    private static double getShape(int quality) {
+        final int clamped = Math.max(0, Math.min(100, quality));
+        final int index = Math.min(clamped / 10, SHAPE.length - 2);
+        final double fraction = (clamped - index * 10) / 10.0;
+        return SHAPE[index] + fraction * (SHAPE[index + 1] - SHAPE[index]);
+    }
+
+}
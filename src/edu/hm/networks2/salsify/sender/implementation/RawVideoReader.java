@@ -0,0 +1,262 @@
+package edu.hm.networks2.salsify.sender.implementation;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+
+import edu.hm.networks2.salsify.common.implementation.GlobalLogger;
+import edu.hm.networks2.salsify.common.implementation.RasterDifferenceEngine;
+import edu.hm.networks2.salsify.sender.IFrameSource;
+
+/**
+ * Plays a raw video file. The file starts with a header of HEADER_SIZE bytes
+ * (big endian ints):
+ *
+ * magic, version, width, height, pixel format, number of frames, frame size
+ *
+ * followed by the frames without any gaps. A BGR frame is width * height
+ * pixels of blue, green and red bytes (the layout of TYPE_3BYTE_BGR), a YUV420
+ * frame is the full resolution Y plane followed by the U and V planes with
+ * half the width and height (rounded up), full range as in JPEG.
+ *
+ * The file is memory mapped, so reading a frame costs one copy from the page
+ * cache into the pixels of a new image (and the conversion of YUV420 to BGR).
+ * The images cannot be backed by the mapping itself, because the encoder
+ * works on the byte arrays of TYPE_3BYTE_BGR images.
+ *
+ * Use RawVideoWriter to convert a directory of pictures.
+ */
+public class RawVideoReader implements IFrameSource {
+
+    /**
+     * First int of every raw video file ("SRAW").
+     */
+    public static final int MAGIC = 0x53524157;
+
+    public static final int VERSION = 1;
+
+    /**
+     * Size of the header in bytes. Frames start right after it.
+     */
+    public static final int HEADER_SIZE = 32;
+
+    /**
+     * Pixel format: blue, green, red bytes per pixel.
+     */
+    public static final int FORMAT_BGR = 0;
+
+    /**
+     * Pixel format: planar Y, U, V with chroma subsampled by 2 in both
+     * directions.
+     */
+    public static final int FORMAT_YUV420 = 1;
+
+    private final int width;
+
+    private final int height;
+
+    private final int pixelFormat;
+
+    private final int numberOfFrames;
+
+    /**
+     * Bytes of a frame in the file.
+     */
+    private final int frameSize;
+
+    /**
+     * Start from the beginning after the last frame.
+     */
+    private final boolean loop;
+
+    /**
+     * Number of frames in a segment, so a segment fits into one mapping.
+     */
+    private final int framesPerSegment;
+
+    /**
+     * Mappings of the frames, null until a frame of the segment is read.
+     */
+    private final MappedByteBuffer[] segments;
+
+    private final FileChannel channel;
+
+    /**
+     * Index of the next frame.
+     */
+    private int nextFrameIndex;
+
+    /**
+     * Open a raw video file.
+     *
+     * @param file the raw video file.
+     * @param loop start from the beginning after the last frame.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    public RawVideoReader(File file, boolean loop) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("RawVideoReader: File must not be null!");
+        }
+        this.loop = loop;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) != -1) {
+                // read until the header is complete or the file ends
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IllegalArgumentException("RawVideoReader: " + file + " is not a raw video file!");
+            }
+            width = header.getInt();
+            height = header.getInt();
+            pixelFormat = header.getInt();
+            numberOfFrames = header.getInt();
+            frameSize = header.getInt();
+            if (width <= 0 || height <= 0 || numberOfFrames < 0
+                    || (long) frameSize != getFrameSize(width, height, pixelFormat)
+                    || channel.size() < HEADER_SIZE + (long) numberOfFrames * frameSize) {
+                throw new IllegalArgumentException("RawVideoReader: Header of " + file + " does not match its content!");
+            }
+        } catch (IOException | RuntimeException exception) {
+            channel.close();
+            throw exception;
+        }
+        framesPerSegment = Math.max(1, Integer.MAX_VALUE / frameSize);
+        segments = new MappedByteBuffer[(numberOfFrames + framesPerSegment - 1) / framesPerSegment];
+        GlobalLogger.getInstance().log(Level.INFO, "Opened raw video {0}: {1}x{2}, format {3}, {4} frames.",
+                new Object[]{file, width, height, pixelFormat, numberOfFrames});
+    }
+
+    /**
+     * Get the next frame of the video.
+     *
+     * @return the frame as TYPE_3BYTE_BGR image, null if the video ended or
+     * cannot be read anymore.
+     */
+    @Override
+    public BufferedImage next() {
+        if (nextFrameIndex == numberOfFrames) {
+            if (!loop || numberOfFrames == 0) {
+                return null;
+            }
+            nextFrameIndex = 0;
+        }
+        final int frameIndex = nextFrameIndex++;
+        try {
+            final MappedByteBuffer segment = getSegment(frameIndex / framesPerSegment);
+            final int offset = frameIndex % framesPerSegment * frameSize;
+            final BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            final byte[] pixels = RasterDifferenceEngine.getData(frame);
+            if (pixelFormat == FORMAT_BGR) {
+                segment.get(offset, pixels);
+            } else {
+                final byte[] planes = new byte[frameSize];
+                segment.get(offset, planes);
+                convertToBgr(planes, pixels, width, height);
+            }
+            return frame;
+        } catch (IOException exception) {
+            GlobalLogger.getInstance().log(Level.SEVERE, "Could not map frame {0}. {1}", new Object[]{frameIndex, exception.toString()});
+            return null;
+        }
+    }
+
+    /**
+     * Close the file. Mapped segments stay valid until they are collected.
+     */
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            GlobalLogger.getInstance().log(Level.WARNING, "Could not close raw video. {0}", exception.toString());
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getPixelFormat() {
+        return pixelFormat;
+    }
+
+    public int getNumberOfFrames() {
+        return numberOfFrames;
+    }
+
+    /**
+     * Get the size of a frame in a raw video file.
+     *
+     * @param width width of the frame.
+     * @param height height of the frame.
+     * @param pixelFormat FORMAT_BGR or FORMAT_YUV420.
+     *
+     * @return the size in bytes, -1 if the pixel format is unknown.
+     */
+    public static long getFrameSize(int width, int height, int pixelFormat) {
+        switch (pixelFormat) {
+            case FORMAT_BGR:
+                return (long) width * height * 3;
+            case FORMAT_YUV420:
+                return (long) width * height + 2L * ((width + 1) / 2) * ((height + 1) / 2);
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Map a segment of frames when it is needed the first time.
+     */
+    private MappedByteBuffer getSegment(int index) throws IOException {
+        if (segments[index] == null) {
+            final int frames = Math.min(framesPerSegment, numberOfFrames - index * framesPerSegment);
+            segments[index] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE + (long) index * framesPerSegment * frameSize, (long) frames * frameSize);
+        }
+        return segments[index];
+    }
+
+    /**
+     * Convert a YUV420 frame to BGR pixels.
+     *
+     * @param planes the Y, U and V planes.
+     * @param pixels the blue, green, red bytes (line by line).
+     * @param width width of the frame.
+     * @param height height of the frame.
+     */
+    private static void convertToBgr(byte[] planes, byte[] pixels, int width, int height) {
+        final int chromaWidth = (width + 1) / 2;
+        final int uStart = width * height;
+        final int vStart = uStart + chromaWidth * ((height + 1) / 2);
+        int pixel = 0;
+        for (int y = 0; y < height; y++) {
+            final int chromaLine = y / 2 * chromaWidth;
+            for (int x = 0; x < width; x++) {
+                final int luma = (planes[y * width + x] & 0xFF) << 16;
+                final int u = (planes[uStart + chromaLine + x / 2] & 0xFF) - 128;
+                final int v = (planes[vStart + chromaLine + x / 2] & 0xFF) - 128;
+                // BT.601 full range in 16 bit fixed point
+                pixels[pixel++] = clamp((luma + 116130 * u + 32768) >> 16);
+                pixels[pixel++] = clamp((luma - 22554 * u - 46802 * v + 32768) >> 16);
+                pixels[pixel++] = clamp((luma + 91881 * v + 32768) >> 16);
+            }
+        }
+    }
+
+    private static byte clamp(int value) {
+        return (byte) Math.max(0, Math.min(255, value));
+    }
+
+}
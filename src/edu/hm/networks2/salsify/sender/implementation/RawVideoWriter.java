@@ -0,0 +1,228 @@
+package edu.hm.networks2.salsify.sender.implementation;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import edu.hm.networks2.salsify.common.implementation.GlobalLogger;
+import edu.hm.networks2.salsify.common.implementation.RasterDifferenceEngine;
+
+/**
+ * Writes a raw video file that RawVideoReader can play. All frames must have
+ * the size of the first frame. The header is written when the file is closed,
+ * so the number of frames does not need to be known in advance.
+ */
+public class RawVideoWriter {
+
+    private final FileChannel channel;
+
+    private final int pixelFormat;
+
+    private int width;
+
+    private int height;
+
+    private int numberOfFrames;
+
+    /**
+     * Create (or replace) a raw video file.
+     *
+     * @param file the raw video file.
+     * @param pixelFormat RawVideoReader.FORMAT_BGR or
+     * RawVideoReader.FORMAT_YUV420.
+     *
+     * @throws IOException if the file cannot be created.
+     */
+    public RawVideoWriter(File file, int pixelFormat) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("RawVideoWriter: File must not be null!");
+        }
+        if (pixelFormat != RawVideoReader.FORMAT_BGR && pixelFormat != RawVideoReader.FORMAT_YUV420) {
+            throw new IllegalArgumentException("RawVideoWriter: Unknown pixel format!");
+        }
+        this.pixelFormat = pixelFormat;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        channel.position(RawVideoReader.HEADER_SIZE);
+    }
+
+    /**
+     * Append a frame.
+     *
+     * @param frame the frame.
+     *
+     * @throws IOException if the frame cannot be written.
+     */
+    public void write(BufferedImage frame) throws IOException {
+        if (frame == null) {
+            throw new NullPointerException("RawVideoWriter: Frame must not be null!");
+        }
+        if (numberOfFrames == 0) {
+            width = frame.getWidth();
+            height = frame.getHeight();
+        } else if (frame.getWidth() != width || frame.getHeight() != height) {
+            throw new IllegalArgumentException("RawVideoWriter: All frames must have the same size!");
+        }
+
+        final byte[] pixels = RasterDifferenceEngine.getData(toPlainBgr(frame));
+        final ByteBuffer data;
+        if (pixelFormat == RawVideoReader.FORMAT_BGR) {
+            data = ByteBuffer.wrap(pixels);
+        } else {
+            data = ByteBuffer.wrap(convertToYuv(pixels, width, height));
+        }
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+        numberOfFrames++;
+    }
+
+    /**
+     * Write the header and close the file.
+     *
+     * @throws IOException if the header cannot be written.
+     */
+    public void close() throws IOException {
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(RawVideoReader.HEADER_SIZE);
+            header.putInt(RawVideoReader.MAGIC).putInt(RawVideoReader.VERSION)
+                    .putInt(width).putInt(height).putInt(pixelFormat).putInt(numberOfFrames)
+                    .putInt((int) RawVideoReader.getFrameSize(width, height, pixelFormat));
+            header.rewind();
+            while (header.hasRemaining()) {
+                // the header is at the start of the file
+                channel.write(header, header.position());
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    public int getNumberOfFrames() {
+        return numberOfFrames;
+    }
+
+    /**
+     * Convert the pictures of a directory (prefix + index + extension,
+     * starting at 0) into a raw video file.
+     *
+     * @param prefix path of the pictures up to the index.
+     * @param extension file extension of the pictures (including the dot).
+     * @param file the raw video file.
+     * @param pixelFormat RawVideoReader.FORMAT_BGR or
+     * RawVideoReader.FORMAT_YUV420.
+     *
+     * @return the number of frames written.
+     *
+     * @throws IOException if the raw video file cannot be written.
+     */
+    public static int convert(String prefix, String extension, File file, int pixelFormat) throws IOException {
+        final FrameReader reader = new FrameReader(prefix, extension, 8, Runtime.getRuntime().availableProcessors(), false);
+        final RawVideoWriter writer = new RawVideoWriter(file, pixelFormat);
+        try {
+            BufferedImage frame = reader.next();
+            while (frame != null) {
+                writer.write(frame);
+                frame = reader.next();
+            }
+        } finally {
+            reader.close();
+            writer.close();
+        }
+        GlobalLogger.getInstance().log(Level.INFO, "Converted {0} frames to {1}.", new Object[]{writer.getNumberOfFrames(), file});
+        return writer.getNumberOfFrames();
+    }
+
+    /**
+     * Find the file extension of the pictures of a directory from the first
+     * picture (prefix + "0" + extension). If there are several first pictures
+     * the extension that sorts first is used.
+     *
+     * @param prefix path of the pictures up to the index.
+     *
+     * @return the file extension (including the dot), null if there is no
+     * first picture.
+     */
+    public static String findExtension(String prefix) {
+        final File first = new File(prefix + "0").getAbsoluteFile();
+        final String name = first.getName() + ".";
+        final String[] candidates = first.getParentFile().list(
+                (directory, candidate) -> candidate.startsWith(name) && candidate.indexOf('.', name.length()) == -1);
+        if (candidates == null || candidates.length == 0) {
+            return null;
+        }
+        Arrays.sort(candidates);
+        return candidates[0].substring(name.length() - 1);
+    }
+
+    /**
+     * @return the frame itself if its pixels are a plain BGR byte array, a
+     * converted copy otherwise.
+     */
+    private static BufferedImage toPlainBgr(BufferedImage frame) {
+        if (RasterDifferenceEngine.isPlainBgr(frame)) {
+            return frame;
+        }
+        final BufferedImage converted = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+        final Graphics2D graphics = converted.createGraphics();
+        graphics.drawImage(frame, 0, 0, null);
+        graphics.dispose();
+        return converted;
+    }
+
+    /**
+     * Convert BGR pixels to YUV420 planes. Every chroma sample is the average
+     * of (up to) 2x2 pixels.
+     *
+     * @param pixels the blue, green, red bytes (line by line).
+     * @param width width of the frame.
+     * @param height height of the frame.
+     *
+     * @return the Y, U and V planes.
+     */
+    private static byte[] convertToYuv(byte[] pixels, int width, int height) {
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        final int uStart = width * height;
+        final int vStart = uStart + chromaWidth * chromaHeight;
+        final byte[] planes = new byte[vStart + chromaWidth * chromaHeight];
+        final int[] uSums = new int[chromaWidth * chromaHeight];
+        final int[] vSums = new int[chromaWidth * chromaHeight];
+        final int[] counts = new int[chromaWidth * chromaHeight];
+
+        int pixel = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int blue = pixels[pixel++] & 0xFF;
+                final int green = pixels[pixel++] & 0xFF;
+                final int red = pixels[pixel++] & 0xFF;
+                // BT.601 full range in 16 bit fixed point
+                planes[y * width + x] = (byte) ((19595 * red + 38470 * green + 7471 * blue + 32768) >> 16);
+                final int chroma = y / 2 * chromaWidth + x / 2;
+                uSums[chroma] += -11059 * red - 21709 * green + 32768 * blue;
+                vSums[chroma] += 32768 * red - 27439 * green - 5329 * blue;
+                counts[chroma]++;
+            }
+        }
+        for (int chroma = 0; chroma < counts.length; chroma++) {
+            planes[uStart + chroma] = toChroma(uSums[chroma], counts[chroma]);
+            planes[vStart + chroma] = toChroma(vSums[chroma], counts[chroma]);
+        }
+        return planes;
+    }
+
+    /**
+     * @return the average of a chroma sum in fixed point, offset by 128.
+     */
+    private static byte toChroma(int sum, int count) {
+        final int value = 128 + Math.round(sum / (65536f * count));
+        return (byte) Math.max(0, Math.min(255, value));
+    }
+
+}
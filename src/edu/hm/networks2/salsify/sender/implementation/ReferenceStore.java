@@ -0,0 +1,223 @@
+package edu.hm.networks2.salsify.sender.implementation;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.util.Arrays;
+
+/**
+ * Keeps the frames the encoder may use as references, i.e. the sent frames as
+ * the receiver decodes them. This is a ring of slots with reusable images: a
+ * frame is copied into a free slot (or the slot of the oldest frame), so the
+ * pixel memory is recycled instead of keeping every image until it is
+ * acknowledged. The number of slots is limited by a capacity in bytes.
+ *
+ * The newest acknowledged frame and the frame the next frame is based on are
+ * never overwritten. Frames older than the newest acknowledged frame are
+ * invalid, because the receiver will not need them anymore. A frame counts as
+ * acknowledged when the receiver reported that it decoded it. The frame the
+ * next frame is based on is kept even if a newer frame was acknowledged while
+ * encoding, because the encoder (and cancelled encodings) may still read it.
+ *
+ * All methods are synchronized. An image returned by get(...) stays valid
+ * until the next store(...) which does not keep it.
+ */
+public class ReferenceStore {
+
+    /**
+     * Value of a slot index that holds no frame.
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * At least this many slots are used, so there is always a slot besides
+     * the ones that are kept.
+     */
+    private static final int MINIMUM_SLOTS = 3;
+
+    /**
+     * Maximum number of bytes of all slots.
+     */
+    private final long capacity;
+
+    /**
+     * Reusable images, null until a slot is used the first time.
+     */
+    private BufferedImage[] slots;
+
+    /**
+     * Frame index stored in every slot, EMPTY if the slot is free.
+     */
+    private int[] slotFrameIndices;
+
+    /**
+     * Index of the newest acknowledged frame, -1 if there is none.
+     */
+    private int acknowledgedFrameIndex;
+
+    private long recycledSlots;
+
+    private long overwrittenFrames;
+
+    /**
+     * Construct an empty store. The number of slots is decided when the first
+     * frame is stored.
+     *
+     * @param capacity maximum number of bytes of all slots.
+     */
+    public ReferenceStore(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("ReferenceStore: Capacity must be positive!");
+        }
+        this.capacity = capacity;
+        this.acknowledgedFrameIndex = -1;
+    }
+
+    /**
+     * Copy a frame into a slot. A free slot is used if there is one,
+     * otherwise the slot of the oldest frame that is not kept.
+     *
+     * @param frameIndex index of the frame.
+     * @param frame the frame. It is not kept.
+     * @param keepFrameIndex index of a frame that must not be overwritten
+     * (usually the frame the new frame is based on).
+     */
+    public synchronized void store(int frameIndex, BufferedImage frame, int keepFrameIndex) {
+        if (frame == null) {
+            throw new NullPointerException("ReferenceStore: Frame must not be null!");
+        }
+        if (slots == null) {
+            final int numberOfSlots = (int) Math.max(MINIMUM_SLOTS, Math.min(Integer.MAX_VALUE, capacity / getSize(frame)));
+            slots = new BufferedImage[numberOfSlots];
+            slotFrameIndices = new int[numberOfSlots];
+            Arrays.fill(slotFrameIndices, EMPTY);
+        }
+
+        int victim = -1;
+        for (int slot = 0; slot < slots.length; slot++) {
+            final int storedFrameIndex = slotFrameIndices[slot];
+            if (storedFrameIndex == frameIndex || storedFrameIndex == EMPTY
+                    || storedFrameIndex != keepFrameIndex && storedFrameIndex < acknowledgedFrameIndex) {
+                // free (or invalid) slots are used first, but not the kept one
+                victim = slot;
+                break;
+            }
+            if (storedFrameIndex != acknowledgedFrameIndex && storedFrameIndex != keepFrameIndex
+                    && (victim == -1 || storedFrameIndex < slotFrameIndices[victim])) {
+                victim = slot;
+            }
+        }
+        if (slotFrameIndices[victim] != EMPTY && slotFrameIndices[victim] >= acknowledgedFrameIndex) {
+            overwrittenFrames++;
+        }
+
+        if (slots[victim] == null || !isCompatible(slots[victim], frame)) {
+            final ColorModel colorModel = frame.getColorModel();
+            slots[victim] = new BufferedImage(colorModel,
+                    frame.getRaster().createCompatibleWritableRaster(),
+                    colorModel.isAlphaPremultiplied(), null);
+        } else {
+            recycledSlots++;
+        }
+        slots[victim].getRaster().setRect(frame.getRaster());
+        slotFrameIndices[victim] = frameIndex;
+    }
+
+    /**
+     * Get a stored frame.
+     *
+     * @param frameIndex index of the frame.
+     *
+     * @return the frame, null if it is not valid (anymore).
+     */
+    public synchronized BufferedImage get(int frameIndex) {
+        final int slot = findSlot(frameIndex);
+        return slot == -1 ? null : slots[slot];
+    }
+
+    /**
+     * Check if a frame can be used as a reference for delta encoding.
+     *
+     * @param frameIndex index of the frame.
+     *
+     * @return true if the frame is stored and not older than the newest
+     * acknowledged frame.
+     */
+    public synchronized boolean isValid(int frameIndex) {
+        return findSlot(frameIndex) != -1;
+    }
+
+    /**
+     * Mark a frame as acknowledged. All older frames become invalid and their
+     * slots free.
+     *
+     * @param frameIndex index of the acknowledged frame.
+     */
+    public synchronized void acknowledge(int frameIndex) {
+        acknowledgedFrameIndex = Math.max(acknowledgedFrameIndex, frameIndex);
+    }
+
+    /**
+     * @return index of the newest acknowledged frame if it is still stored,
+     * -1 otherwise.
+     */
+    public synchronized int getAcknowledgedFrameIndex() {
+        return findSlot(acknowledgedFrameIndex) == -1 ? -1 : acknowledgedFrameIndex;
+    }
+
+    /**
+     * @return number of frames copied into a slot without allocating.
+     */
+    public synchronized long getRecycledSlots() {
+        return recycledSlots;
+    }
+
+    /**
+     * @return number of valid frames that were overwritten because all slots
+     * were used.
+     */
+    public synchronized long getOverwrittenFrames() {
+        return overwrittenFrames;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ReferenceStore[slots=" + (slots == null ? 0 : slots.length)
+                + ", acknowledged=" + acknowledgedFrameIndex
+                + ", recycled=" + recycledSlots + ", overwritten=" + overwrittenFrames + "]";
+    }
+
+    /**
+     * @return slot of a valid frame, -1 if there is none.
+     */
+    private int findSlot(int frameIndex) {
+        if (slots == null || frameIndex < 0 || frameIndex < acknowledgedFrameIndex) {
+            return -1;
+        }
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (slotFrameIndices[slot] == frameIndex) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the pixels of frame can be copied into slot.
+     */
+    private static boolean isCompatible(BufferedImage slot, BufferedImage frame) {
+        return slot.getWidth() == frame.getWidth() && slot.getHeight() == frame.getHeight()
+                && slot.getType() == frame.getType()
+                && slot.getSampleModel().equals(frame.getSampleModel())
+                && slot.getColorModel().equals(frame.getColorModel());
+    }
+
+    /**
+     * @return number of bytes the pixels of a frame take.
+     */
+    private static long getSize(BufferedImage frame) {
+        final DataBuffer dataBuffer = frame.getRaster().getDataBuffer();
+        return Math.max(1, (long) dataBuffer.getSize() * dataBuffer.getNumBanks() * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / Byte.SIZE);
+    }
+
+}
@@ -0,0 +1,202 @@
+package edu.hm.networks2.salsify.sender.implementation;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import edu.hm.networks2.salsify.common.packets.SalsifyFragment;
+import edu.hm.networks2.salsify.common.packets.SalsifyFrame;
+
+/**
+ * Keeps the recently sent frames, so missing fragments can be sent again. This
+ * is a ring buffer indexed by the frame index. Frames are added by the sending
+ * thread, everything else is only done by the thread that receives the ACKs.
+ *
+ * A fragment that is still missing after a retransmission is retransmitted
+ * again when the retransmission timeout passed. The timeout is twice the
+ * smoothed time between retransmitting a fragment and its acknowledgement.
+ */
+public class RetransmissionBuffer {
+
+    /**
+     * A sent frame together with what the receiver reported about it.
+     */
+    public class SentFrame {
+
+        private final SalsifyFrame frame;
+
+        /**
+         * Missing fragments are only retransmitted until this point in time
+         * (nanoseconds).
+         */
+        private final long deadline;
+
+        /**
+         * Fragments the receiver reported as received.
+         */
+        private final BitSet received;
+
+        /**
+         * Fragments that were already retransmitted.
+         */
+        private final BitSet retransmitted;
+
+        /**
+         * Time of the latest retransmission of every fragment (nanoseconds).
+         */
+        private final long[] retransmissionTimes;
+
+        SentFrame(SalsifyFrame frame, long deadline) {
+            this.frame = frame;
+            this.deadline = deadline;
+            this.received = new BitSet(frame.getNumberOfFragments());
+            this.retransmitted = new BitSet(frame.getNumberOfFragments());
+            this.retransmissionTimes = new long[frame.getNumberOfFragments()];
+        }
+
+        /**
+         * Take over what an ACK reports about this frame.
+         *
+         * @param cumulativeFragmentIndex all fragments up to this one were
+         * received.
+         * @param selectiveAcks bitmap of the fragments received after
+         * cumulativeFragmentIndex + 1 (see SalsifyAck).
+         * @param now current time in nanoseconds.
+         */
+        public void markReceived(int cumulativeFragmentIndex, long selectiveAcks, long now) {
+            int fragmentIndex = received.nextClearBit(0);
+            while (fragmentIndex <= cumulativeFragmentIndex) {
+                markReceived(fragmentIndex, now);
+                fragmentIndex = received.nextClearBit(fragmentIndex + 1);
+            }
+            long bits = selectiveAcks;
+            while (bits != 0) {
+                markReceived(cumulativeFragmentIndex + 1 + Long.numberOfTrailingZeros(bits), now);
+                bits &= bits - 1;
+            }
+        }
+
+        private void markReceived(int fragmentIndex, long now) {
+            if (fragmentIndex >= frame.getNumberOfFragments() || received.get(fragmentIndex)) {
+                return;
+            }
+            received.set(fragmentIndex);
+            if (retransmitted.get(fragmentIndex)) {
+                sampleRoundTripTime(now - retransmissionTimes[fragmentIndex]);
+            }
+        }
+
+        /**
+         * Get the next fragment that is missing and was not retransmitted
+         * within the retransmission timeout and mark it as retransmitted.
+         * A fragment the receiver can still reconstruct from parity (because
+         * the parity fragment of its group is not before toIndex) is not
+         * missing yet. A parity fragment is only missing when data of its
+         * group is missing as well.
+         *
+         * @param fromIndex first fragment index to look at.
+         * @param toIndex fragment index after the last one to look at.
+         * @param now current time in nanoseconds.
+         *
+         * @return the fragment, null if there is none.
+         */
+        public SalsifyFragment nextToRetransmit(int fromIndex, int toIndex, long now) {
+            final long timeout = getRetransmissionTimeout();
+            int fragmentIndex = fromIndex;
+            while (fragmentIndex < Math.min(toIndex, frame.getNumberOfFragments())) {
+                if (!received.get(fragmentIndex) && isNeeded(fragmentIndex, toIndex)
+                        && (!retransmitted.get(fragmentIndex) || now - retransmissionTimes[fragmentIndex] > timeout)) {
+                    retransmitted.set(fragmentIndex);
+                    retransmissionTimes[fragmentIndex] = now;
+                    return frame.getFragment(fragmentIndex);
+                }
+                fragmentIndex++;
+            }
+            return null;
+        }
+
+        /**
+         * @return false if retransmitting the missing fragment does not help
+         * the receiver (yet).
+         */
+        private boolean isNeeded(int fragmentIndex, int toIndex) {
+            if (frame.isParity(fragmentIndex)) {
+                return received.nextClearBit(frame.getGroupStart(fragmentIndex)) < fragmentIndex;
+            }
+            return frame.getParityIndex(fragmentIndex) < toIndex;
+        }
+
+        public boolean isExpired(long now) {
+            return now > deadline;
+        }
+    }
+
+    /**
+     * Number of frames that are kept. Must be a power of two.
+     */
+    private static final int CAPACITY = 64;
+
+    /**
+     * Retransmission timeout before the first round trip was measured.
+     */
+    private static final long INITIAL_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Weight of a new round trip sample.
+     */
+    private static final double MOVING_AVERAGE_FACTOR = 0.125;
+
+    private final AtomicReferenceArray<SentFrame> frames;
+
+    /**
+     * Smoothed round trip time of retransmissions in nanoseconds, -1 if there
+     * was no sample yet.
+     */
+    private double roundTripTime;
+
+    public RetransmissionBuffer() {
+        frames = new AtomicReferenceArray<>(CAPACITY);
+        roundTripTime = -1;
+    }
+
+    /**
+     * Keep a sent frame. This replaces the frame that was kept CAPACITY frames
+     * earlier.
+     *
+     * @param frame the sent frame. Its data must not change anymore.
+     * @param deadline point in time (nanoseconds) after which the frame is not
+     * retransmitted anymore.
+     */
+    public void add(SalsifyFrame frame, long deadline) {
+        frames.set(frame.getFrameIndex() & (CAPACITY - 1), new SentFrame(frame, deadline));
+    }
+
+    /**
+     * Get a sent frame.
+     *
+     * @param frameIndex index of the frame.
+     *
+     * @return the frame, null if it is not kept (anymore).
+     */
+    public SentFrame get(int frameIndex) {
+        final SentFrame sentFrame = frames.get(frameIndex & (CAPACITY - 1));
+        return sentFrame != null && sentFrame.frame.getFrameIndex() == frameIndex ? sentFrame : null;
+    }
+
+    /**
+     * @return time in nanoseconds after which a fragment that is still
+     * missing is retransmitted again.
+     */
+    private long getRetransmissionTimeout() {
+        return roundTripTime < 0 ? INITIAL_TIMEOUT : Math.round(2 * roundTripTime);
+    }
+
+    private void sampleRoundTripTime(long sample) {
+        if (roundTripTime < 0) {
+            roundTripTime = sample;
+        } else {
+            roundTripTime = MOVING_AVERAGE_FACTOR * sample + (1 - MOVING_AVERAGE_FACTOR) * roundTripTime;
+        }
+    }
+
+}
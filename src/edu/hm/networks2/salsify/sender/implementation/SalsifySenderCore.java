@@ -3,17 +3,31 @@ package edu.hm.networks2.salsify.sender.implementation;
 import java.awt.FlowLayout;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
 
 import edu.hm.networks2.salsify.common.ICodec;
+import edu.hm.networks2.salsify.common.config.CodecConfiguration;
+import edu.hm.networks2.salsify.common.config.NetworkConfiguration;
 import edu.hm.networks2.salsify.common.implementation.Codec;
+import edu.hm.networks2.salsify.common.implementation.FrameEventLog;
+import edu.hm.networks2.salsify.common.implementation.FrameTracer;
 import edu.hm.networks2.salsify.common.implementation.GlobalLogger;
+import edu.hm.networks2.salsify.common.implementation.RasterDifferenceEngine;
+import edu.hm.networks2.salsify.common.implementation.TiledCodec;
+import edu.hm.networks2.salsify.common.packets.SalsifyFrame;
 import edu.hm.networks2.salsify.sender.ISalsifySenderCore;
 import edu.hm.networks2.salsify.sender.ISender;
 import edu.hm.networks2.salsify.sender.IWebcam;
@@ -22,19 +36,59 @@ import edu.hm.networks2.salsify.sender.helper.IWebcamListener;
 
 public class SalsifySenderCore implements ISalsifySenderCore, IWebcamListener, ITransportProtocolListener {
 
+    /**
+     * Quality offset used while no bandwidth is known.
+     */
+    private static final int QUALITY_STEP = 5;
+
+    /**
+     * Besides the best quality the size model predicts to fit, every frame is
+     * encoded with a safety candidate in case the prediction was too
+     * optimistic (for example at a scene change). false encodes every frame
+     * only once.
+     */
+    private static final boolean SAFETY_CANDIDATE = true;
+
+    /**
+     * The safety candidate is predicted to take at most this share of the
+     * possible bytes...
+     */
+    private static final double SAFETY_SHARE = 0.7;
+
+    /**
+     * ...and its quality is at least this much lower.
+     */
+    private static final int SAFETY_OFFSET = 5;
+
+    /**
+     * Maximum time in milliseconds we wait for the candidate encodings.
+     */
+    private static final long ENCODE_DEADLINE = Webcam.FRAME_DELAY;
+
     private final IWebcam webcam;
     private final ICodec codec;
     private final ISender sender;
 
     /**
-     * Maps integer (frame index) to buffered image (frame).
+     * Encodes the candidates of a frame in parallel.
+     */
+    private final ExecutorService encoderPool;
+
+    /**
+     * Keeps the sent frames (as the receiver decodes them) until they cannot
+     * be a source anymore.
      */
-    private final Map<Integer, BufferedImage> frames;
+    private final ReferenceStore references;
 
     /**
-     * The next frame will be based on this source frame.
+     * Predicts the size of frames encoded without source state.
      */
-    private int sourceFrameIndex;
+    private final QualityModel intraModel;
+
+    /**
+     * Predicts the size of frames encoded on a source state.
+     */
+    private final QualityModel deltaModel;
 
     /**
      * The index of the current frame.
@@ -48,22 +102,55 @@ public class SalsifySenderCore implements ISalsifySenderCore, IWebcamListener, I
     private int lastFrameQuality;
 
     /**
-     * Locks access to source frame index.
+     * Number of frames that were sent.
+     */
+    private volatile long sentFrames;
+
+    /**
+     * Number of encoded bytes that were sent (without headers and parity).
+     */
+    private volatile long sentBytes;
+
+    /**
+     * Number of frames that were dropped because no candidate fit.
      */
-    private final Object lock;
+    private volatile long droppedFrames;
 
+    /**
+     * Number of resets because of lost fragments.
+     */
+    private volatile long resets;
+
+    /**
+     * Window with the packet loss button, null if there are no controls.
+     */
     private final JFrame parent;
 
     public SalsifySenderCore(int bandwidth) {
-        webcam = new Webcam();
-        codec = new Codec();
-        sender = new Sender(this, bandwidth);
-        frames = new HashMap<>();
-        frames.put(-1, null);
-        sourceFrameIndex = -1;
+        this(new Webcam(), bandwidth, true);
+    }
+
+    /**
+     * Construct a sender core which sends the frames of the given webcam.
+     *
+     * @param webcam the webcam.
+     * @param bandwidth the bandwidth of the link in bytes per second.
+     * @param controls show a window with a button for forced packet loss.
+     */
+    public SalsifySenderCore(IWebcam webcam, int bandwidth, boolean controls) {
+        this.webcam = webcam;
+        codec = CodecConfiguration.TILED ? new TiledCodec(new Codec(), CodecConfiguration.TILES) : new Codec();
+        sender = NetworkConfiguration.USE_CHANNEL ? new ChannelSender(this, bandwidth) : new Sender(this, bandwidth);
+        encoderPool = Executors.newFixedThreadPool(SAFETY_CANDIDATE ? 2 : 1);
+        references = new ReferenceStore(CodecConfiguration.STATE_CAPACITY);
+        intraModel = new QualityModel();
+        deltaModel = new QualityModel();
         lastFrameQuality = 0;  // 70% quality is jpeg default
-        lock = new Object();
 
+        if (!controls) {
+            parent = null;
+            return;
+        }
         // show a GUI with a button for forced packet loss
         parent = new JFrame("Salsify Receiver");
         parent.getContentPane().setLayout(new FlowLayout());
@@ -77,59 +164,60 @@ public class SalsifySenderCore implements ISalsifySenderCore, IWebcamListener, I
 
     @Override
     public void start() {
-        parent.setVisible(true);
+        if (parent != null) {
+            parent.setVisible(true);
+        }
         webcam.register(this);
         webcam.start();
     }
 
     @Override
     public void receiveFrame(BufferedImage frame) {
-        // store frame until this frame is acknowledged by the receiver
-        frames.put(currentFrameIndex, frame);
-
-        // this is the sourcee state for the encoder
-        // (the new frame will be encoded on source)
-        final Optional<BufferedImage> source;
-        if (getSourceFrameIndex() == -1) {
-            source = Optional.empty();
-        } else {
-            //
-            source = Optional.empty();
-            //source = Optional.of(frames.get(getSourceFrameIndex()));
+        FrameTracer.getInstance().mark(currentFrameIndex, FrameTracer.Point.CAPTURED);
+
+        // this is the source state for the encoder
+        // (the new frame will be encoded on source). It is the newest frame
+        // the receiver has decoded, so the receiver has it for sure.
+        // After a scene cut the frame is encoded without source.
+        Optional<BufferedImage> source;
+        int sourceFrameIndex;
+        synchronized (references) {
+            source = Optional.ofNullable(references.get(references.getAcknowledgedFrameIndex()));
+            sourceFrameIndex = source.isPresent() ? references.getAcknowledgedFrameIndex() : -1;
         }
-
-        // encode the frame
-        int qualityBetter = lastFrameQuality + 5;
-        int qualityWorse = lastFrameQuality - 5;
-        if (qualityBetter > 100) {
-            qualityBetter = 100;
-        }
-        if (qualityWorse < 0) {
-            qualityWorse = 0;
+        if (source.isPresent() && RasterDifferenceEngine.getClippedShare(source.get(), frame) > CodecConfiguration.SCENE_CUT_SHARE) {
+            source = Optional.empty();
+            sourceFrameIndex = -1;
         }
 
-        final byte[] encodedFrameBetter
-                = codec.encode(source, frame, qualityBetter).get();
+        // frames with and without source differ a lot in size
+        final QualityModel model = source.isPresent() ? deltaModel : intraModel;
 
-        final byte[] encodedFrameWorse
-                = codec.encode(source, frame, qualityWorse).get();
-
-        // we need a bandwidht estimation to decide which frame to send
-        int bandwidthEstimate = sender.getLatestBandwidth();
+        // we need a bandwidth estimation to decide which frame to send
+        final int bandwidthEstimate = sender.getLatestBandwidth();
 
         if (bandwidthEstimate == -1) {
             // it seems like there is no bandwidth data available yet
+            // so we only need the lower quality version
+            final int qualityWorse = clampQuality(lastFrameQuality - QUALITY_STEP);
+            final byte[] encodedFrameWorse = encode(source, frame, qualityWorse).get();
+            model.update(qualityWorse, encodedFrameWorse.length);
 
             // send the lower quality version
-            GlobalLogger.getInstance().log(Level.INFO, "Sending low quality ({0}) because we have no bandwidth estimate yet. Length: {1}", new Object[]{qualityWorse, encodedFrameWorse.length});
+            if (GlobalLogger.getInstance().isLoggable(Level.INFO)) {
+                GlobalLogger.getInstance().log(Level.INFO, "Sending low quality ({0}) because we have no bandwidth estimate yet. Length: {1}", new Object[]{qualityWorse, encodedFrameWorse.length});
+            }
+            FrameEventLog.getInstance().record(FrameEventLog.Event.SENT, currentFrameIndex, qualityWorse, encodedFrameWorse.length);
+            FrameTracer.getInstance().mark(currentFrameIndex, FrameTracer.Point.ENCODED);
             try {
-                sender.sendFrame(encodedFrameWorse, currentFrameIndex, getSourceFrameIndex(), 0);
+                sender.sendFrame(encodedFrameWorse, currentFrameIndex, sourceFrameIndex, 0);
+                countSent(encodedFrameWorse);
             } catch (IOException exception) {
                 GlobalLogger.getInstance().log(Level.SEVERE, "Error occured while sending frame: {0}", exception.toString());
             }
             lastFrameQuality = qualityWorse;
-            // next frame will be based on the frame we jst sent
-            setSourceFrameIndex(currentFrameIndex);
+            // later frames may be based on the frame we just sent
+            storeReference(source, sourceFrameIndex, encodedFrameWorse);
             // index for the next frame
             currentFrameIndex++;
 
@@ -138,51 +226,229 @@ public class SalsifySenderCore implements ISalsifySenderCore, IWebcamListener, I
             double frameDelay = Webcam.FRAME_DELAY / 1000.0;
             long bytesPossible = Math.round(frameDelay * bandwidthEstimate);
 
-            if (bytesPossible > encodedFrameBetter.length) {
-                // it seems like there is enough bandwidth for the better quality frame available
-                GlobalLogger.getInstance().log(Level.INFO, "Sending frame {0} with high quality ({1}) because it fits into possible bytes {2} with length: {3}", new Object[]{currentFrameIndex, qualityBetter, bytesPossible, encodedFrameBetter.length});
+            // encode the quality the model predicts (and the safety
+            // candidate) in parallel and pick the best one that fits
+            final int[] qualities = selectQualities(model, bytesPossible);
+            final byte[][] encodedFrames = new byte[qualities.length][];
+            final int selected = encodeCandidates(source, frame, qualities, bytesPossible, encodedFrames);
+            updateModel(model, qualities, encodedFrames);
+
+            if (selected != -1) {
+                // it seems like there is enough bandwidth for this candidate
+                if (GlobalLogger.getInstance().isLoggable(Level.INFO)) {
+                    GlobalLogger.getInstance().log(Level.INFO, "Sending frame {0} with quality {1} because it fits into possible bytes {2} with length: {3} ({4})", new Object[]{currentFrameIndex, qualities[selected], bytesPossible, encodedFrames[selected].length, model});
+                }
+                FrameEventLog.getInstance().record(FrameEventLog.Event.SENT, currentFrameIndex, qualities[selected], encodedFrames[selected].length);
 
+                FrameTracer.getInstance().mark(currentFrameIndex, FrameTracer.Point.ENCODED);
                 try {
-                    sender.sendFrame(encodedFrameBetter, currentFrameIndex, getSourceFrameIndex(), 0);
+                    sender.sendFrame(encodedFrames[selected], currentFrameIndex, sourceFrameIndex, 0);
+                    countSent(encodedFrames[selected]);
                 } catch (IOException exception) {
                     GlobalLogger.getInstance().severe(exception.toString());
                 }
-                lastFrameQuality = qualityBetter;
+                lastFrameQuality = qualities[selected];
 
-                // next frame will be based on the frame we jst sent
-                setSourceFrameIndex(currentFrameIndex);
+                // later frames may be based on the frame we just sent
+                storeReference(source, sourceFrameIndex, encodedFrames[selected]);
                 // index for the next frame
                 currentFrameIndex++;
 
-            } else if (bytesPossible < encodedFrameBetter.length && bytesPossible > encodedFrameWorse.length) {
-                // it seems like there is enough bandwidth for the worse quality
-                // but not enough for the better quality
-
-                GlobalLogger.getInstance().log(Level.INFO, "Sending frame {0} with low quality ({1}) because it fits into possible bytes {2} with length: {3}", new Object[]{currentFrameIndex, qualityWorse, bytesPossible, encodedFrameBetter.length});
-
-                try {
-                    sender.sendFrame(encodedFrameBetter, currentFrameIndex, getSourceFrameIndex(), 0);
-                } catch (IOException exception) {
-                    GlobalLogger.getInstance().severe(exception.toString());
-                }
-                lastFrameQuality = qualityWorse;
-                // next frame will be based on the frame we jst sent
-                setSourceFrameIndex(currentFrameIndex);
-                // index for the next frame
-                currentFrameIndex++;
             } else {
                 // if there is not enough bandwidth for any of these frames we will
                 // simply skip this one
-                GlobalLogger.getInstance().log(Level.INFO, "Dropping frame {0} because it does not fit into possible bytes {1} with length: {2}", new Object[]{currentFrameIndex, bytesPossible, encodedFrameBetter.length});
-                lastFrameQuality = qualityWorse - 5;
+                final int qualityWorse = qualities[qualities.length - 1];
+                if (GlobalLogger.getInstance().isLoggable(Level.INFO)) {
+                    GlobalLogger.getInstance().log(Level.INFO, "Dropping frame {0} because no candidate fits into possible bytes {1}", new Object[]{currentFrameIndex, bytesPossible});
+                }
+                FrameEventLog.getInstance().record(FrameEventLog.Event.DROPPED, currentFrameIndex, bytesPossible, 0);
+                lastFrameQuality = clampQuality(qualityWorse - QUALITY_STEP);
+                droppedFrames++;
                 currentFrameIndex++;
             }
         }
 
     }
 
+    /**
+     * Encode the frame with all given qualities in parallel and select the
+     * candidate with the best quality that fits into the possible bytes. We
+     * assume that a higher quality never results in a smaller frame. So as soon
+     * as a candidate fits and all better candidates are known to be too big,
+     * the remaining encodings are cancelled. The same happens when the worst
+     * candidate is too big. When ENCODE_DEADLINE passes we decide with the
+     * candidates that are ready.
+     *
+     * Cancelling interrupts the encoding thread. The codec checks this before
+     * it writes the jpeg (for the tiled codec: before each tile starts), so
+     * a cancelled encoding frees its thread early. A jpeg that is being
+     * written is finished, so it can still delay the next frame by up to one
+     * jpeg encoding (one tile with the tiled codec).
+     *
+     * @param source the source state for the encoder.
+     * @param frame the frame to encode.
+     * @param qualities the qualities to encode with, from best to worst.
+     * @param bytesPossible the number of bytes we are allowed to send.
+     * @param encodedFrames gets filled with the encoded candidates (same order
+     * as qualities, null if not encoded).
+     *
+     * @return index of the selected candidate or -1 if none fits.
+     */
+    private int encodeCandidates(Optional<BufferedImage> source, BufferedImage frame, int[] qualities, long bytesPossible, byte[][] encodedFrames) {
+
+        final CompletionService<Integer> completionService = new ExecutorCompletionService<>(encoderPool);
+        final List<Future<Integer>> futures = new ArrayList<>(qualities.length);
+        for (int index = 0; index < qualities.length; index++) {
+            final int candidate = index;
+            futures.add(completionService.submit(() -> {
+                encodedFrames[candidate] = encode(source, frame, qualities[candidate]).orElse(null);
+                return candidate;
+            }));
+        }
+
+        // best candidate that fits so far
+        int best = qualities.length;
+        // all candidates below this index are too big
+        int firstPossible = 0;
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ENCODE_DEADLINE);
+        final boolean[] done = new boolean[qualities.length];
+        boolean decided = false;
+        try {
+            while (!decided) {
+                final Future<Integer> future = completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (future == null) {
+                    GlobalLogger.getInstance().log(Level.WARNING, "Encoding deadline of {0} ms passed for frame {1}.", new Object[]{ENCODE_DEADLINE, currentFrameIndex});
+                    break;
+                }
+                final int candidate = future.get();
+                done[candidate] = true;
+
+                if (encodedFrames[candidate] != null && fits(encodedFrames[candidate].length, bytesPossible)) {
+                    best = Math.min(best, candidate);
+                } else {
+                    firstPossible = Math.max(firstPossible, candidate + 1);
+                }
+
+                // we are done when all candidates better than best are known
+                // to be too big (this also covers the case that none fits)
+                decided = true;
+                for (int index = firstPossible; index < best && index < qualities.length; index++) {
+                    decided &= done[index];
+                }
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException exception) {
+            GlobalLogger.getInstance().log(Level.SEVERE, "Error occured while encoding frame: {0}", exception.toString());
+        }
+
+        // the losers are not needed anymore, they stop at the next check of
+        // the codec
+        futures.forEach(future -> future.cancel(true));
+
+        return best < qualities.length ? best : -1;
+    }
+
+    /**
+     * Encode a frame and record how long it took.
+     *
+     * @param source the source state for the encoder.
+     * @param frame the frame to encode.
+     * @param quality the quality [0, 100].
+     *
+     * @return the encoded frame, empty if encoding failed.
+     */
+    private Optional<byte[]> encode(Optional<BufferedImage> source, BufferedImage frame, int quality) {
+        final long start = System.nanoTime();
+        final Optional<byte[]> encodedFrame = codec.encode(source, frame, quality);
+        FrameTracer.getInstance().record(FrameTracer.Stage.ENCODE_CANDIDATE, System.nanoTime() - start);
+        return encodedFrame;
+    }
+
+    /**
+     * Select the qualities to encode a frame with: the best quality the model
+     * predicts to fit into the possible bytes and a worse safety candidate.
+     * While the model has not seen an encoding yet the last quality is used.
+     *
+     * @param model predicts the size of the frame.
+     * @param bytesPossible the number of bytes we are allowed to send.
+     *
+     * @return the qualities from best to worst.
+     */
+    private int[] selectQualities(QualityModel model, long bytesPossible) {
+        final int quality = model.isTrained() ? predictQuality(model, bytesPossible) : lastFrameQuality;
+        if (!SAFETY_CANDIDATE || quality == 0) {
+            return new int[]{quality};
+        }
+        final int safetyQuality = model.isTrained() ? predictQuality(model, Math.round(bytesPossible * SAFETY_SHARE)) : quality;
+        return new int[]{quality, clampQuality(Math.min(safetyQuality, quality - SAFETY_OFFSET))};
+    }
+
+    /**
+     * Find the best quality the model predicts to fit into the possible bytes.
+     *
+     * @param model predicts the size of the frame.
+     * @param bytesPossible the number of bytes we are allowed to send.
+     *
+     * @return the quality, 0 if none fits.
+     */
+    private static int predictQuality(QualityModel model, long bytesPossible) {
+        for (int quality = 100; quality > 0; quality--) {
+            if (fits(model.predict(quality), bytesPossible)) {
+                return quality;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Update the model with all candidates that were encoded.
+     *
+     * @param model the model to update.
+     * @param qualities the qualities of the candidates, from best to worst.
+     * @param encodedFrames the encoded candidates (null if not encoded).
+     */
+    private static void updateModel(QualityModel model, int[] qualities, byte[][] encodedFrames) {
+        if (qualities.length == 2 && encodedFrames[0] != null && encodedFrames[1] != null) {
+            model.update(qualities[0], encodedFrames[0].length, qualities[1], encodedFrames[1].length);
+            return;
+        }
+        for (int index = 0; index < qualities.length; index++) {
+            if (encodedFrames[index] != null) {
+                model.update(qualities[index], encodedFrames[index].length);
+            }
+        }
+    }
+
+    /**
+     * Check if an encoded frame fits into the possible bytes. Parity fragments
+     * and headers are sent as well.
+     *
+     * @param size size of the encoded frame in bytes.
+     * @param bytesPossible the number of bytes we are allowed to send.
+     *
+     * @return true if the frame fits.
+     */
+    private static boolean fits(long size, long bytesPossible) {
+        return size <= Integer.MAX_VALUE 
+                && bytesPossible > SalsifyFrame.getTransmittedSize((int) size, NetworkConfiguration.FEC_GROUP_SIZE);
+    }
+
+    /**
+     * Limit the quality to [0, 100].
+     *
+     * @param quality the quality to limit.
+     *
+     * @return the limited quality.
+     */
+    private static int clampQuality(int quality) {
+        return Math.max(0, Math.min(100, quality));
+    }
+
     @Override
     public void disconnected() {
+        encoderPool.shutdownNow();
         sender.stopListening();
     }
 
@@ -194,17 +460,12 @@ public class SalsifySenderCore implements ISalsifySenderCore, IWebcamListener, I
     @Override
     public void reset() {
 
-        // we need to find the lowest available index
-        // we'll start with current frame index
-        int index = currentFrameIndex;
-        // while there is a lower key
-        while (frames.containsKey(index - 1)) {
-            index--;
-        }
+        // the newest decoded frame is the only one the receiver is known to
+        // have, all frames are based on it anyway
+        final int index = references.getAcknowledgedFrameIndex();
 
         // the result of the above might be -1 --> we have no basis yet
         // everything else means that is our new basis
-        setSourceFrameIndex(index);
         // adjust quality...
         if (lastFrameQuality - 20 > 0) {
             lastFrameQuality = lastFrameQuality - 20;
@@ -212,7 +473,9 @@ public class SalsifySenderCore implements ISalsifySenderCore, IWebcamListener, I
             lastFrameQuality = 0;
         }
 
+        resets++;
         GlobalLogger.getInstance().log(Level.INFO, "Received reset notification (duplicate ack). Resetting to source with index {0} and quality {1}.", new Object[]{index, lastFrameQuality});
+        FrameEventLog.getInstance().record(FrameEventLog.Event.RESET, index, lastFrameQuality, 0);
 
         // also tell sender to reset
         sender.resetSender();
@@ -220,35 +483,66 @@ public class SalsifySenderCore implements ISalsifySenderCore, IWebcamListener, I
 
     @Override
     public void acknowledged(int frameIndex) {
-        // remove previous frames from map (except there are none)
-        boolean moreFramesToRemove = true;
-        int index = frameIndex - 1;
-        while (moreFramesToRemove) {
-            frames.remove(index);
-            index--;
-            moreFramesToRemove = frames.containsKey(index);
-        }
+        // the receiver decoded this frame, previous frames are not needed
+        // anymore and their slots get reused
+        references.acknowledge(frameIndex);
+    }
+
+    /**
+     * @return number of frames that were sent.
+     */
+    public long getSentFrames() {
+        return sentFrames;
     }
 
     /**
-     * Synchronized access to source frame index variable.
+     * @return number of encoded bytes that were sent (without headers and
+     * parity).
+     */
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * @return number of frames that were dropped because no candidate fit.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return number of resets because of lost fragments.
+     */
+    public long getResets() {
+        return resets;
+    }
+
+    /**
+     * Count a frame that was sent. Only called by the webcam thread.
      *
-     * @return int containing the value
+     * @param encodedFrame the sent frame.
      */
-    private int getSourceFrameIndex() {
-        synchronized (lock) {
-            return this.sourceFrameIndex;
-        }
+    private void countSent(byte[] encodedFrame) {
+        sentFrames++;
+        sentBytes += encodedFrame.length;
     }
 
     /**
-     * Synchronized access to source frame index variable.
+     * Keep a sent frame as a possible source for later frames. The frame is
+     * decoded like the receiver will decode it, so later differences are
+     * computed against exactly the image the receiver has and errors of the
+     * lossy encoding do not add up.
      *
-     * @param sourceFrameIndex the index to set
+     * @param source the source the frame was encoded on.
+     * @param sourceFrameIndex index of the source.
+     * @param encodedFrame the sent frame.
      */
-    public void setSourceFrameIndex(int sourceFrameIndex) {
-        synchronized (lock) {
-            this.sourceFrameIndex = sourceFrameIndex;
+    private void storeReference(Optional<BufferedImage> source, int sourceFrameIndex, byte[] encodedFrame) {
+        final Optional<BufferedImage> decodedFrame = codec.decode(source, encodedFrame);
+        if (decodedFrame.isPresent()) {
+            references.store(currentFrameIndex, decodedFrame.get(), sourceFrameIndex);
+        } else {
+            GlobalLogger.getInstance().log(Level.WARNING, "Could not decode frame {0}, it cannot be a source.", currentFrameIndex);
         }
     }
 
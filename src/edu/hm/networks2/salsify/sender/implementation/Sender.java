@@ -6,18 +6,14 @@ import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
-import java.util.AbstractMap;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.logging.Level;
 
+import edu.hm.networks2.salsify.common.config.LinkConfiguration;
 import edu.hm.networks2.salsify.common.config.NetworkConfiguration;
 import edu.hm.networks2.salsify.common.implementation.GlobalLogger;
 import edu.hm.networks2.salsify.common.implementation.LimitedSocket;
 import edu.hm.networks2.salsify.common.packets.SalsifyAck;
 import edu.hm.networks2.salsify.common.packets.SalsifyFragment;
-import edu.hm.networks2.salsify.common.packets.SalsifyFrame;
-import edu.hm.networks2.salsify.sender.ISender;
 import edu.hm.networks2.salsify.sender.helper.ITransportProtocolListener;
 
 /**
@@ -26,7 +22,7 @@ import edu.hm.networks2.salsify.sender.helper.ITransportProtocolListener;
  *
  * @author Philipp
  */
-public class Sender implements ISender {
+public class Sender extends AbstractSender {
 
     /**
      * This is an inner class which extends Thread. This thread receives ACKs
@@ -54,13 +50,8 @@ public class Sender implements ISender {
                 try {
                     // block until an ACK arrives
                     socket.receive(ack);
-                    // extract data from reveived ACK
-                    final SalsifyAck salsifyAck = new SalsifyAck(ackData);
-                    // set new inter arrival time
-                    setLatestBandwidth(salsifyAck.getBandwidth());
-
-                    // process ack. handles duplicate ack check...
-                    processAck(salsifyAck.getFrameIndex(), salsifyAck.getFragmentIndex());
+                    // extract data from reveived ACK and process it
+                    receiveAck(new SalsifyAck(ackData));
 
                 } catch (SocketException exception) {
                     // thread is stopping when socket is closed
@@ -96,25 +87,9 @@ public class Sender implements ISender {
     private final AckReceiver ackReceiver;
 
     /**
-     * Latest measured bandwidth time.
-     */
-    private int latestBandwidth;
-
-    /**
-     * Stores listeners to notify about events.
-     */
-    private final ITransportProtocolListener listener;
-
-    /**
-     * This keeps track of acknowledged frames by keeping track of all
-     * acknowledged fragments.
-     *
-     * Maps frameIndex to pair which contains: (numberOfFragments, index of
-     * highest acknowledged fragment. starts with -1 and is complete when equals
-     * numberOfFragments - 1)
-     *
+     * Address of the receiver. It is resolved once.
      */
-    private final Map<Integer, Map.Entry<Integer, Integer>> acknowledgements;
+    private InetAddress receiverAddress;
 
     /**
      * Constructor that creates the socket for sending frames and receiving ACKs
@@ -123,61 +98,27 @@ public class Sender implements ISender {
      * @param listener The given listener will get notified about events.
      */
     public Sender(ITransportProtocolListener listener, int bandwidth) {
-        latestBandwidth = -1;
+        super(listener);
 
         try {
-            socket = new LimitedSocket(NetworkConfiguration.SENDER_PORT, InetAddress.getByName(NetworkConfiguration.SENDER_IP), SalsifyFragment.COMPLETE_SIZE, bandwidth);
+            socket = new LimitedSocket(NetworkConfiguration.SENDER_PORT, InetAddress.getByName(NetworkConfiguration.SENDER_IP), SalsifyFragment.COMPLETE_SIZE, bandwidth, LinkConfiguration.FRAGMENTS);
+            receiverAddress = InetAddress.getByName(NetworkConfiguration.RECEIVER_IP);
         } catch (SocketException | UnknownHostException exception) {
             GlobalLogger.getInstance().log(Level.SEVERE, "Salsify Sender had problems opening a DatagramSocket. {0}", exception.toString());
         }
-        acknowledgements = new HashMap<>();
         ackReceiver = new AckReceiver();
-        this.listener = listener;
         ackReceiver.start();
     }
 
     /**
      * {@inheritDoc}<br>
-     * This implementation splits a frame into several fragments and uses UDP
-     * packets to send them.
+     * This implementation queues the fragment in the limited socket.
      *
-     * @see edu.hm.networks2.salsify.sender.ISender#sendFrame(byte[], int, int,
-     * int)
+     * @see edu.hm.networks2.salsify.sender.implementation.AbstractSender#sendFragment(edu.hm.networks2.salsify.common.packets.SalsifyFragment)
      */
     @Override
-    public void sendFrame(byte[] data, int frameIndex, int sourceFrameIndex, int gracePeriod) throws IOException {
-
-    	// debug purposes
-//    	try {
-//        	BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
-//            File outputfile = new File("results" + File.separator + "sender-diff" + frameIndex + ".jpg");
-//            ImageIO.write(image, "jpg", outputfile);
-//        } catch (IOException exception) {
-//            System.out.println("error occured while writing file to disk");
-//        }
-    	
-        // build a salsify frame from input data
-        final SalsifyFrame frame = new SalsifyFrame(data, frameIndex, sourceFrameIndex, gracePeriod);
-
-        // add to acknowledgements
-        addUnacknowledgedFrame(frameIndex, frame.getNumberOfFragments());
-
-        // send each salsify fragment inside the frame
-        for (int index = 0; index < frame.getNumberOfFragments(); index++) {
-            final byte[] fragment = frame.getFragment(index).getRawPacket();
-            socket.send(new DatagramPacket(fragment, fragment.length, InetAddress.getByName(NetworkConfiguration.RECEIVER_IP), NetworkConfiguration.RECEIVER_PORT));
-        }
-    }
-
-    /**
-     * {@inheritDoc}<br>
-     * This implementation is just a normal getter.
-     *
-     * @see edu.hm.networks2.salsify.sender.ISender#getLatestInterArrivalTime()
-     */
-    @Override
-    public int getLatestBandwidth() {
-        return latestBandwidth;
+    protected void sendFragment(SalsifyFragment fragment) throws IOException {
+        socket.send(fragment, receiverAddress, NetworkConfiguration.RECEIVER_PORT);
     }
 
     /**
@@ -202,127 +143,9 @@ public class Sender implements ISender {
         ackReceiver.join();
     }
 
-    private void setLatestBandwidth(int latestBandwidth) {
-        this.latestBandwidth = latestBandwidth;
-    }
-
-    /**
-     * Add a new entry to acknowledged frames. Make sure the index does not
-     * exist yet.
-     *
-     * @param frameIndex The index of the new frame.
-     * @param numberOfFragments The number of fragments that will be unack-
-     * nowledged for this frame.
-     */
-    private void addUnacknowledgedFrame(int frameIndex, int numberOfFragments) {
-        if (!getAcknowledgements().containsKey(frameIndex)) {
-            // start with -1 (nothing is ackowledged)
-            getAcknowledgements().put(frameIndex, new AbstractMap.SimpleEntry<>(numberOfFragments, -1));
-        }
-    }
-
-    /**
-     * Remove the given frame from the acknowledgements.
-     *
-     * @param frameIndex frame identified by its index.
-     */
-    private void removeFrameFromAcknowledgements(int frameIndex) {
-        if (getAcknowledgements().containsKey(frameIndex)) {
-            getAcknowledgements().remove(frameIndex);
-        }
-    }
-
-    /**
-     * Check if a given frame is completely acknowledged. That means that the
-     * key of the entry minus one equals the highest received fragment
-     * acknowledgement index.
-     *
-     * @param frameIndex frame identified by its index.
-     *
-     * @return boolean indicating if the given frame is completely acknowledged.
-     */
-    private boolean isFrameAcknowledged(int frameIndex) {
-        boolean result = false;
-        if (getAcknowledgements().containsKey(frameIndex)) {
-            result = (getAcknowledgements().get(frameIndex).getKey() - 1) == getAcknowledgements().get(frameIndex).getValue();
-        }
-        return result;
-    }
-
-    /**
-     * Acknowledge a specific fragment in a specific frame.
-     *
-     * @param frameIndex identifies fragment
-     * @param fragmentIndex identifies fragment
-     *
-     * @return true if its a duplicate ack
-     */
-    private boolean acknowledgeFragment(int frameIndex, int fragmentIndex) {
-        boolean duplicate = false;
-
-        // exists?
-        if (getAcknowledgements().containsKey(frameIndex)) {
-            // is already acknowledged?
-            int oldValue = getAcknowledgements().get(frameIndex).getValue();
-            duplicate = oldValue >= fragmentIndex;
-
-            // only modify if old value smaller than new one
-            if (oldValue < fragmentIndex) {
-                getAcknowledgements().get(frameIndex).setValue(fragmentIndex);
-            }
-
-        }
-        return duplicate;
-    }
-
-    /**
-     * This checks if the acknowledgment is duplicate
-     *
-     * @param frameIndex
-     * @param fragmentIndex
-     */
-    private void processAck(int frameIndex, int fragmentIndex) {
-
-        // add and check for duplicate
-        if (acknowledgeFragment(frameIndex, fragmentIndex)) {
-            // DUPLICATE FOUND!
-            // listener has to reset back to a frame that is completely 
-            // acknowledged
-            listener.reset();
-
-        } else {
-            // everything fine
-            if (isFrameAcknowledged(frameIndex)) {
-                // perfect we have a complete frame --> report to salsify
-                listener.acknowledged(frameIndex);
-                // we dont need to wait for acknowledgements for older frames than this
-                int index = frameIndex -1;
-                while (getAcknowledgements().containsKey(frameIndex - 1)) {
-                    removeFrameFromAcknowledgements(index);
-                    index--;
-                }
-            }
-        }
-
-    }
-
-    @Override
-    public void resetSender() {
-        // clear all pending acknowledgements
-        getAcknowledgements().clear();
-    }
-
     @Override
     public void loseNexPacket() {
     	socket.loseNexPacket();
     }
-    
-    /**
-     * Synchronized access to acknowledgements.
-     * @return acknowledgements map
-     */
-    public synchronized Map<Integer, Map.Entry<Integer, Integer>> getAcknowledgements() {      
-        return acknowledgements;
-    }
 
 }
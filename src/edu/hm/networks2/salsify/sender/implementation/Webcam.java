@@ -6,21 +6,19 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.Queue;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.LinkedBlockingQueue;
-
-import javax.imageio.ImageIO;
 
+import edu.hm.networks2.salsify.sender.IFrameSource;
 import edu.hm.networks2.salsify.sender.IWebcam;
 import edu.hm.networks2.salsify.sender.helper.IWebcamListener;
 import java.util.logging.Level;
 
 /**
- * This is an implementation of IWebcam. It loads all available frames from the
- * file system and sends them to all listeners.
+ * This is an implementation of IWebcam. It plays the frames of a clip from the
+ * file system and sends them to all listeners. The frames are decoded in the
+ * background shortly before they are needed, so the clip may be arbitrarily
+ * long. A raw video file is played instead if there is one.
  *
  * @author Philipp
  */
@@ -41,15 +39,31 @@ public class Webcam implements IWebcam {
      */
     private static final String FRAME_EXTENSION = ".jpeg";
 
+    /**
+     * Raw video file (see RawVideoReader) that is played instead of the frame
+     * directory if it exists, because its frames do not need to be decoded.
+     */
+    private static final String RAW_VIDEO = System.getProperty("user.dir") + File.separator + "frames864.raw";
+
     /**
      * Delay in between two frames.
      */
     public static final int FRAME_DELAY = 500;
 
     /**
-     * A queue that stores all available frames.
+     * Maximum number of frames that are decoded ahead.
      */
-    private final Queue<BufferedImage> frames;
+    private static final int READ_AHEAD = 8;
+
+    /**
+     * Number of threads that decode frames.
+     */
+    private static final int READ_THREADS = 2;
+
+    /**
+     * Play the clip again after the last frame instead of disconnecting.
+     */
+    private static final boolean LOOP = false;
 
     /**
      * A list of all webcam listeners.
@@ -60,53 +74,58 @@ public class Webcam implements IWebcam {
      * Constructor that instantiates all needed fields.
      */
     public Webcam() {
-        frames = new LinkedBlockingQueue<>();
         listeners = new ArrayList<>();
     }
 
     /**
      * {@inheritDoc}<br>
-     * This implementation loads all available frames from a file system and
-     * stores them in a queue. After that a timer thread is started, which sends
-     * all frames from the queue.
+     * This implementation opens the clip and starts a timer thread, which
+     * sends the next frame as soon as it is available.
      *
      * @see edu.hm.networks2.salsify.sender.IWebcam#start()
      */
     @Override
     public void start() {
-        // load all available images in an array
-        int counter = 0;
-        boolean searching = true;
-        while (searching) {
-            try {
-                // load next frame and store it in memory
-                frames.add(ImageIO.read(new File(FRAME_DIRECTORY + FRAME_NAME + counter + FRAME_EXTENSION)));
-                counter++;
-            } catch (IOException exception) {
-                // when next frame is not found, end searching
-                GlobalLogger.getInstance().log(Level.SEVERE, "Could not find any pictures to load. {0}", exception.toString());
-                searching = false;
-            }
-        }
-        // produce a new frame every 100 ms
+        final IFrameSource reader = openClip();
+        // produce a new frame every FRAME_DELAY ms
         final Timer timer = new Timer();
         timer.schedule(new TimerTask() {
 
             @Override
             public void run() {
-                try {
-                    // get next frame and send the frame to all listeners
-                    listeners.forEach(listener -> listener.receiveFrame(frames.remove()));
-                } catch (NoSuchElementException exception) {
+                final BufferedImage frame = reader.next();
+                if (frame == null) {
                     timer.cancel();
+                    reader.close();
                     // notify all listeners that the webcam stopped working
                     GlobalLogger.getInstance().severe("Webcam stopped working!");
                     listeners.forEach(listener -> listener.disconnected());
+                    return;
                 }
+                // send the frame to all listeners
+                listeners.forEach(listener -> listener.receiveFrame(frame));
             }
         }, 0, FRAME_DELAY);
     }
 
+    /**
+     * Open the raw video file if it exists and can be read, the frame
+     * directory otherwise.
+     *
+     * @return the source of the frames.
+     */
+    private static IFrameSource openClip() {
+        final File rawVideo = new File(RAW_VIDEO);
+        if (rawVideo.isFile()) {
+            try {
+                return new RawVideoReader(rawVideo, LOOP);
+            } catch (IOException | IllegalArgumentException exception) {
+                GlobalLogger.getInstance().log(Level.WARNING, "Could not open raw video, using frame directory. {0}", exception.toString());
+            }
+        }
+        return new FrameReader(FRAME_DIRECTORY + FRAME_NAME, FRAME_EXTENSION, READ_AHEAD, READ_THREADS, LOOP);
+    }
+
     /**
      * {@inheritDoc}<br>
      * This implementation adds the given listener to the listeners list.